@@ -0,0 +1,69 @@
+package edu.ncsu.csc.benchmark.jmh;
+
+import edu.ncsu.csc.coffee_maker.models.RecipeBook;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * Settings and fixtures shared by the JMH benchmarks. Every benchmark runs in
+ * a forked JVM with the JVM arguments below, which select the h2 Hibernate
+ * profile: a private in-memory database, created on start and gone on exit,
+ * in place of the one in any hibernate.cfg.xml on the classpath.
+ *
+ * @author sbutler2901
+ */
+final class BenchmarkSupport {
+
+    /** The embedded in-memory database profile */
+    static final String DATABASE      = "-D" + HibernateUtil.PROFILE_PROPERTY + "=h2";
+    /** Room for the recipes the benchmarks add */
+    static final String CAPACITY      = "-Dcoffeemaker.recipes.capacity=1000";
+    /** No background compaction while measuring */
+    static final String NO_COMPACTION = "-Dcoffeemaker.inventory.compactInterval=0";
+
+    /** Units of each ingredient added before every measurement iteration */
+    static final int    STOCK         = 10000000;
+
+    /**
+     * Not instantiated.
+     */
+    private BenchmarkSupport () {
+    }
+
+    /**
+     * Creates a recipe that takes one unit of each ingredient.
+     *
+     * @param name
+     *            recipe name
+     * @param price
+     *            recipe price
+     * @return the recipe
+     */
+    static Recipe recipe ( final String name, final int price ) {
+        final Recipe recipe = new Recipe();
+        recipe.setName( name );
+        recipe.setPrice( price );
+        recipe.setCoffee( 1 );
+        recipe.setMilk( 1 );
+        recipe.setSugar( 1 );
+        recipe.setChocolate( 1 );
+        return recipe;
+    }
+
+    /**
+     * Returns the book's recipe with the given name, adding it first if
+     * needed.
+     *
+     * @param book
+     *            recipe book
+     * @param name
+     *            recipe name
+     * @return the recipe, as held by the book
+     */
+    static Recipe ensureRecipe ( final RecipeBook book, final String name ) {
+        if ( book.findRecipe( name ) == null ) {
+            book.addRecipe( recipe( name, 50 ) );
+        }
+        return book.findRecipe( name );
+    }
+}
@@ -0,0 +1,79 @@
+package edu.ncsu.csc.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ncsu.csc.coffee_maker.models.CoffeeMaker;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * Throughput of CoffeeMaker.makeCoffee, end to end: recipe lookup, taking
+ * the ingredients and saving the inventory. Run with several thread counts
+ * (-t) to see how orders contend.
+ *
+ * @author sbutler2901
+ */
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.SECONDS )
+@Warmup ( iterations = 3, time = 2 )
+@Measurement ( iterations = 5, time = 2 )
+@Fork ( value = 1, jvmArgsAppend = { BenchmarkSupport.DATABASE, BenchmarkSupport.CAPACITY,
+        BenchmarkSupport.NO_COMPACTION } )
+@State ( Scope.Benchmark )
+public class CoffeeMakerBenchmark {
+
+    /** Coffee maker under test */
+    private CoffeeMaker coffeeMaker;
+
+    /** Recipe ordered */
+    private Recipe      recipe;
+
+    /**
+     * Creates the coffee maker and the recipe.
+     */
+    @Setup ( Level.Trial )
+    public void setUp () {
+        coffeeMaker = new CoffeeMaker();
+        recipe = BenchmarkSupport.ensureRecipe( coffeeMaker.getRecipeBook(), "JmhCoffee" );
+    }
+
+    /**
+     * Restocks, so that every order in the iteration can be made.
+     */
+    @Setup ( Level.Iteration )
+    public void restock () {
+        coffeeMaker.addInventory( BenchmarkSupport.STOCK, BenchmarkSupport.STOCK, BenchmarkSupport.STOCK,
+                BenchmarkSupport.STOCK );
+    }
+
+    /**
+     * Writes pending updates and closes the database.
+     */
+    @TearDown ( Level.Trial )
+    public void tearDown () {
+        HibernateUtil.shutdown();
+    }
+
+    /**
+     * Orders one drink.
+     *
+     * @return change
+     */
+    @Benchmark
+    public int makeCoffee () {
+        return coffeeMaker.makeCoffee( recipe, 100 );
+    }
+}
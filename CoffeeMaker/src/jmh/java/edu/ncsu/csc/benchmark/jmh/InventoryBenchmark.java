@@ -0,0 +1,105 @@
+package edu.ncsu.csc.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ncsu.csc.coffee_maker.models.InventoryStore;
+import edu.ncsu.csc.coffee_maker.models.persistent.Inventory;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * Throughput of the shared Inventory: the lock-free check, taking
+ * ingredients (which also saves the inventory) and formatting it. The
+ * inventory's settings (write-behind, group commit, journal) can be passed
+ * to the forked JVM with -jvmArgsAppend to compare them.
+ *
+ * @author sbutler2901
+ */
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.SECONDS )
+@Warmup ( iterations = 3, time = 2 )
+@Measurement ( iterations = 5, time = 2 )
+@Fork ( value = 1, jvmArgsAppend = { BenchmarkSupport.DATABASE, BenchmarkSupport.CAPACITY,
+        BenchmarkSupport.NO_COMPACTION } )
+@State ( Scope.Benchmark )
+public class InventoryBenchmark {
+
+    /** Store that changes the inventory */
+    private InventoryStore store;
+
+    /** Inventory under test */
+    private Inventory      inventory;
+
+    /** Recipe checked and made */
+    private Recipe         recipe;
+
+    /**
+     * Loads the inventory.
+     */
+    @Setup ( Level.Trial )
+    public void setUp () {
+        store = InventoryStore.getInstance();
+        inventory = store.getInventory();
+        recipe = BenchmarkSupport.recipe( "JmhInventory", 50 );
+    }
+
+    /**
+     * Restocks, so that every use in the iteration succeeds.
+     */
+    @Setup ( Level.Iteration )
+    public void restock () {
+        store.addIngredients( BenchmarkSupport.STOCK, BenchmarkSupport.STOCK, BenchmarkSupport.STOCK,
+                BenchmarkSupport.STOCK );
+    }
+
+    /**
+     * Writes pending updates and closes the database.
+     */
+    @TearDown ( Level.Trial )
+    public void tearDown () {
+        HibernateUtil.shutdown();
+    }
+
+    /**
+     * Checks whether a recipe can be made.
+     *
+     * @return true if it can
+     */
+    @Benchmark
+    public boolean enoughIngredients () {
+        return inventory.enoughIngredients( recipe );
+    }
+
+    /**
+     * Takes the ingredients for a recipe and saves the inventory.
+     *
+     * @return true if they were taken
+     */
+    @Benchmark
+    public boolean useIngredients () {
+        return store.useIngredients( recipe );
+    }
+
+    /**
+     * Formats the inventory.
+     *
+     * @return the inventory as text
+     */
+    @Benchmark
+    public String inventoryToString () {
+        return inventory.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package edu.ncsu.csc.benchmark.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ncsu.csc.coffee_maker.models.RecipeBook;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * Throughput of RecipeBook lookups and writes. Lookups never lock; writes
+ * hold the book's monitor for a database round trip, so with several threads
+ * (-t) the write benchmarks show how much that serializes.
+ *
+ * @author sbutler2901
+ */
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.SECONDS )
+@Warmup ( iterations = 3, time = 2 )
+@Measurement ( iterations = 5, time = 2 )
+@Fork ( value = 1, jvmArgsAppend = { BenchmarkSupport.DATABASE, BenchmarkSupport.CAPACITY,
+        BenchmarkSupport.NO_COMPACTION } )
+@State ( Scope.Benchmark )
+public class RecipeBookBenchmark {
+
+    /** Number of recipes in the book while measuring */
+    private static final int RECIPES = 10;
+
+    /** Recipe book under test */
+    private RecipeBook       book;
+
+    /** Names of the recipes in the book */
+    private String[]         names;
+
+    /** Makes the names of added recipes unique */
+    private final AtomicLong added   = new AtomicLong();
+
+    /**
+     * Fills the book.
+     */
+    @Setup ( Level.Trial )
+    public void setUp () {
+        book = new RecipeBook();
+        names = new String[RECIPES];
+        for ( int i = 0; i < RECIPES; i++ ) {
+            names[i] = "JmhRecipe" + i;
+            BenchmarkSupport.ensureRecipe( book, names[i] );
+        }
+    }
+
+    /**
+     * Closes the database.
+     */
+    @TearDown ( Level.Trial )
+    public void tearDown () {
+        HibernateUtil.shutdown();
+    }
+
+    /**
+     * Looks up a recipe by name, ignoring case.
+     *
+     * @return the recipe
+     */
+    @Benchmark
+    public Recipe findRecipe () {
+        return book.findRecipe( names[ThreadLocalRandom.current().nextInt( RECIPES ) ].toUpperCase() );
+    }
+
+    /**
+     * Adds a recipe and deletes it again, so that the book stays the same
+     * size.
+     *
+     * @return the name of the deleted recipe
+     */
+    @Benchmark
+    public String addRecipe () {
+        final Recipe recipe = BenchmarkSupport.recipe( "JmhAdded" + added.incrementAndGet(), 50 );
+        book.addRecipe( recipe );
+        return book.deleteRecipe( recipe );
+    }
+
+    /**
+     * Changes the price of a recipe.
+     *
+     * @return the name of the edited recipe
+     */
+    @Benchmark
+    public String editRecipe () {
+        final int index = ThreadLocalRandom.current().nextInt( RECIPES );
+        final Recipe edit = BenchmarkSupport.recipe( names[index], 40 + ThreadLocalRandom.current().nextInt( 20 ) );
+        return book.editRecipe( index, edit );
+    }
+}
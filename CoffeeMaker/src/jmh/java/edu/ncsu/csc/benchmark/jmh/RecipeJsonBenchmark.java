@@ -0,0 +1,82 @@
+package edu.ncsu.csc.benchmark.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+
+/**
+ * Time to convert a Recipe to and from JSON the way the REST API does. No
+ * database is involved.
+ *
+ * @author sbutler2901
+ */
+@BenchmarkMode ( Mode.AverageTime )
+@OutputTimeUnit ( TimeUnit.NANOSECONDS )
+@Warmup ( iterations = 3, time = 1 )
+@Measurement ( iterations = 5, time = 1 )
+@Fork ( 1 )
+@State ( Scope.Benchmark )
+public class RecipeJsonBenchmark {
+
+    /** Configured like Spring Boot's mapper */
+    private ObjectMapper mapper;
+
+    /** Recipe to serialize */
+    private Recipe       recipe;
+
+    /** The recipe as JSON */
+    private String       json;
+
+    /**
+     * Creates the mapper and the recipe.
+     *
+     * @throws JsonProcessingException
+     *             if the recipe cannot be serialized
+     */
+    @Setup
+    public void setUp () throws JsonProcessingException {
+        mapper = new ObjectMapper().configure( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false );
+        recipe = BenchmarkSupport.recipe( "JmhJson", 50 );
+        json = mapper.writeValueAsString( recipe );
+    }
+
+    /**
+     * Converts the recipe to JSON.
+     *
+     * @return JSON
+     * @throws JsonProcessingException
+     *             if the recipe cannot be serialized
+     */
+    @Benchmark
+    public String serialize () throws JsonProcessingException {
+        return mapper.writeValueAsString( recipe );
+    }
+
+    /**
+     * Reads a recipe from JSON.
+     *
+     * @return the recipe
+     * @throws IOException
+     *             if the JSON cannot be read
+     */
+    @Benchmark
+    public Recipe deserialize () throws IOException {
+        return mapper.readValue( json, Recipe.class );
+    }
+}
@@ -1,9 +1,12 @@
 package edu.ncsu.csc.coffee_maker;
 
+import javax.annotation.PreDestroy;
+
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
 import edu.ncsu.csc.coffee_maker.models.CoffeeMaker;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
 
 /**
  * Application main.
@@ -15,15 +18,32 @@ import edu.ncsu.csc.coffee_maker.models.CoffeeMaker;
 @SpringBootApplication
 public class Application {
 
-    private static CoffeeMaker cm = new CoffeeMaker();
+    /**
+     * Holds the CoffeeMaker, so that it is created (and the recipes loaded) on
+     * first use rather than before Spring starts.
+     */
+    private static final class Holder {
+        /** The CoffeeMaker */
+        static final CoffeeMaker INSTANCE = new CoffeeMaker();
+    }
 
     /**
-     * Returns the CoffeeMaker.
+     * Returns the CoffeeMaker, creating it on first use. The WarmUpService
+     * creates it in the background once the application has started.
      *
      * @return the CoffeeMaker
      */
     public static CoffeeMaker getCoffeeMaker () {
-        return cm;
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Writes any pending inventory updates and closes the database connection
+     * when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown () {
+        HibernateUtil.shutdown();
     }
 
     /**
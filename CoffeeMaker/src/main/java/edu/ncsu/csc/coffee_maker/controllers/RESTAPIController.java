@@ -1,11 +1,22 @@
 package edu.ncsu.csc.coffee_maker.controllers;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 import javax.validation.Valid;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -13,12 +24,23 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import edu.ncsu.csc.coffee_maker.Application;
+import edu.ncsu.csc.coffee_maker.models.CoffeeOrder;
 import edu.ncsu.csc.coffee_maker.models.persistent.Inventory;
 import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+import edu.ncsu.csc.coffee_maker.services.IdempotencyCache;
+import edu.ncsu.csc.coffee_maker.services.InventoryEventService;
 import edu.ncsu.csc.coffee_maker.services.InventoryService;
+import edu.ncsu.csc.coffee_maker.services.OrderDispatcher;
+import edu.ncsu.csc.coffee_maker.services.RecipeMenuService;
+import edu.ncsu.csc.coffee_maker.services.WarmUpService;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
 
 /**
  * This is the single controller in the CoffeeMaker application that handles
@@ -35,6 +57,9 @@ import edu.ncsu.csc.coffee_maker.services.InventoryService;
 @RestController
 public class RESTAPIController {
 
+    /** Logger for this class */
+    private static final Logger   LOG = LoggerFactory.getLogger( RESTAPIController.class );
+
     /**
      * The InventoryService is a Spring Service used to provide access to the
      * Inventory for API requests
@@ -42,6 +67,38 @@ public class RESTAPIController {
     @Autowired
     InventoryService              inventoryService;
 
+    /**
+     * The InventoryEventService pushes inventory changes to subscribed clients
+     */
+    @Autowired
+    InventoryEventService         inventoryEventService;
+
+    /**
+     * The RecipeMenuService keeps the full recipe list pre-serialized for
+     * GET requests
+     */
+    @Autowired
+    RecipeMenuService             recipeMenuService;
+
+    /**
+     * The OrderDispatcher makes single-drink orders on its own threads
+     */
+    @Autowired
+    OrderDispatcher               orderDispatcher;
+
+    /**
+     * The IdempotencyCache answers retried orders with their first response
+     */
+    @Autowired
+    IdempotencyCache              idempotencyCache;
+
+    /**
+     * The WarmUpService loads the database, inventory and recipes after
+     * startup
+     */
+    @Autowired
+    WarmUpService                 warmUpService;
+
     /**
      * This is the base path for the APIs. All API routes are relative to this
      * path. By keeping it in a single variable, it removes redundant
@@ -53,44 +110,203 @@ public class RESTAPIController {
     /**
      * REST API method to make coffee by completing a POST request with the ID
      * of the recipe as the path variable and the amount that has been paid as
-     * the body of the response
+     * the body of the response. The order is queued for a dispenser thread and
+     * the response is sent once it has been made, without holding a request
+     * thread meanwhile. If too many orders are waiting, the order is refused
+     * with 429 Too Many Requests.
+     *
+     * With an Idempotency-Key header, a retry of the same order with the same
+     * key gets the original response instead of a second drink.
      *
      * @param id
      *            recipe id
+     * @param idempotencyKey
+     *            key identifying the order across retries; may be null
      * @param amtPaid
      *            amount paid
      * @return The change the customer is due if successful
      */
     @PostMapping ( BASE_PATH + "/makecoffee/{id}" )
-    public ResponseEntity makeCoffee ( @PathVariable ( "id" ) final String id, @RequestBody final int amtPaid ) {
-        final Recipe recipe = Application.getCoffeeMaker().getRecipeBook().findRecipe( id );
+    public DeferredResult<ResponseEntity> makeCoffee ( @PathVariable ( "id" ) final String id,
+            @RequestHeader ( value = "Idempotency-Key", required = false ) final String idempotencyKey,
+            @RequestBody final int amtPaid ) {
+        final DeferredResult<ResponseEntity> result = new DeferredResult<ResponseEntity>();
+
+        LOG.debug( "Order for recipe {}, paid {}", id, amtPaid );
+        final CompletableFuture<ResponseEntity< ? >> response;
+        if ( idempotencyKey == null || idempotencyKey.isEmpty() ) {
+            response = order( id, amtPaid );
+        }
+        else {
+            response = idempotencyCache.execute( idempotencyKey, id + ":" + amtPaid,
+                    new Supplier<CompletableFuture<ResponseEntity< ? >>>() {
+                        @Override
+                        public CompletableFuture<ResponseEntity< ? >> get () {
+                            return order( id, amtPaid );
+                        }
+                    } );
+        }
+        response.whenComplete( new BiConsumer<ResponseEntity< ? >, Throwable>() {
+            @Override
+            public void accept ( final ResponseEntity< ? > done, final Throwable error ) {
+                result.setResult( error == null ? done : toResponse( null, error ) );
+            }
+        } );
+        return result;
+    }
 
+    /**
+     * Queues an order for a dispenser thread.
+     *
+     * @param id
+     *            recipe id
+     * @param amtPaid
+     *            amount paid
+     * @return the response, once the order has been made or refused
+     */
+    private CompletableFuture<ResponseEntity< ? >> order ( final String id, final int amtPaid ) {
+        final Recipe recipe = Application.getCoffeeMaker().getRecipeBook().findRecipe( id );
         try {
-            System.out.println( "recipe: " + recipe.getName() + "    amt: " + amtPaid );
-            final int change = Application.getCoffeeMaker().makeCoffee( recipe, amtPaid );
-            System.out.println( "change: " + change );
+            return orderDispatcher.makeCoffee( recipe, amtPaid )
+                    .handle( new BiFunction<Integer, Throwable, ResponseEntity< ? >>() {
+                        @Override
+                        public ResponseEntity< ? > apply ( final Integer change, final Throwable error ) {
+                            return toResponse( change, error );
+                        }
+                    } );
+        }
+        catch ( final RejectedExecutionException e ) {
+            LOG.debug( "Order for recipe {} refused: {}", id, e.getMessage() );
+            return CompletableFuture.<ResponseEntity< ? >> completedFuture(
+                    new ResponseEntity( e.getMessage(), HttpStatus.TOO_MANY_REQUESTS ) );
+        }
+    }
 
+    /**
+     * Builds the response to a finished order.
+     *
+     * @param change
+     *            change due, if the order succeeded
+     * @param error
+     *            why the order failed, or null
+     * @return response to the request
+     */
+    private static ResponseEntity toResponse ( final Integer change, final Throwable error ) {
+        if ( error == null ) {
+            LOG.debug( "Order made, change {}", change );
             return new ResponseEntity<String>( "{\"result\":\"success\", \"change\":" + change + "}", HttpStatus.OK );
         }
-        catch ( final IllegalArgumentException e ) {
-            System.out.println( e.getMessage() );
-            return new ResponseEntity( e.getMessage(), HttpStatus.NOT_FOUND );
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+        if ( cause instanceof IllegalArgumentException ) {
+            LOG.debug( "Order not made: {}", cause.getMessage() );
+            return new ResponseEntity( cause.getMessage(), HttpStatus.NOT_FOUND );
         }
-        catch ( final IllegalStateException e ) {
-            System.out.println( e.getMessage() );
-            return new ResponseEntity( e.getMessage(), HttpStatus.CONFLICT );
+        if ( cause instanceof IllegalStateException ) {
+            LOG.debug( "Order not made: {}", cause.getMessage() );
+            return new ResponseEntity( cause.getMessage(), HttpStatus.CONFLICT );
         }
+        LOG.error( "Order failed", cause );
+        return new ResponseEntity( cause.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR );
+    }
 
+    /**
+     * REST API method to make several drinks with one POST request. The body
+     * lists the drinks, each as a recipe name and the amount paid, and whether
+     * the order is all-or-nothing. The ingredients for the whole order are
+     * taken in one pass and the inventory is saved once.
+     *
+     * @param order
+     *            drinks to make
+     * @return the order with each line's status and change; 409 Conflict if an
+     *         all-or-nothing order could not be made; 400 Bad Request if the
+     *         order has no drinks or an empty line
+     */
+    @PostMapping ( BASE_PATH + "/makecoffee" )
+    public ResponseEntity makeCoffees ( @RequestBody final CoffeeOrder order ) {
+        if ( order.getLines().isEmpty() ) {
+            return new ResponseEntity( "Order has no drinks", HttpStatus.BAD_REQUEST );
+        }
+        try {
+            Application.getCoffeeMaker().makeCoffee( order );
+        }
+        catch ( final IllegalArgumentException e ) {
+            return new ResponseEntity( e.getMessage(), HttpStatus.BAD_REQUEST );
+        }
+        if ( order.isAllOrNothing() && !order.isComplete() ) {
+            return new ResponseEntity( order, HttpStatus.CONFLICT );
+        }
+        return new ResponseEntity( order, HttpStatus.OK );
     }
 
     /**
-     * REST API method to provide GET access to all recipes in the system
+     * REST API method to provide GET access to the recipes in the system. With
+     * no parameters, every recipe is returned from a pre-serialized copy that
+     * carries an ETag, a different one for the gzipped copy; a request whose
+     * If-None-Match still matches either gets 304 Not Modified. Pass offset and/or limit to fetch one page at a time.
      *
-     * @return JSON representation of all recipies
+     * @param offset
+     *            number of recipes to skip (optional)
+     * @param limit
+     *            maximum number of recipes to return (optional)
+     * @param ifNoneMatch
+     *            entity tags the client already has (optional)
+     * @param acceptEncoding
+     *            encodings the client accepts (optional)
+     * @return JSON representation of the recipes
      */
     @GetMapping ( BASE_PATH + "/recipes" )
-    public List<Recipe> getRecipes () {
-        return Application.getCoffeeMaker().getRecipes();
+    public ResponseEntity getRecipes ( @RequestParam ( value = "offset", required = false ) final Integer offset,
+            @RequestParam ( value = "limit", required = false ) final Integer limit,
+            @RequestHeader ( value = HttpHeaders.IF_NONE_MATCH, required = false ) final String ifNoneMatch,
+            @RequestHeader ( value = HttpHeaders.ACCEPT_ENCODING, required = false ) final String acceptEncoding ) {
+        if ( offset == null && limit == null ) {
+            final RecipeMenuService.Menu menu = recipeMenuService.getMenu();
+            final boolean gzip = acceptsGzip( acceptEncoding );
+            final HttpHeaders headers = new HttpHeaders();
+            // Each encoding has its own tag; a 304 carries the tag of the one
+            // that would have been sent
+            headers.setETag( gzip ? menu.getGzipEtag() : menu.getEtag() );
+            headers.set( HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING );
+            if ( menu.matches( ifNoneMatch ) ) {
+                return new ResponseEntity( headers, HttpStatus.NOT_MODIFIED );
+            }
+            headers.setContentType( MediaType.APPLICATION_JSON_UTF8 );
+            if ( gzip ) {
+                headers.set( HttpHeaders.CONTENT_ENCODING, "gzip" );
+                return new ResponseEntity<byte[]>( menu.getGzip(), headers, HttpStatus.OK );
+            }
+            return new ResponseEntity<byte[]>( menu.getJson(), headers, HttpStatus.OK );
+        }
+        try {
+            final List<Recipe> page = Application.getCoffeeMaker().getRecipeBook().getRecipes(
+                    null == offset ? 0 : offset, null == limit ? Integer.MAX_VALUE : limit );
+            return new ResponseEntity( page, HttpStatus.OK );
+        }
+        catch ( final IllegalArgumentException e ) {
+            return new ResponseEntity( e.getMessage(), HttpStatus.BAD_REQUEST );
+        }
+    }
+
+    /**
+     * Returns whether an Accept-Encoding header allows a gzipped response.
+     *
+     * @param acceptEncoding
+     *            header value; may be null
+     * @return true if gzip is acceptable
+     */
+    private static boolean acceptsGzip ( final String acceptEncoding ) {
+        if ( acceptEncoding == null ) {
+            return false;
+        }
+        for ( final String coding : acceptEncoding.toLowerCase( Locale.ROOT ).split( "," ) ) {
+            final String[] parts = coding.split( ";" );
+            if ( "gzip".equals( parts[0].trim() ) ) {
+                // gzip;q=0 means "not gzip"
+                return !( parts.length > 1 && parts[1].replace( " ", "" ).matches( "q=0(\\.0*)?" ) );
+            }
+        }
+        return false;
     }
 
     /**
@@ -125,13 +341,15 @@ public class RESTAPIController {
                     HttpStatus.CONFLICT );
         }
         try {
-            Application.getCoffeeMaker().getRecipeBook().addRecipe( recipe );
-            return new ResponseEntity<String>( "{\"result\":\"success\"}", HttpStatus.OK );
+            if ( Application.getCoffeeMaker().getRecipeBook().addRecipe( recipe ) ) {
+                return new ResponseEntity<String>( "{\"result\":\"success\"}", HttpStatus.OK );
+            }
         }
         catch ( final Exception e ) {
-            return new ResponseEntity( "Insufficient space in recipe book for recipe " + recipe.getName(),
-                    HttpStatus.INSUFFICIENT_STORAGE );
+            // Fall through to the error response
         }
+        return new ResponseEntity( "Insufficient space in recipe book for recipe " + recipe.getName(),
+                HttpStatus.INSUFFICIENT_STORAGE );
 
     }
 
@@ -156,6 +374,36 @@ public class RESTAPIController {
         return new ResponseEntity<String>( "{\"result\":\"success\"}", HttpStatus.OK );
     }
 
+    /**
+     * REST API endpoint for readiness checks. Answers 200 OK once the
+     * database, inventory and recipes have been loaded after startup, and 503
+     * Service Unavailable until then, or if loading them failed.
+     *
+     * @return response to the request
+     */
+    @GetMapping ( BASE_PATH + "/ready" )
+    public ResponseEntity getReady () {
+        if ( warmUpService.isReady() ) {
+            return new ResponseEntity<String>( "{\"ready\":true}", HttpStatus.OK );
+        }
+        final Throwable failure = warmUpService.getFailure();
+        if ( failure != null ) {
+            return new ResponseEntity( "Warm-up failed: " + failure.getMessage(), HttpStatus.SERVICE_UNAVAILABLE );
+        }
+        return new ResponseEntity<String>( "{\"ready\":false}", HttpStatus.SERVICE_UNAVAILABLE );
+    }
+
+    /**
+     * REST API endpoint reporting the Hibernate second-level and query cache
+     * hit, miss and put counts since startup.
+     *
+     * @return response to the request
+     */
+    @GetMapping ( BASE_PATH + "/cache/statistics" )
+    public ResponseEntity getCacheStatistics () {
+        return new ResponseEntity( HibernateUtil.getCacheStatistics(), HttpStatus.OK );
+    }
+
     /**
      * REST API endpoint to provide GET access to the CoffeeMaker's singleton
      * Inventory. This will convert the Inventory to JSON.
@@ -168,6 +416,18 @@ public class RESTAPIController {
         return new ResponseEntity( inventory, HttpStatus.OK );
     }
 
+    /**
+     * REST API endpoint that streams the Inventory as Server-Sent Events: the
+     * current amounts at once, then the amounts again whenever they change,
+     * at most once per coalescing interval.
+     *
+     * @return the event stream
+     */
+    @GetMapping ( value = BASE_PATH + "/inventory/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE )
+    public SseEmitter streamInventory () {
+        return inventoryEventService.subscribe();
+    }
+
     /**
      * REST API endpoint to provide update access to CoffeeMaker's singleton
      * Inventory. This will update the Inventory of the CoffeeMaker by adding
@@ -1,11 +1,13 @@
 package edu.ncsu.csc.coffee_maker.models;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.validation.Valid;
 
 import edu.ncsu.csc.coffee_maker.models.persistent.Inventory;
 import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+import edu.ncsu.csc.coffee_maker.util.CoffeeMakerMetrics;
 
 /**
  * Represents the CoffeeMaker.
@@ -16,9 +18,19 @@ import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
  */
 public class CoffeeMaker {
     /** Array of recipes in coffee maker */
-    private final RecipeBook recipeBook;
-    /** Inventory of the coffee maker */
-    private final Inventory  inventory;
+    private final RecipeBook     recipeBook;
+    /** Inventory of the coffee maker; shared application-wide */
+    private final InventoryStore inventory;
+
+    /**
+     * Seconds between prunes of old inventory rows, from the system property
+     * coffeemaker.inventory.compactInterval; 0, the default, disables
+     * compaction. Only needed for a table holding history rows from older
+     * versions.
+     */
+    private static final long COMPACT_INTERVAL = Long.getLong( "coffeemaker.inventory.compactInterval", 0L );
+    /** Background compactor for the inventory table, if enabled */
+    private static InventoryCompactor compactor;
 
     /**
      * Constructor for the coffee maker
@@ -27,8 +39,19 @@ public class CoffeeMaker {
     public CoffeeMaker () {
         recipeBook = new RecipeBook();
 
-        inventory = new Inventory();
-        inventory.pullFromDB();
+        inventory = InventoryStore.getInstance();
+
+        startCompactor();
+    }
+
+    /**
+     * Starts the inventory compactor, unless it is disabled or already
+     * running.
+     */
+    private static synchronized void startCompactor () {
+        if ( compactor == null && COMPACT_INTERVAL > 0 ) {
+            compactor = new InventoryCompactor( COMPACT_INTERVAL );
+        }
     }
 
     /**
@@ -37,7 +60,7 @@ public class CoffeeMaker {
      * @return the inventory
      */
     public Inventory getInventory () {
-        return inventory;
+        return inventory.getInventory();
     }
 
     /**
@@ -111,8 +134,8 @@ public class CoffeeMaker {
      * @param amtChocolate
      *            amount chocolate
      */
-    public synchronized void addInventory ( final int amtCoffee, final int amtMilk, final int amtSugar,
-            final int amtChocolate ) throws IllegalArgumentException {
+    public void addInventory ( final int amtCoffee, final int amtMilk, final int amtSugar, final int amtChocolate )
+            throws IllegalArgumentException {
         inventory.addIngredients( amtCoffee, amtMilk, amtSugar, amtChocolate );
     }
 
@@ -121,8 +144,8 @@ public class CoffeeMaker {
      *
      * @return Inventory
      */
-    public synchronized String checkInventory () {
-        return inventory.toString();
+    public String checkInventory () {
+        return inventory.getInventory().toString();
     }
 
     /**
@@ -135,14 +158,15 @@ public class CoffeeMaker {
      *            amount paid for beverage
      * @return change from purchase
      */
-    public synchronized int makeCoffee ( final int recipeToPurchase, final int amtPaid ) {
+    public int makeCoffee ( final int recipeToPurchase, final int amtPaid ) {
         final Recipe toPurchase = getRecipes().get( recipeToPurchase );
         return makeCoffee( toPurchase, amtPaid );
     }
 
     /**
      * Makes the requested coffee and removes the needed ingredients from the
-     * inventory.
+     * inventory. Orders run concurrently; the inventory's ledger keeps them
+     * from overselling.
      *
      * @param toPurchase
      *            recipe to purchase
@@ -150,33 +174,95 @@ public class CoffeeMaker {
      *            amount paid for beverage
      * @return change from purchase
      */
-    public synchronized int makeCoffee ( final Recipe toPurchase, final int amtPaid ) {
+    public int makeCoffee ( final Recipe toPurchase, final int amtPaid ) {
+        final long start = System.nanoTime();
         int change = amtPaid;
-        inventory.pullFromDB();
 
         if ( toPurchase == null ) {
+            CoffeeMakerMetrics.order( CoffeeOrder.Status.RECIPE_NOT_FOUND, start );
             throw new IllegalArgumentException( "Recipe not found" );
         }
         else if ( toPurchase.getPrice() <= amtPaid ) {
             if ( inventory.useIngredients( toPurchase ) ) {
                 change = amtPaid - toPurchase.getPrice();
+                CoffeeMakerMetrics.order( CoffeeOrder.Status.MADE, start );
             }
             else {
                 // Not enough inventory
+                CoffeeMakerMetrics.order( CoffeeOrder.Status.INSUFFICIENT_INVENTORY, start );
                 return change;
             }
         }
+        else {
+            // Not enough money paid
+            CoffeeMakerMetrics.order( CoffeeOrder.Status.INSUFFICIENT_PAYMENT, start );
+        }
 
-        // Not enough money paid
         return change;
     }
 
+    /**
+     * Makes every drink in an order, taking all of their ingredients from the
+     * inventory in one pass and updating the database once. Each line of the
+     * order is updated with its outcome and the change due. In all-or-nothing
+     * mode, a line that names an unknown recipe or is underpaid means no line
+     * is made.
+     *
+     * @param order
+     *            order to make
+     * @return the order, with every line's outcome filled in
+     * @throws IllegalArgumentException
+     *             if a line of the order is missing
+     */
+    public CoffeeOrder makeCoffee ( final CoffeeOrder order ) throws IllegalArgumentException {
+        final long start = System.nanoTime();
+        final List<CoffeeOrder.Line> lines = order.getLines();
+        for ( int i = 0; i < lines.size(); i++ ) {
+            if ( lines.get( i ) == null ) {
+                throw new IllegalArgumentException( "Order line " + ( i + 1 ) + " is empty" );
+            }
+        }
+        final List<CoffeeOrder.Line> payable = new ArrayList<CoffeeOrder.Line>( lines.size() );
+        final List<Recipe> recipes = new ArrayList<Recipe>( lines.size() );
+        for ( final CoffeeOrder.Line line : lines ) {
+            final Recipe recipe = recipeBook.findRecipe( line.getRecipe() );
+            if ( recipe == null ) {
+                line.complete( CoffeeOrder.Status.RECIPE_NOT_FOUND, line.getAmtPaid() );
+            }
+            else if ( recipe.getPrice() > line.getAmtPaid() ) {
+                line.complete( CoffeeOrder.Status.INSUFFICIENT_PAYMENT, line.getAmtPaid() );
+            }
+            else {
+                payable.add( line );
+                recipes.add( recipe );
+            }
+        }
+
+        final boolean rejected = order.isAllOrNothing() && payable.size() < lines.size();
+        final boolean[] made = rejected ? new boolean[payable.size()]
+                : inventory.useIngredients( recipes, order.isAllOrNothing() );
+
+        for ( int i = 0; i < made.length; i++ ) {
+            final CoffeeOrder.Line line = payable.get( i );
+            if ( made[i] ) {
+                line.complete( CoffeeOrder.Status.MADE, line.getAmtPaid() - recipes.get( i ).getPrice() );
+            }
+            else {
+                // In a rejected order this line was fine; another one was not
+                line.complete( rejected ? CoffeeOrder.Status.NOT_MADE : CoffeeOrder.Status.INSUFFICIENT_INVENTORY,
+                        line.getAmtPaid() );
+            }
+        }
+        CoffeeMakerMetrics.order( order, start );
+        return order;
+    }
+
     /**
      * Returns the list of Recipes in the RecipeBook.
      *
      * @return Recipe []
      */
-    public synchronized List<Recipe> getRecipes () {
+    public List<Recipe> getRecipes () {
         return recipeBook.getRecipes();
     }
 }
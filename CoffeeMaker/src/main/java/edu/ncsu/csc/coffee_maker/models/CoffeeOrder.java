@@ -0,0 +1,205 @@
+package edu.ncsu.csc.coffee_maker.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An order for several drinks at once. Each line names a recipe and the amount
+ * paid for it; after the order is made each line carries its outcome and the
+ * change due.
+ *
+ * In all-or-nothing mode the order is only made if every line can be made;
+ * otherwise each line is made if it can be, in order, and the rest are
+ * refunded.
+ *
+ * @author sbutler2901
+ */
+public class CoffeeOrder {
+
+    /**
+     * Outcome of one line of an order
+     */
+    public enum Status {
+        /** The drink was made */
+        MADE,
+        /** No recipe has the requested name */
+        RECIPE_NOT_FOUND,
+        /** The amount paid does not cover the price */
+        INSUFFICIENT_PAYMENT,
+        /** There are not enough ingredients left */
+        INSUFFICIENT_INVENTORY,
+        /** Not made because another line of an all-or-nothing order failed */
+        NOT_MADE
+    }
+
+    /** True to make every line or none of them */
+    private boolean    allOrNothing;
+
+    /** Lines of the order */
+    private List<Line> lines = new ArrayList<Line>();
+
+    /**
+     * Creates an empty best-effort order.
+     */
+    public CoffeeOrder () {
+    }
+
+    /**
+     * Returns whether the order is all-or-nothing.
+     *
+     * @return true if every line must be made or none
+     */
+    public boolean isAllOrNothing () {
+        return allOrNothing;
+    }
+
+    /**
+     * Sets whether the order is all-or-nothing.
+     *
+     * @param allOrNothing
+     *            true if every line must be made or none
+     */
+    public void setAllOrNothing ( final boolean allOrNothing ) {
+        this.allOrNothing = allOrNothing;
+    }
+
+    /**
+     * Returns the lines of the order.
+     *
+     * @return lines
+     */
+    public List<Line> getLines () {
+        return lines;
+    }
+
+    /**
+     * Sets the lines of the order.
+     *
+     * @param lines
+     *            lines
+     */
+    public void setLines ( final List<Line> lines ) {
+        this.lines = null == lines ? new ArrayList<Line>() : lines;
+    }
+
+    /**
+     * Adds a line to the order.
+     *
+     * @param recipe
+     *            name of the recipe
+     * @param amtPaid
+     *            amount paid
+     * @return this order
+     */
+    public CoffeeOrder addLine ( final String recipe, final int amtPaid ) {
+        final Line line = new Line();
+        line.setRecipe( recipe );
+        line.setAmtPaid( amtPaid );
+        lines.add( line );
+        return this;
+    }
+
+    /**
+     * Returns whether every line was made.
+     *
+     * @return true if every line was made
+     */
+    public boolean isComplete () {
+        for ( final Line line : lines ) {
+            if ( line.getStatus() != Status.MADE ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One drink in an order.
+     *
+     * @author sbutler2901
+     */
+    public static class Line {
+
+        /** Name of the recipe */
+        private String recipe;
+
+        /** Amount paid for the drink */
+        private int    amtPaid;
+
+        /** Outcome; null until the order is made */
+        private Status status;
+
+        /** Change due */
+        private int    change;
+
+        /**
+         * Returns the recipe name.
+         *
+         * @return recipe name
+         */
+        public String getRecipe () {
+            return recipe;
+        }
+
+        /**
+         * Sets the recipe name.
+         *
+         * @param recipe
+         *            recipe name
+         */
+        public void setRecipe ( final String recipe ) {
+            this.recipe = recipe;
+        }
+
+        /**
+         * Returns the amount paid.
+         *
+         * @return amount paid
+         */
+        public int getAmtPaid () {
+            return amtPaid;
+        }
+
+        /**
+         * Sets the amount paid.
+         *
+         * @param amtPaid
+         *            amount paid
+         */
+        public void setAmtPaid ( final int amtPaid ) {
+            this.amtPaid = amtPaid;
+        }
+
+        /**
+         * Returns the outcome of the line.
+         *
+         * @return status, or null if the order has not been made
+         */
+        public Status getStatus () {
+            return status;
+        }
+
+        /**
+         * Returns the change due for the line; the full amount paid if the
+         * drink was not made.
+         *
+         * @return change
+         */
+        public int getChange () {
+            return change;
+        }
+
+        /**
+         * Records the outcome of the line.
+         *
+         * @param status
+         *            outcome
+         * @param change
+         *            change due
+         */
+        void complete ( final Status status, final int change ) {
+            this.status = status;
+            this.change = change;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package edu.ncsu.csc.coffee_maker.models;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free accounting of the ingredient levels in the coffee maker. All four
+ * levels live in one immutable array that is replaced with compare-and-set, so
+ * a multi-ingredient reservation either takes every ingredient or none of
+ * them, and concurrent orders never block one another or oversell.
+ *
+ * @author sbutler2901
+ */
+public class IngredientLedger {
+
+    /** Index of coffee in the amounts passed to and returned from the ledger */
+    public static final int              COFFEE      = 0;
+    /** Index of milk in the amounts passed to and returned from the ledger */
+    public static final int              MILK        = 1;
+    /** Index of sugar in the amounts passed to and returned from the ledger */
+    public static final int              SUGAR       = 2;
+    /** Index of chocolate in the amounts passed to and returned from the ledger */
+    public static final int              CHOCOLATE   = 3;
+    /** Number of ingredients tracked */
+    public static final int              INGREDIENTS = 4;
+
+    /** Current levels; the array is never modified once published */
+    private final AtomicReference<int[]> levels      = new AtomicReference<int[]>( new int[INGREDIENTS] );
+
+    /** Number of changes made to the levels */
+    private final AtomicLong             version     = new AtomicLong();
+
+    /**
+     * Returns the number of changes made to the levels so far. It is bumped
+     * just after each change is published, so levels read after the version
+     * are at least as new as that version.
+     *
+     * @return change version
+     */
+    public long getVersion () {
+        return version.get();
+    }
+
+    /**
+     * Returns the current level of one ingredient.
+     *
+     * @param ingredient
+     *            index of the ingredient
+     * @return current level
+     */
+    public int get ( final int ingredient ) {
+        return levels.get()[ingredient];
+    }
+
+    /**
+     * Returns a consistent copy of all current levels.
+     *
+     * @return levels, indexed by ingredient
+     */
+    public int[] snapshot () {
+        return levels.get().clone();
+    }
+
+    /**
+     * Sets the level of one ingredient, leaving the others untouched.
+     *
+     * @param ingredient
+     *            index of the ingredient
+     * @param amount
+     *            new level
+     */
+    public void set ( final int ingredient, final int amount ) {
+        while ( true ) {
+            final int[] current = levels.get();
+            final int[] next = current.clone();
+            next[ingredient] = amount;
+            if ( levels.compareAndSet( current, next ) ) {
+                version.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replaces all levels at once.
+     *
+     * @param amounts
+     *            new levels, indexed by ingredient
+     */
+    public void setAll ( final int... amounts ) {
+        levels.set( checkLength( amounts ).clone() );
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns true if every ingredient is at or above the requested amount.
+     *
+     * @param amounts
+     *            requested amounts, indexed by ingredient
+     * @return true if there is enough of everything
+     */
+    public boolean hasEnough ( final int... amounts ) {
+        return covers( levels.get(), checkLength( amounts ) );
+    }
+
+    /**
+     * Atomically takes the requested amounts of every ingredient, or nothing
+     * at all if any ingredient is short.
+     *
+     * @param amounts
+     *            amounts to take, indexed by ingredient
+     * @return true if the ingredients were taken
+     */
+    public boolean reserve ( final int... amounts ) {
+        checkAmounts( amounts );
+        while ( true ) {
+            final int[] current = levels.get();
+            if ( !covers( current, amounts ) ) {
+                return false;
+            }
+            final int[] next = new int[INGREDIENTS];
+            for ( int i = 0; i < INGREDIENTS; i++ ) {
+                next[i] = current[i] - amounts[i];
+            }
+            if ( levels.compareAndSet( current, next ) ) {
+                version.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Atomically reserves several orders in one pass. Orders are considered in
+     * the order given. In all-or-nothing mode either every order is reserved
+     * or none is; otherwise each order is reserved if what is left after the
+     * earlier ones covers it.
+     *
+     * @param allOrNothing
+     *            true to reserve every order or none of them
+     * @param orders
+     *            amounts for each order, indexed by ingredient
+     * @return for each order, true if it was reserved
+     */
+    public boolean[] reserveEach ( final boolean allOrNothing, final int[]... orders ) {
+        for ( final int[] amounts : orders ) {
+            checkAmounts( amounts );
+        }
+        while ( true ) {
+            final int[] current = levels.get();
+            final int[] next = current.clone();
+            final boolean[] reserved = new boolean[orders.length];
+            boolean any = false;
+            for ( int o = 0; o < orders.length; o++ ) {
+                if ( covers( next, orders[o] ) ) {
+                    for ( int i = 0; i < INGREDIENTS; i++ ) {
+                        next[i] -= orders[o][i];
+                    }
+                    reserved[o] = true;
+                    any = true;
+                }
+                else if ( allOrNothing ) {
+                    return new boolean[orders.length];
+                }
+            }
+            if ( !any ) {
+                return reserved;
+            }
+            if ( levels.compareAndSet( current, next ) ) {
+                version.incrementAndGet();
+                return reserved;
+            }
+        }
+    }
+
+    /**
+     * Atomically takes the given amounts whether or not there is enough,
+     * stopping at zero. This mirrors a debit that has already been checked
+     * and made elsewhere, such as in the database.
+     *
+     * @param amounts
+     *            amounts to take, indexed by ingredient
+     */
+    public void take ( final int... amounts ) {
+        checkAmounts( amounts );
+        while ( true ) {
+            final int[] current = levels.get();
+            final int[] next = new int[INGREDIENTS];
+            for ( int i = 0; i < INGREDIENTS; i++ ) {
+                next[i] = Math.max( 0, current[i] - amounts[i] );
+            }
+            if ( levels.compareAndSet( current, next ) ) {
+                version.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Atomically adds the given amounts of every ingredient. This is also how
+     * a reservation is rolled back.
+     *
+     * @param amounts
+     *            amounts to add, indexed by ingredient
+     * @throws IllegalArgumentException
+     *             if an amount is negative or a level would overflow
+     */
+    public void add ( final int... amounts ) throws IllegalArgumentException {
+        checkAmounts( amounts );
+        while ( true ) {
+            final int[] current = levels.get();
+            final int[] next = new int[INGREDIENTS];
+            for ( int i = 0; i < INGREDIENTS; i++ ) {
+                if ( current[i] > Integer.MAX_VALUE - amounts[i] ) {
+                    throw new IllegalArgumentException( "Amount is too large" );
+                }
+                next[i] = current[i] + amounts[i];
+            }
+            if ( levels.compareAndSet( current, next ) ) {
+                version.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the levels cover the requested amounts.
+     *
+     * @param current
+     *            levels to check
+     * @param amounts
+     *            requested amounts
+     * @return true if every level is at least its requested amount
+     */
+    private static boolean covers ( final int[] current, final int[] amounts ) {
+        for ( int i = 0; i < INGREDIENTS; i++ ) {
+            if ( current[i] < amounts[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Validates that amounts has one non-negative entry per ingredient.
+     *
+     * @param amounts
+     *            amounts to check
+     * @throws IllegalArgumentException
+     *             if the amounts are invalid
+     */
+    private static void checkAmounts ( final int[] amounts ) throws IllegalArgumentException {
+        checkLength( amounts );
+        for ( int i = 0; i < INGREDIENTS; i++ ) {
+            if ( amounts[i] < 0 ) {
+                throw new IllegalArgumentException( "Amount cannot be negative" );
+            }
+        }
+    }
+
+    /**
+     * Validates that amounts has one entry per ingredient.
+     *
+     * @param amounts
+     *            amounts to check
+     * @return amounts
+     * @throws IllegalArgumentException
+     *             if the length is wrong
+     */
+    private static int[] checkLength ( final int[] amounts ) throws IllegalArgumentException {
+        if ( amounts == null || amounts.length != INGREDIENTS ) {
+            throw new IllegalArgumentException( "Expected an amount for each of " + INGREDIENTS + " ingredients" );
+        }
+        return amounts;
+    }
+}
@@ -0,0 +1,78 @@
+package edu.ncsu.csc.coffee_maker.models;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.ncsu.csc.coffee_maker.models.persistent.InventoryRows;
+
+/**
+ * Periodically prunes old rows from the inventory table so that it only holds
+ * the current inventory. Older versions of the CoffeeMaker appended a row for
+ * every order and every restock; this keeps such a backlog (or rows left by
+ * other writers) from growing without bound.
+ *
+ * @author sbutler2901
+ */
+public class InventoryCompactor {
+
+    /** Logger for this class */
+    private static final Logger            LOG = LoggerFactory.getLogger( InventoryCompactor.class );
+
+    /** Runs the compaction task */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Starts compacting the inventory table every interval seconds, beginning
+     * one interval from now.
+     *
+     * @param interval
+     *            seconds between compactions; must be positive
+     */
+    public InventoryCompactor ( final long interval ) {
+        if ( interval <= 0 ) {
+            throw new IllegalArgumentException( "Compaction interval must be positive" );
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+            @Override
+            public Thread newThread ( final Runnable r ) {
+                final Thread t = new Thread( r, "inventory-compactor" );
+                t.setDaemon( true );
+                return t;
+            }
+        } );
+        scheduler.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run () {
+                compact();
+            }
+        }, interval, interval, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Prunes the inventory table once. Failures are reported and retried at
+     * the next interval rather than stopping the schedule.
+     */
+    public void compact () {
+        try {
+            final int pruned = InventoryRows.compactHistory();
+            if ( pruned > 0 ) {
+                LOG.info( "Pruned {} old inventory rows", pruned );
+            }
+        }
+        catch ( final RuntimeException e ) {
+            LOG.warn( "Inventory compaction failed", e );
+        }
+    }
+
+    /**
+     * Stops compacting.
+     */
+    public void stop () {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,426 @@
+package edu.ncsu.csc.coffee_maker.models;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Local write-ahead log of inventory changes, kept in a memory-mapped file.
+ * Each change is appended as a fixed-size binary record before it is shipped
+ * to the database; once the database has it, the record is acknowledged.
+ * After a crash, the records that were never acknowledged are replayed.
+ *
+ * File layout: a header (magic, format, sequence number of the oldest record
+ * kept, last acknowledged sequence number) followed by a fixed number of
+ * record slots used as a ring: record n lives in slot (n - 1) mod capacity. A
+ * record holds its sequence number, a timestamp, the operation, the recipe ID
+ * (0 if none), one amount per ingredient and a CRC32. A record only counts if
+ * its slot holds the sequence number expected there and its checksum matches,
+ * so a record torn by a crash (or one left from an earlier lap) ends the log.
+ * Once every slot is used, the slots of acknowledged records are reclaimed
+ * for new ones; only a ring full of unacknowledged records refuses them.
+ *
+ * Writes reach the operating system at once and so survive the process
+ * crashing; pass sync to also force each record to disk, which survives
+ * power loss at the cost of a disk flush per record.
+ *
+ * @author sbutler2901
+ */
+public class InventoryJournal implements AutoCloseable {
+
+    /** Ingredients were used; the amounts were taken */
+    public static final int    USE          = 1;
+    /** Ingredients were added; the amounts were added */
+    public static final int    ADD          = 2;
+    /** The inventory was set; the amounts are the new levels */
+    public static final int    SET          = 3;
+
+    /** Identifies a journal file */
+    private static final int   MAGIC        = 0x434d4a4c;
+    /** Version of the file layout */
+    private static final int   FORMAT       = 2;
+    /** Size of the header, in bytes */
+    private static final int   HEADER_SIZE  = 32;
+    /** Offset of the oldest record's sequence number in the header */
+    private static final int   FIRST_OFFSET = 8;
+    /** Offset of the last acknowledged sequence number in the header */
+    private static final int   ACK_OFFSET   = 16;
+    /**
+     * Size of a record, in bytes: sequence, timestamp, operation, recipe ID,
+     * amounts and checksum
+     */
+    static final int           RECORD_SIZE  = 8 + 8 + 4 + 8 + 4 * IngredientLedger.INGREDIENTS + 4;
+
+    /** The mapped file */
+    private final FileChannel      channel;
+    /** Mapping of the whole file */
+    private final MappedByteBuffer buffer;
+    /** Number of record slots */
+    private final int              capacity;
+    /** Whether to force every record to disk */
+    private final boolean          sync;
+
+    /** Sequence number of the oldest record kept */
+    private long                   first;
+    /** Number of records kept, from first on */
+    private int                    count;
+    /** Last acknowledged sequence number */
+    private long                   acknowledged;
+
+    /**
+     * Opens a journal, creating it if the file does not exist, and finds the
+     * records already in it.
+     *
+     * @param file
+     *            journal file
+     * @param capacity
+     *            number of records the file holds; must match an existing
+     *            file's
+     * @param sync
+     *            true to force each record to disk
+     * @throws IOException
+     *             if the file cannot be opened or is not a journal
+     */
+    public InventoryJournal ( final Path file, final int capacity, final boolean sync ) throws IOException {
+        if ( capacity < 1 ) {
+            throw new IllegalArgumentException( "Journal capacity must be positive" );
+        }
+        this.capacity = capacity;
+        this.sync = sync;
+        channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE );
+        final long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        final boolean fresh = channel.size() == 0;
+        if ( !fresh && channel.size() != size ) {
+            channel.close();
+            throw new IOException( "Journal " + file + " does not hold " + capacity + " records" );
+        }
+        buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, size );
+
+        if ( fresh ) {
+            buffer.putInt( 0, MAGIC );
+            buffer.putInt( 4, FORMAT );
+            buffer.putLong( FIRST_OFFSET, 1 );
+            buffer.putLong( ACK_OFFSET, 0 );
+            force();
+        }
+        else if ( buffer.getInt( 0 ) != MAGIC || buffer.getInt( 4 ) != FORMAT ) {
+            channel.close();
+            throw new IOException( file + " is not an inventory journal" );
+        }
+        first = buffer.getLong( FIRST_OFFSET );
+        acknowledged = buffer.getLong( ACK_OFFSET );
+        while ( count < capacity && valid( first + count ) ) {
+            count++;
+        }
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param op
+     *            USE, ADD or SET
+     * @param recipeId
+     *            recipe the change was for, or 0
+     * @param amounts
+     *            amounts, indexed by ingredient
+     * @return the record's sequence number
+     * @throws IllegalStateException
+     *             if every slot holds an unacknowledged record
+     */
+    public synchronized long append ( final int op, final long recipeId, final int... amounts )
+            throws IllegalStateException {
+        if ( amounts.length != IngredientLedger.INGREDIENTS ) {
+            throw new IllegalArgumentException( "Expected an amount for each ingredient" );
+        }
+        if ( count == capacity ) {
+            if ( acknowledged < first ) {
+                throw new IllegalStateException( "Inventory journal is full; the database is not keeping up" );
+            }
+            // Reclaim the slots of the records the database has; the header
+            // moves on before any of them is overwritten
+            final int reclaimed = (int) Math.min( acknowledged - first + 1, count );
+            first += reclaimed;
+            count -= reclaimed;
+            buffer.putLong( FIRST_OFFSET, first );
+            force();
+        }
+
+        final long seq = first + count;
+        final int at = slot( seq );
+        buffer.putLong( at, seq );
+        buffer.putLong( at + 8, System.currentTimeMillis() );
+        buffer.putInt( at + 16, op );
+        buffer.putLong( at + 20, recipeId );
+        for ( int i = 0; i < IngredientLedger.INGREDIENTS; i++ ) {
+            buffer.putInt( at + 28 + 4 * i, amounts[i] );
+        }
+        buffer.putInt( at + RECORD_SIZE - 4, checksum( at ) );
+        count++;
+        force();
+        return seq;
+    }
+
+    /**
+     * Records that every record up to a sequence number is in the database.
+     *
+     * @param seq
+     *            sequence number
+     */
+    public synchronized void acknowledge ( final long seq ) {
+        if ( seq > acknowledged ) {
+            acknowledged = seq;
+            buffer.putLong( ACK_OFFSET, seq );
+            force();
+        }
+    }
+
+    /**
+     * Empties the journal, if everything in it is acknowledged, so that the
+     * next record is numbered after both its last record and a given sequence
+     * number. Used when the database has seen later records than the journal
+     * holds, for example because the file was replaced.
+     *
+     * @param seq
+     *            sequence number new records must follow
+     */
+    public synchronized void restartAfter ( final long seq ) {
+        if ( acknowledged < lastSequence() ) {
+            return;
+        }
+        first = Math.max( seq, lastSequence() ) + 1;
+        count = 0;
+        acknowledged = first - 1;
+        buffer.putLong( FIRST_OFFSET, first );
+        buffer.putLong( ACK_OFFSET, acknowledged );
+        force();
+    }
+
+    /**
+     * Returns the sequence number of the last record appended, or the one
+     * before the first slot if there is none.
+     *
+     * @return last sequence number
+     */
+    public synchronized long lastSequence () {
+        return first + count - 1;
+    }
+
+    /**
+     * Returns the last acknowledged sequence number.
+     *
+     * @return acknowledged sequence number
+     */
+    public synchronized long getAcknowledged () {
+        return acknowledged;
+    }
+
+    /**
+     * Returns the records after a sequence number, oldest first.
+     *
+     * @param after
+     *            sequence number to start after
+     * @return records with a higher sequence number
+     */
+    public synchronized List<Record> recordsAfter ( final long after ) {
+        final List<Record> records = new ArrayList<Record>();
+        for ( int i = 0; i < count; i++ ) {
+            if ( first + i > after ) {
+                records.add( read( first + i ) );
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Writes the mapping to disk and closes the file.
+     *
+     * @throws IOException
+     *             if the file cannot be closed
+     */
+    @Override
+    public synchronized void close () throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Returns the offset of the slot a record lives in.
+     *
+     * @param seq
+     *            sequence number of the record
+     * @return offset in the file
+     */
+    private int slot ( final long seq ) {
+        return HEADER_SIZE + (int) ( ( seq - 1 ) % capacity ) * RECORD_SIZE;
+    }
+
+    /**
+     * Returns whether a record's slot holds that record.
+     *
+     * @param seq
+     *            sequence number of the record
+     * @return true if the record is intact and in sequence
+     */
+    private boolean valid ( final long seq ) {
+        final int at = slot( seq );
+        return buffer.getLong( at ) == seq && buffer.getInt( at + RECORD_SIZE - 4 ) == checksum( at );
+    }
+
+    /**
+     * Computes the checksum of the record at an offset.
+     *
+     * @param at
+     *            offset of the record
+     * @return CRC32 of everything but the checksum
+     */
+    private int checksum ( final int at ) {
+        final ByteBuffer record = buffer.duplicate();
+        record.position( at );
+        record.limit( at + RECORD_SIZE - 4 );
+        final CRC32 crc = new CRC32();
+        crc.update( record );
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads a record.
+     *
+     * @param seq
+     *            sequence number of the record
+     * @return the record
+     */
+    private Record read ( final long seq ) {
+        final int at = slot( seq );
+        final int[] amounts = new int[IngredientLedger.INGREDIENTS];
+        for ( int i = 0; i < amounts.length; i++ ) {
+            amounts[i] = buffer.getInt( at + 28 + 4 * i );
+        }
+        return new Record( buffer.getLong( at ), buffer.getLong( at + 8 ), buffer.getInt( at + 16 ),
+                buffer.getLong( at + 20 ), amounts );
+    }
+
+    /**
+     * Forces the mapping to disk, if syncing is on.
+     */
+    private void force () {
+        if ( sync ) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * One change read back from the journal.
+     *
+     * @author sbutler2901
+     */
+    public static final class Record {
+
+        /** Sequence number */
+        private final long  sequence;
+        /** When the change was made, in ms since the epoch */
+        private final long  timestamp;
+        /** USE, ADD or SET */
+        private final int   op;
+        /** Recipe the change was for, or 0 */
+        private final long  recipeId;
+        /** Amounts, indexed by ingredient */
+        private final int[] amounts;
+
+        /**
+         * Creates a record.
+         *
+         * @param sequence
+         *            sequence number
+         * @param timestamp
+         *            time of the change
+         * @param op
+         *            operation
+         * @param recipeId
+         *            recipe ID
+         * @param amounts
+         *            amounts
+         */
+        Record ( final long sequence, final long timestamp, final int op, final long recipeId,
+                final int[] amounts ) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.op = op;
+            this.recipeId = recipeId;
+            this.amounts = amounts;
+        }
+
+        /**
+         * Returns the sequence number.
+         *
+         * @return sequence number
+         */
+        public long getSequence () {
+            return sequence;
+        }
+
+        /**
+         * Returns when the change was made.
+         *
+         * @return ms since the epoch
+         */
+        public long getTimestamp () {
+            return timestamp;
+        }
+
+        /**
+         * Returns the operation.
+         *
+         * @return USE, ADD or SET
+         */
+        public int getOp () {
+            return op;
+        }
+
+        /**
+         * Returns the recipe the change was for.
+         *
+         * @return recipe ID, or 0
+         */
+        public long getRecipeId () {
+            return recipeId;
+        }
+
+        /**
+         * Returns the amounts.
+         *
+         * @return amounts, indexed by ingredient
+         */
+        public int[] getAmounts () {
+            return amounts.clone();
+        }
+
+        /**
+         * Applies the change to a ledger.
+         *
+         * @param ledger
+         *            ledger to change
+         */
+        public void applyTo ( final IngredientLedger ledger ) {
+            switch ( op ) {
+                case USE:
+                    ledger.take( amounts );
+                    break;
+                case ADD:
+                    ledger.add( amounts );
+                    break;
+                case SET:
+                    ledger.setAll( amounts );
+                    break;
+                default:
+                    throw new IllegalStateException( "Unknown journal operation " + op );
+            }
+        }
+    }
+}
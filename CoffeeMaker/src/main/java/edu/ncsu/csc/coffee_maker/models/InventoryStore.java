@@ -0,0 +1,347 @@
+package edu.ncsu.csc.coffee_maker.models;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.ncsu.csc.coffee_maker.models.persistent.DirectInventoryPersistence;
+import edu.ncsu.csc.coffee_maker.models.persistent.GroupCommitInventoryPersistence;
+import edu.ncsu.csc.coffee_maker.models.persistent.Inventory;
+import edu.ncsu.csc.coffee_maker.models.persistent.InventoryPersistence;
+import edu.ncsu.csc.coffee_maker.models.persistent.JournaledInventoryPersistence;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+import edu.ncsu.csc.coffee_maker.models.persistent.SharedInventoryPersistence;
+import edu.ncsu.csc.coffee_maker.models.persistent.SqlDecrementInventoryPersistence;
+import edu.ncsu.csc.coffee_maker.models.persistent.WriteBehindInventoryPersistence;
+import edu.ncsu.csc.coffee_maker.util.WriteBehindQueue;
+
+/**
+ * The one inventory of the application. Both the REST layer (through the
+ * InventoryService) and every CoffeeMaker use the Inventory held here, and
+ * every change to it is made through the store, so orders and restocks change
+ * the same object.
+ *
+ * How changes reach the database is chosen once, when the store is created,
+ * from the coffeemaker.inventory.* system properties (see
+ * {@link #choosePersistence()}).
+ *
+ * Consistency model: the in-memory inventory is the source of truth for this
+ * process. It is loaded from the database once, on first use. Every change is
+ * applied atomically in memory and then saved, either right away or in the
+ * background when write-behind is enabled. Reads never query the database.
+ * Changes made to the database by anything else are only seen after
+ * {@link #reload()}.
+ *
+ * With a journal (coffeemaker.inventory.journal), each change is also
+ * appended to a local file before it is applied, and saved in the background.
+ * On load, changes in the journal that the database never got are replayed,
+ * so a crash loses nothing the journal holds.
+ *
+ * When several instances share the database (coffeemaker.inventory.shared),
+ * the database is the source of truth instead: every change is a
+ * version-checked update of the inventory row, and the in-memory amounts are
+ * what this instance last read or wrote.
+ *
+ * The inventory carries a change version that moves on with every change, so
+ * callers can cache anything they derive from it.
+ *
+ * @author sbutler2901
+ */
+public final class InventoryStore {
+
+    /** Logger for this class */
+    private static final Logger        LOG            = LoggerFactory.getLogger( InventoryStore.class );
+
+    /**
+     * Amount of each ingredient to start with when the database holds no
+     * inventory yet, from the system property coffeemaker.inventory.initial
+     */
+    private static final int           INITIAL_AMOUNT = Integer.getInteger( "coffeemaker.inventory.initial", 15 );
+
+    /** The shared inventory */
+    private final Inventory            inventory;
+
+    /** Saves the changes to the inventory */
+    private final InventoryPersistence persistence;
+
+    /**
+     * Creates the store, loading the inventory from the database and
+     * replaying the journal.
+     */
+    private InventoryStore () {
+        persistence = choosePersistence();
+        inventory = new Inventory();
+        final boolean found = persistence.load( inventory );
+
+        // Redo changes the last run journaled but never saved
+        final int replayed = persistence.replayJournal( inventory );
+        if ( replayed > 0 ) {
+            LOG.info( "Replayed {} inventory journal records", replayed );
+        }
+        if ( !found && replayed == 0 ) {
+            // First start against this database
+            addIngredients( INITIAL_AMOUNT, INITIAL_AMOUNT, INITIAL_AMOUNT, INITIAL_AMOUNT );
+        }
+    }
+
+    /**
+     * Holds the store, so that it is created (and the database read) on first
+     * use rather than when the class is loaded.
+     */
+    private static final class Holder {
+        /** The store */
+        static final InventoryStore INSTANCE = new InventoryStore();
+    }
+
+    /**
+     * Returns the store.
+     *
+     * @return the inventory store
+     */
+    public static InventoryStore getInstance () {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Builds the persistence mode the system properties ask for. The first of
+     * these that is set wins:
+     * <ul>
+     * <li>coffeemaker.inventory.sqlDecrement=true: each purchase is a single
+     * conditional UPDATE that checks and takes the ingredients in the
+     * database, and each restock a single UPDATE.</li>
+     * <li>coffeemaker.inventory.shared=true: several instances share one
+     * database, and every change is a version-checked update of the inventory
+     * row. In both database modes an update that keeps conflicting gives up
+     * after coffeemaker.inventory.maxAttempts tries (50).</li>
+     * <li>coffeemaker.inventory.journal=file: every change is logged to a
+     * local write-ahead journal and saved in the background. The journal
+     * holds coffeemaker.inventory.journalCapacity records (65536); set
+     * coffeemaker.inventory.journalSync to force each one to disk. With
+     * groupCommit set as well, each change also waits for its batch.</li>
+     * <li>coffeemaker.inventory.groupCommit=true: concurrent orders queue
+     * their updates, a single writer saves a batch of them in one transaction
+     * every flushInterval ms (5 by default) or batchSize updates, and each
+     * order waits up to coffeemaker.inventory.commitTimeout ms (30000) for its
+     * batch to commit.</li>
+     * <li>coffeemaker.inventory.writeBehind=true: changes are written
+     * asynchronously instead of on every order.</li>
+     * </ul>
+     * Otherwise each change is saved before it returns. The background writer
+     * of the last three takes coffeemaker.inventory.queueCapacity (1024),
+     * batchSize (64) and flushInterval (100 ms), and drops a batch the
+     * database keeps refusing after coffeemaker.inventory.writeAttempts tries
+     * (10).
+     *
+     * @return the persistence mode
+     * @throws IllegalStateException
+     *             if the journal cannot be opened
+     */
+    public static InventoryPersistence choosePersistence () throws IllegalStateException {
+        final int maxAttempts = Integer.getInteger( "coffeemaker.inventory.maxAttempts", 50 );
+        if ( Boolean.getBoolean( "coffeemaker.inventory.sqlDecrement" ) ) {
+            return new SqlDecrementInventoryPersistence( maxAttempts );
+        }
+        if ( Boolean.getBoolean( "coffeemaker.inventory.shared" ) ) {
+            return new SharedInventoryPersistence( maxAttempts );
+        }
+
+        final boolean groupCommit = Boolean.getBoolean( "coffeemaker.inventory.groupCommit" );
+        final long commitTimeout = Long.getLong( "coffeemaker.inventory.commitTimeout", 30000L );
+        final String journal = System.getProperty( "coffeemaker.inventory.journal" );
+        if ( journal != null && !journal.isEmpty() ) {
+            return new JournaledInventoryPersistence( openJournal( journal ), writer( groupCommit ),
+                    groupCommit ? commitTimeout : 0 );
+        }
+        if ( groupCommit ) {
+            return new GroupCommitInventoryPersistence( writer( true ), commitTimeout );
+        }
+        if ( Boolean.getBoolean( "coffeemaker.inventory.writeBehind" ) ) {
+            return new WriteBehindInventoryPersistence( writer( false ) );
+        }
+        return new DirectInventoryPersistence();
+    }
+
+    /**
+     * Opens the inventory journal.
+     *
+     * @param file
+     *            journal file
+     * @return the journal
+     * @throws IllegalStateException
+     *             if the journal cannot be opened
+     */
+    private static InventoryJournal openJournal ( final String file ) throws IllegalStateException {
+        try {
+            return new InventoryJournal( Paths.get( file ),
+                    Integer.getInteger( "coffeemaker.inventory.journalCapacity", 65536 ),
+                    Boolean.getBoolean( "coffeemaker.inventory.journalSync" ) );
+        }
+        catch ( final IOException e ) {
+            throw new IllegalStateException( "Cannot open inventory journal " + file, e );
+        }
+    }
+
+    /**
+     * Creates the background writer for the modes that save through one.
+     *
+     * @param groupCommit
+     *            true if orders wait for their batch, which then defaults to
+     *            a shorter flush interval
+     * @return the write-behind queue
+     */
+    private static WriteBehindQueue writer ( final boolean groupCommit ) {
+        return new WriteBehindQueue( "inventory-write-behind",
+                Integer.getInteger( "coffeemaker.inventory.queueCapacity", 1024 ),
+                Integer.getInteger( "coffeemaker.inventory.batchSize", 64 ),
+                Long.getLong( "coffeemaker.inventory.flushInterval", groupCommit ? 5L : 100L ),
+                Integer.getInteger( "coffeemaker.inventory.writeAttempts", 10 ) );
+    }
+
+    /**
+     * Returns the shared inventory. Read it freely; change it only through
+     * the store.
+     *
+     * @return the inventory
+     */
+    public Inventory getInventory () {
+        return inventory;
+    }
+
+    /**
+     * Returns the change version of the inventory.
+     *
+     * @return change version
+     */
+    public long getVersion () {
+        return inventory.version();
+    }
+
+    /**
+     * Removes the ingredients used to make the specified recipe, if there are
+     * enough of all of them. The check and the removal happen atomically, so
+     * concurrent orders cannot oversell.
+     *
+     * @param r
+     *            recipe to make
+     * @return true if recipe is made.
+     * @throws IllegalStateException
+     *             if the inventory could not be updated in the database
+     */
+    public boolean useIngredients ( final Recipe r ) throws IllegalStateException {
+        return persistence.useIngredients( inventory, r );
+    }
+
+    /**
+     * Removes the ingredients for several recipes in one atomic pass and
+     * updates the DB once. In all-or-nothing mode either every recipe is made
+     * or none is; otherwise each recipe is made if the ingredients left after
+     * the earlier ones cover it.
+     *
+     * @param recipes
+     *            recipes to make, in order
+     * @param allOrNothing
+     *            true to make every recipe or none of them
+     * @return for each recipe, true if it is made
+     * @throws IllegalStateException
+     *             if the inventory could not be updated in the database
+     */
+    public boolean[] useIngredients ( final List<Recipe> recipes, final boolean allOrNothing )
+            throws IllegalStateException {
+        return persistence.useIngredients( inventory, recipes, allOrNothing );
+    }
+
+    /**
+     * Adds ingredients to the inventory
+     *
+     * @param coffee
+     *            amt of coffee
+     * @param milk
+     *            amt of milk
+     * @param sugar
+     *            amt of sugar
+     * @param chocolate
+     *            amt of chocolate
+     * @return true if successful, false if not
+     * @throws IllegalArgumentException
+     *             if an amount is negative
+     * @throws IllegalStateException
+     *             if the inventory could not be updated in the database
+     */
+    public boolean addIngredients ( final int coffee, final int milk, final int sugar, final int chocolate )
+            throws IllegalArgumentException, IllegalStateException {
+        persistence.addIngredients( inventory, amounts( coffee, milk, sugar, chocolate ) );
+        return true;
+    }
+
+    /**
+     * Replaces all four amounts in the inventory in one step and saves them.
+     * Readers see either the old amounts or the new ones, never a mix, and
+     * the change is journaled and saved once rather than once per ingredient.
+     *
+     * @param coffee
+     *            new amt of coffee
+     * @param milk
+     *            new amt of milk
+     * @param sugar
+     *            new amt of sugar
+     * @param chocolate
+     *            new amt of chocolate
+     * @throws IllegalArgumentException
+     *             if an amount is negative
+     * @throws IllegalStateException
+     *             if the inventory could not be updated in the database
+     */
+    public void setIngredients ( final int coffee, final int milk, final int sugar, final int chocolate )
+            throws IllegalArgumentException, IllegalStateException {
+        persistence.setIngredients( inventory, amounts( coffee, milk, sugar, chocolate ) );
+    }
+
+    /**
+     * Checks and collects amounts of each ingredient.
+     *
+     * @param coffee
+     *            amt of coffee
+     * @param milk
+     *            amt of milk
+     * @param sugar
+     *            amt of sugar
+     * @param chocolate
+     *            amt of chocolate
+     * @return the amounts, indexed by ingredient
+     * @throws IllegalArgumentException
+     *             if an amount is negative
+     */
+    private static int[] amounts ( final int coffee, final int milk, final int sugar, final int chocolate )
+            throws IllegalArgumentException {
+        if ( coffee < 0 || milk < 0 || sugar < 0 || chocolate < 0 ) {
+            throw new IllegalArgumentException( "Amount cannot be negative" );
+        }
+        return new int[] { coffee, milk, sugar, chocolate };
+    }
+
+    /**
+     * Waits until every change made so far has been saved to the database.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public void flush () throws InterruptedException {
+        persistence.flush();
+    }
+
+    /**
+     * Discards the in-memory amounts and reads them from the database again,
+     * for when the database was changed by something else.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for queued updates
+     */
+    public void reload () throws InterruptedException {
+        // Don't let queued updates overwrite what is about to be read
+        persistence.flush();
+        persistence.load( inventory );
+    }
+}
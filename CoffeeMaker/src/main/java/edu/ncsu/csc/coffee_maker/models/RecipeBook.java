@@ -1,12 +1,23 @@
 package edu.ncsu.csc.coffee_maker.models;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Vector;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+import org.hibernate.Cache;
+import org.hibernate.ObjectNotFoundException;
 import org.hibernate.Session;
+import org.hibernate.StaleStateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+import edu.ncsu.csc.coffee_maker.util.CoffeeMakerMetrics;
 import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
 
 /**
@@ -18,45 +29,241 @@ import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
  */
 public class RecipeBook {
 
-    /** Array of recipes in coffee maker */
-    private List<Recipe> recipesList;
+    /** Logger for this class */
+    private static final Logger                          LOG              = LoggerFactory
+            .getLogger( RecipeBook.class );
+
+    /**
+     * Maximum number of recipes, from the system property
+     * coffeemaker.recipes.capacity
+     */
+    private static final int                             DEFAULT_CAPACITY = Integer
+            .getInteger( "coffeemaker.recipes.capacity", 3 );
+
+    /** Maximum number of recipes this book holds */
+    private final int                                    capacity;
+
+    /**
+     * Recipes keyed by database ID. IDs are handed out in increasing order,
+     * so iteration order is the order the recipes were added.
+     */
+    private volatile ConcurrentSkipListMap<Long, Recipe> recipes          = new ConcurrentSkipListMap<Long, Recipe>();
+
+    /**
+     * Number of recipes; kept separately as counting a skip list is linear
+     */
+    private volatile int                                 count;
+
+    /**
+     * Recipes keyed by normalized (lower-case) name. Maintained alongside
+     * recipes and readable without the book's monitor.
+     */
+    private volatile Map<String, Recipe>                 nameIndex        = new ConcurrentHashMap<String, Recipe>();
+
+    /**
+     * Read-only list of the recipes, in order, and the version it was built
+     * for. Built by the first reader after a change, so writers never pay for
+     * it and readers need no lock.
+     */
+    private volatile Snapshot                            snapshot;
+
+    /**
+     * Catalog version; bumped every time the recipes are added, edited,
+     * deleted or reloaded. Only written with the book's monitor held.
+     */
+    private volatile long                                version;
+
+    /** Set when the cached recipes may no longer match the DB */
+    private volatile boolean                             stale;
 
     /**
      * Default constructor for a RecipeBook.
      */
     public RecipeBook () {
+        this( DEFAULT_CAPACITY );
+    }
+
+    /**
+     * Creates a RecipeBook that holds at most the given number of recipes.
+     *
+     * @param capacity
+     *            maximum number of recipes
+     */
+    public RecipeBook ( final int capacity ) {
+        if ( capacity < 0 ) {
+            throw new IllegalArgumentException( "Capacity cannot be negative" );
+        }
+        this.capacity = capacity;
+
+        // A recipe list query naming recipes the cache has dropped costs a
+        // query per recipe
+        HibernateUtil.fitRecipeRegion( capacity );
+
         // Get all recipes from the DB
         updateRecipes();
     }
 
     /**
-     * Update the class's Recipe list to be persistent with DB
+     * Update the class's Recipe list to be persistent with DB. This reloads
+     * every recipe; add, edit and delete keep the list current on their own,
+     * so it is only needed after {@link #invalidate()}. The query and the
+     * recipes it returns are served from the Hibernate caches when they can
+     * be; add, edit and delete go through Hibernate, which keeps both caches
+     * up to date.
      */
     @SuppressWarnings ( "unchecked" )
-    public void updateRecipes () {
+    public synchronized void updateRecipes () {
+        final long start = System.nanoTime();
+
+        // Anything invalidated from here on needs another reload
+        stale = false;
+
         // Get all recipes from the DB
         final Session session = HibernateUtil.getSessionFactory().openSession();
         session.beginTransaction();
 
-        recipesList = new Vector<Recipe>( 3 );
+        final ConcurrentSkipListMap<Long, Recipe> byId = new ConcurrentSkipListMap<Long, Recipe>();
+        final Map<String, Recipe> names = new ConcurrentHashMap<String, Recipe>();
 
-        final ArrayList<Recipe> result = (ArrayList<Recipe>) session.createQuery( "from Recipe" ).list();
+        final ArrayList<Recipe> result = (ArrayList<Recipe>) session.createQuery( "from Recipe" ).setCacheable( true )
+                .setCacheRegion( HibernateUtil.RECIPE_QUERIES ).list();
         for ( final Recipe recipe : (List<Recipe>) result ) {
-            this.recipesList.add( recipe );
-            System.out.println( "Recipe: " + recipe.getName() );
+            byId.put( recipe.getId(), recipe );
+            if ( recipe.getName() != null && !names.containsKey( normalize( recipe.getName() ) ) ) {
+                names.put( normalize( recipe.getName() ), recipe );
+            }
+            LOG.debug( "Recipe: {}", recipe.getName() );
         }
+        recipes = byId;
+        nameIndex = names;
+        count = byId.size();
+        publish();
 
         session.getTransaction().commit();
         session.close();
+        CoffeeMakerMetrics.db( CoffeeMakerMetrics.RECIPE_RELOAD, start );
+    }
+
+    /**
+     * Marks the cached recipes as out of date, for example after the recipes
+     * table was changed by something other than this RecipeBook. They are
+     * evicted from the Hibernate caches and reloaded from the DB on next use.
+     */
+    public void invalidate () {
+        final Cache cache = HibernateUtil.getSessionFactory().getCache();
+        cache.evictEntityRegion( Recipe.class );
+        cache.evictQueryRegion( HibernateUtil.RECIPE_QUERIES );
+        stale = true;
     }
 
     /**
-     * Returns recipes as a list.
+     * Reloads the recipes if they have been invalidated.
+     */
+    private void reloadIfStale () {
+        if ( stale ) {
+            synchronized ( this ) {
+                if ( stale ) {
+                    updateRecipes();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the key a recipe name is indexed under.
+     *
+     * @param name
+     *            recipe name
+     * @return normalized name
+     */
+    private static String normalize ( final String name ) {
+        return name.toLowerCase( Locale.ROOT );
+    }
+
+    /**
+     * Returns the maximum number of recipes this book holds.
+     *
+     * @return capacity
+     */
+    public int getCapacity () {
+        return capacity;
+    }
+
+    /**
+     * Bumps the catalog version, so that the next reader builds a new list of
+     * the recipes. Called by writers, with the book's monitor held, after
+     * every change.
+     */
+    private void publish () {
+        version++;
+    }
+
+    /**
+     * Returns the catalog version. It changes whenever a recipe is added,
+     * edited or deleted, so anything derived from {@link #getRecipes()} can be
+     * cached until the version moves on. The list returned by getRecipes()
+     * after reading the version is at least as new as that version.
+     *
+     * @return catalog version
+     */
+    public long getVersion () {
+        reloadIfStale();
+        return version;
+    }
+
+    /**
+     * Returns recipes as a list. The list is a read-only snapshot that does
+     * not change when recipes are later added or deleted. This never waits
+     * for a writer, even one that is busy with the DB.
      *
      * @return list of recipes
      */
-    public synchronized List<Recipe> getRecipes () {
-        return recipesList;
+    public List<Recipe> getRecipes () {
+        reloadIfStale();
+        while ( true ) {
+            final long built = version;
+            final Snapshot current = snapshot;
+            if ( current != null && current.version == built ) {
+                return current.recipes;
+            }
+            final List<Recipe> list = Collections
+                    .unmodifiableList( Arrays.asList( recipes.values().toArray( new Recipe[0] ) ) );
+            // Only keep it if no writer finished a change while it was copied
+            if ( version == built ) {
+                snapshot = new Snapshot( built, list );
+                return list;
+            }
+        }
+    }
+
+    /**
+     * Returns one page of the recipes, in the same order as
+     * {@link #getRecipes()}.
+     *
+     * @param offset
+     *            number of recipes to skip
+     * @param limit
+     *            maximum number of recipes to return
+     * @return list of at most limit recipes
+     */
+    public List<Recipe> getRecipes ( final int offset, final int limit ) {
+        if ( offset < 0 || limit < 0 ) {
+            throw new IllegalArgumentException( "Offset and limit cannot be negative" );
+        }
+        final List<Recipe> all = getRecipes();
+        final int from = Math.min( offset, all.size() );
+        final int to = (int) Math.min( (long) from + limit, all.size() );
+        return new ArrayList<Recipe>( all.subList( from, to ) );
+    }
+
+    /**
+     * Returns the number of recipes in the book.
+     *
+     * @return number of recipes
+     */
+    public int size () {
+        reloadIfStale();
+        return count;
     }
 
     /**
@@ -67,24 +274,40 @@ public class RecipeBook {
      *            name to search for
      * @return Recipe with the name
      */
-    public synchronized Recipe findRecipe ( final String name ) {
-        for ( final Recipe r : recipesList ) {
-            if ( r.getName().equalsIgnoreCase( name ) ) {
-                return r;
-            }
+    public Recipe findRecipe ( final String name ) {
+        if ( name == null ) {
+            return null;
         }
-        return null;
+        reloadIfStale();
+        return nameIndex.get( normalize( name ) );
+    }
+
+    /**
+     * Returns the Recipe with the given database ID, or null if there is no
+     * such recipe.
+     *
+     * @param id
+     *            ID to search for
+     * @return Recipe with the ID
+     */
+    public Recipe findRecipeById ( final long id ) {
+        reloadIfStale();
+        return recipes.get( id );
     }
 
     /**
-     * Returns true if a recipe was added to the RecipeBook.
+     * Returns true if a recipe was added to the RecipeBook. A recipe is not
+     * added if the book is full or already has a recipe of the same name
+     * (ignoring case).
      *
      * @param r
      *            recipe to add
      * @return true if added
      */
     public synchronized boolean addRecipe ( final Recipe r ) {
-        if ( recipesList.contains( r ) || recipesList.size() >= 3 ) {
+        reloadIfStale();
+        if ( r.getName() == null || nameIndex.containsKey( normalize( r.getName() ) )
+                || count >= capacity ) {
             return false; // New recipe was not added
         }
 
@@ -95,8 +318,11 @@ public class RecipeBook {
         session.getTransaction().commit();
         session.close();
 
-        // Update list
-        updateRecipes();
+        // Update the book with the recipe just saved, which now has its ID
+        recipes.put( r.getId(), r );
+        nameIndex.put( normalize( r.getName() ), r );
+        count++;
+        publish();
 
         // New recipe was added
         return true;
@@ -111,7 +337,7 @@ public class RecipeBook {
      * @return name of deleted recipe
      */
     public synchronized String deleteRecipe ( final int recipeToDelete ) {
-        return deleteRecipe( recipesList.get( recipeToDelete ) );
+        return deleteRecipe( getRecipes().get( recipeToDelete ) );
     }
 
     /**
@@ -124,33 +350,50 @@ public class RecipeBook {
      * @throws IllegalArgumentException
      */
     public synchronized String deleteRecipe ( final Recipe recipeToDelete ) throws IllegalArgumentException {
-        final int index = recipesList.indexOf( recipeToDelete );
-        if ( index < 0 ) {
+        reloadIfStale();
+        final Recipe r = findRecipe( recipeToDelete.getName() );
+        if ( r == null || !r.equals( recipeToDelete ) ) {
             throw new IllegalArgumentException( "Recipe does not exist" );
         }
 
-        final Recipe r = recipesList.get( index );
-
-        if ( r != null ) {
-            // Update the DB
-            final Session session = HibernateUtil.getSessionFactory().openSession();
+        // Update the DB
+        // In a transaction, so that the cache entry is released on commit
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.beginTransaction();
             final Recipe obj = session.load( Recipe.class, r.getId() );
             session.delete( obj );
 
             // This makes the pending delete to be done
-            session.flush();
+            session.getTransaction().commit();
+        }
+        catch ( final ObjectNotFoundException | StaleStateException e ) {
+            if ( session.getTransaction().isActive() ) {
+                session.getTransaction().rollback();
+            }
+            // Already gone from the DB, so the cache was out of date
+            invalidate();
+        }
+        finally {
             session.close();
+        }
 
-            // Update list
-            updateRecipes();
+        // Update the book
+        if ( recipes.remove( r.getId() ) != null ) {
+            count--;
         }
+        nameIndex.remove( normalize( r.getName() ) );
+        publish();
 
         return null;
     }
 
     /**
      * Returns the name of the recipe edited at the position specified and null
-     * if the recipe does not exist.
+     * if the recipe does not exist. The cached recipe is never changed: an
+     * edited copy is saved and then replaces it, so anyone holding the old
+     * recipe (or an older list) keeps seeing consistent amounts, and if the
+     * save fails the book still holds the old recipe.
      *
      * @param recipeToEdit
      *            recipe id to edit
@@ -159,29 +402,78 @@ public class RecipeBook {
      * @return name of edited recipe
      */
     public synchronized String editRecipe ( final int recipeToEdit, final Recipe newRecipe ) {
-        final Recipe r = recipesList.get( recipeToEdit );
+        final Recipe r = getRecipes().get( recipeToEdit );
 
         if ( r != null ) {
 
-            // Update `r` to reflect the changes in `newRecipe`
-            r.updateRecipe( newRecipe );
+            // Apply the changes in `newRecipe` to a copy of `r`
+            final Recipe edited = new Recipe( r );
+            edited.updateRecipe( newRecipe );
 
-            // Use updated `r` to update the DB
+            // Save the copy to the DB
             final Session session = HibernateUtil.getSessionFactory().openSession();
-            session.update( r );
-
-            // This makes the pending delete to be done
-            session.flush();
-            session.close();
+            try {
+                session.beginTransaction();
+                session.update( edited );
 
-            // Update the list
-            updateRecipes();
+                // This makes the pending update to be done
+                session.getTransaction().commit();
+            }
+            catch ( final StaleStateException e ) {
+                if ( session.getTransaction().isActive() ) {
+                    session.getTransaction().rollback();
+                }
+                // The recipe is no longer in the DB; resync and report it
+                invalidate();
+                updateRecipes();
+                return null;
+            }
+            catch ( final RuntimeException e ) {
+                if ( session.getTransaction().isActive() ) {
+                    session.getTransaction().rollback();
+                }
+                throw e;
+            }
+            finally {
+                session.close();
+            }
 
-            return r.getName();
+            // Saved; swap the copy in for `r`
+            recipes.put( edited.getId(), edited );
+            nameIndex.put( normalize( edited.getName() ), edited );
+            publish();
+            return edited.getName();
         }
         else {
             return null;
         }
     }
 
+    /**
+     * The list of recipes handed out by getRecipes() for one catalog version.
+     *
+     * @author sbutler2901
+     */
+    private static final class Snapshot {
+
+        /** Catalog version the list was built for */
+        private final long         version;
+
+        /** Read-only list of the recipes, in order */
+        private final List<Recipe> recipes;
+
+        /**
+         * Creates a snapshot.
+         *
+         * @param version
+         *            catalog version
+         * @param recipes
+         *            read-only list of the recipes
+         */
+        Snapshot ( final long version, final List<Recipe> recipes ) {
+            this.version = version;
+            this.recipes = recipes;
+        }
+    }
+
 }
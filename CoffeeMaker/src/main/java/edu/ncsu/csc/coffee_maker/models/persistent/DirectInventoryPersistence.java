@@ -0,0 +1,260 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.ncsu.csc.coffee_maker.util.CoffeeMakerMetrics;
+
+/**
+ * Saves the inventory on every change: each order and restock is applied to
+ * the in-memory amounts and then written to the current inventory row before
+ * it returns. The in-memory inventory is the source of truth for this
+ * process. This is the default mode, and the base of the modes that hand the
+ * write to a background writer instead.
+ *
+ * @author sbutler2901
+ */
+public class DirectInventoryPersistence implements InventoryPersistence {
+
+    /** Numbers the snapshots saved directly, in the order they were taken */
+    private final AtomicLong saveOrder = new AtomicLong();
+
+    /** Guards the three fields below */
+    private final Object     saveLock  = new Object();
+
+    /** Held while a snapshot is written directly */
+    private final Object     writeLock = new Object();
+
+    /** Newest snapshot offered for a direct write, or null once written */
+    private Inventory        newestSave;
+
+    /** Number of the newest snapshot offered for a direct write */
+    private long             newestOrder;
+
+    /** Number of the newest snapshot written directly */
+    private long             writtenOrder;
+
+    @Override
+    public boolean load ( final Inventory inventory ) {
+        final Inventory current = InventoryRows.readCurrent();
+        if ( current != null ) {
+            // Update the Inventory instance to reflect DB result
+            inventory.ledger().setAll( current.ledger().snapshot() );
+            inventory.setJournalSequence( current.getJournalSequence() );
+            return true;
+        }
+        // No DB records yet, default to empty inventory, and put it into the DB
+        inventory.ledger().setAll( 0, 0, 0, 0 );
+        save( inventory );
+        return false;
+    }
+
+    @Override
+    public int replayJournal ( final Inventory inventory ) {
+        return 0;
+    }
+
+    @Override
+    public boolean useIngredients ( final Inventory inventory, final Recipe r ) throws IllegalStateException {
+        if ( reserve( inventory, r, new int[] { r.getCoffee(), r.getMilk(), r.getSugar(), r.getChocolate() } ) ) {
+            // Add updated inventory to the DB
+            save( inventory );
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean[] useIngredients ( final Inventory inventory, final List<Recipe> recipes,
+            final boolean allOrNothing ) throws IllegalStateException {
+        final int[][] amounts = new int[recipes.size()][];
+        for ( int i = 0; i < amounts.length; i++ ) {
+            final Recipe r = recipes.get( i );
+            amounts[i] = new int[] { r.getCoffee(), r.getMilk(), r.getSugar(), r.getChocolate() };
+        }
+        final boolean[] made = reserveEach( inventory, recipes, allOrNothing, amounts );
+        for ( final boolean m : made ) {
+            if ( m ) {
+                // Add updated inventory to the DB, once for the whole batch
+                save( inventory );
+                break;
+            }
+        }
+        return made;
+    }
+
+    @Override
+    public void addIngredients ( final Inventory inventory, final int[] amounts ) throws IllegalStateException {
+        add( inventory, amounts );
+        save( inventory );
+    }
+
+    @Override
+    public void setIngredients ( final Inventory inventory, final int[] amounts ) throws IllegalStateException {
+        set( inventory, amounts );
+        save( inventory );
+    }
+
+    @Override
+    public void flush () throws InterruptedException {
+        // Every change is saved before it returns
+    }
+
+    /**
+     * Takes amounts from the inventory if there is enough of everything.
+     *
+     * @param inventory
+     *            inventory to take from
+     * @param r
+     *            recipe being made
+     * @param amounts
+     *            amounts to take, indexed by ingredient
+     * @return true if the amounts were taken
+     */
+    protected boolean reserve ( final Inventory inventory, final Recipe r, final int[] amounts ) {
+        return inventory.ledger().reserve( amounts );
+    }
+
+    /**
+     * Takes amounts for several recipes from the inventory in one atomic
+     * pass.
+     *
+     * @param inventory
+     *            inventory to take from
+     * @param recipes
+     *            recipes being made
+     * @param allOrNothing
+     *            true to take the amounts for every recipe or for none
+     * @param amounts
+     *            amounts for each recipe, indexed by ingredient
+     * @return for each recipe, true if its amounts were taken
+     */
+    protected boolean[] reserveEach ( final Inventory inventory, final List<Recipe> recipes,
+            final boolean allOrNothing, final int[][] amounts ) {
+        return inventory.ledger().reserveEach( allOrNothing, amounts );
+    }
+
+    /**
+     * Adds amounts to the inventory.
+     *
+     * @param inventory
+     *            inventory to add to
+     * @param amounts
+     *            amounts to add, indexed by ingredient
+     */
+    protected void add ( final Inventory inventory, final int[] amounts ) {
+        inventory.ledger().add( amounts );
+    }
+
+    /**
+     * Replaces the amounts in the inventory.
+     *
+     * @param inventory
+     *            inventory to change
+     * @param amounts
+     *            new amounts, indexed by ingredient
+     */
+    protected void set ( final Inventory inventory, final int[] amounts ) {
+        inventory.ledger().setAll( amounts );
+    }
+
+    /**
+     * Saves the current amounts of the inventory to the current inventory
+     * row, creating the row the first time. Callers that changed the amounts
+     * have journaled the change already, if there is a journal.
+     *
+     * @param inventory
+     *            inventory to save
+     * @throws IllegalStateException
+     *             if the amounts could not be saved
+     */
+    protected void save ( final Inventory inventory ) throws IllegalStateException {
+        final long start = System.nanoTime();
+        try {
+            // The copy is taken under the lock so that its number orders it
+            // with the states other orders save; the write happens outside it
+            final Inventory snapshot;
+            final long order;
+            final long waitStart = System.nanoTime();
+            synchronized ( inventory.ledger() ) {
+                CoffeeMakerMetrics.lockWait( waitStart );
+                snapshot = snapshot( inventory );
+                order = nextOrder();
+            }
+            writeInOrder( snapshot, order );
+        }
+        finally {
+            CoffeeMakerMetrics.db( CoffeeMakerMetrics.INVENTORY_PUSH, start );
+        }
+    }
+
+    /**
+     * Returns a copy of the inventory's amounts to save, addressed to the
+     * current inventory row. The caller holds the ledger's lock.
+     *
+     * @param inventory
+     *            inventory to copy
+     * @return detached copy, with the ID of the current row (if known)
+     */
+    protected Inventory snapshot ( final Inventory inventory ) {
+        final Inventory snapshot = inventory.copy();
+        snapshot.setId( InventoryRows.currentRowId() );
+        return snapshot;
+    }
+
+    /**
+     * Numbers a snapshot that is to be written directly. The caller holds the
+     * ledger's lock.
+     *
+     * @return number to pass to {@link #writeInOrder(Inventory, long)}
+     */
+    protected final long nextOrder () {
+        return saveOrder.incrementAndGet();
+    }
+
+    /**
+     * Writes a snapshot to the database unless a newer one has been written
+     * already. One thread writes at a time, and it writes the newest snapshot
+     * offered so far: a snapshot taken earlier never overwrites a later one,
+     * and the threads that queued up behind a write are mostly covered by the
+     * next one. Returns once this snapshot, or a newer one, is committed.
+     *
+     * @param snapshot
+     *            amounts to save
+     * @param order
+     *            number of the snapshot, from {@link #nextOrder()}
+     */
+    protected final void writeInOrder ( final Inventory snapshot, final long order ) {
+        synchronized ( saveLock ) {
+            if ( order > newestOrder ) {
+                newestSave = snapshot;
+                newestOrder = order;
+            }
+        }
+        final long waitStart = System.nanoTime();
+        synchronized ( writeLock ) {
+            CoffeeMakerMetrics.lockWait( waitStart );
+            final Inventory newest;
+            final long newestSaved;
+            synchronized ( saveLock ) {
+                if ( writtenOrder >= order ) {
+                    // Written by whoever held the lock before us
+                    return;
+                }
+                newest = newestSave;
+                newestSaved = newestOrder;
+            }
+            if ( newest.getId() == null ) {
+                // Taken before the row was created
+                newest.setId( InventoryRows.currentRowId() );
+            }
+            InventoryRows.write( newest );
+            synchronized ( saveLock ) {
+                writtenOrder = newestSaved;
+                if ( newestSave == newest ) {
+                    newestSave = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import edu.ncsu.csc.coffee_maker.util.WriteBehindQueue;
+
+/**
+ * Saves changes by group commit: concurrent orders queue their updates, a
+ * single writer saves a batch of them in one transaction, and each order
+ * returns only once its batch has committed.
+ *
+ * @author sbutler2901
+ */
+public class GroupCommitInventoryPersistence extends QueuedInventoryPersistence {
+
+    /** Longest an order waits for its group commit, in ms */
+    private final long commitTimeout;
+
+    /**
+     * Creates the mode.
+     *
+     * @param queue
+     *            queue that writes the batches
+     * @param commitTimeout
+     *            longest an order waits for its batch to commit, in ms
+     */
+    public GroupCommitInventoryPersistence ( final WriteBehindQueue queue, final long commitTimeout ) {
+        super( queue );
+        this.commitTimeout = commitTimeout;
+    }
+
+    @Override
+    protected CompletableFuture<Void> queue ( final Inventory snapshot ) throws IllegalStateException {
+        return writer().submit( snapshot );
+    }
+
+    @Override
+    protected void queued ( final Inventory snapshot, final CompletableFuture<Void> committed )
+            throws IllegalStateException {
+        awaitCommit( committed, commitTimeout );
+    }
+
+    /**
+     * Waits for a group commit, for at most a given time. The write-behind
+     * queue fails the commit once it gives up on a batch; the timeout bounds
+     * the wait should the database hang instead.
+     *
+     * @param committed
+     *            future completed when the update has been committed
+     * @param timeout
+     *            longest to wait, in ms
+     * @throws IllegalStateException
+     *             if the update was not saved, or not within the timeout
+     */
+    static void awaitCommit ( final CompletableFuture<Void> committed, final long timeout )
+            throws IllegalStateException {
+        try {
+            committed.get( timeout, TimeUnit.MILLISECONDS );
+        }
+        catch ( final ExecutionException e ) {
+            throw new IllegalStateException( "Inventory update was not saved", e.getCause() );
+        }
+        catch ( final TimeoutException e ) {
+            throw new IllegalStateException( "Inventory update was not saved within " + timeout + " ms", e );
+        }
+        catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while saving inventory", e );
+        }
+    }
+}
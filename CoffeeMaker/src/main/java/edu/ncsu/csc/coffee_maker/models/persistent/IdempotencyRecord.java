@@ -0,0 +1,368 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import java.util.UUID;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * The saved outcome of a request made with an Idempotency-Key, so that a
+ * retry can be answered with it, even by another instance or after a
+ * restart. A record is inserted, without an outcome, before the request is
+ * carried out; the primary key on the idempotency key makes sure only one
+ * instance carries it out. The outcome is filled in once it is known.
+ *
+ * Each claim has an owner, a random token, and the time it was made. A claim
+ * whose outcome never arrives (its instance died, or could not save it) can
+ * be taken over by another instance once it is old enough; the owner makes
+ * sure only one instance takes it over, and that the outcome of the instance
+ * it was taken from no longer counts.
+ *
+ * @author sbutler2901
+ */
+@Entity
+@Table ( name = "idempotency_keys" )
+public class IdempotencyRecord {
+
+    /** Longest idempotency key accepted */
+    public static final int MAX_KEY_LENGTH = 255;
+
+    /** The idempotency key */
+    private String          idempotencyKey;
+
+    /** What the request asked for, to catch a key reused for another one */
+    private String          fingerprint;
+
+    /** HTTP status of the outcome; 0 while the request is being carried out */
+    private int             status;
+
+    /** Body of the outcome */
+    private String          body;
+
+    /** Time after which the record no longer counts, in epoch milliseconds */
+    private long            expiresAt;
+
+    /** Token identifying the claim, and so the instance carrying it out */
+    private String          owner;
+
+    /** When the request was claimed, in epoch milliseconds */
+    private long            claimedAt;
+
+    /**
+     * Creates an empty record (used by Hibernate).
+     */
+    public IdempotencyRecord () {
+    }
+
+    /**
+     * Creates a record for a request that is about to be carried out, claimed
+     * now under a new owner.
+     *
+     * @param idempotencyKey
+     *            the idempotency key
+     * @param fingerprint
+     *            what the request asked for
+     * @param expiresAt
+     *            epoch milliseconds after which the record no longer counts
+     */
+    public IdempotencyRecord ( final String idempotencyKey, final String fingerprint, final long expiresAt ) {
+        this.idempotencyKey = idempotencyKey;
+        this.fingerprint = fingerprint;
+        this.expiresAt = expiresAt;
+        this.owner = UUID.randomUUID().toString();
+        this.claimedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Inserts a record for a request, unless one is already saved under its
+     * key.
+     *
+     * @param record
+     *            record to insert
+     * @return true if it was inserted; false if the key was taken
+     */
+    public static boolean claim ( final IdempotencyRecord record ) {
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.beginTransaction();
+            session.save( record );
+            session.getTransaction().commit();
+            return true;
+        }
+        catch ( final HibernateException e ) {
+            // Most likely the key is taken; find() tells
+            if ( session.getTransaction().isActive() ) {
+                session.getTransaction().rollback();
+            }
+            return false;
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Returns the record saved under a key.
+     *
+     * @param idempotencyKey
+     *            the idempotency key
+     * @return the record, or null if there is none
+     */
+    public static IdempotencyRecord find ( final String idempotencyKey ) {
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            return session.get( IdempotencyRecord.class, idempotencyKey );
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Takes over a claim whose request has no outcome, giving it to a new
+     * record's owner. Only one instance can take over a given claim.
+     *
+     * @param staleOwner
+     *            owner of the claim being taken over
+     * @param record
+     *            record claiming the key instead
+     * @return true if the claim was taken over; false if it has been
+     *         completed, released or taken over by someone else
+     */
+    public static boolean takeOver ( final String staleOwner, final IdempotencyRecord record ) {
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.beginTransaction();
+            final int updated = session
+                    .createQuery( "update IdempotencyRecord set owner = :owner, claimedAt = :claimedAt, "
+                            + "expiresAt = :expiresAt where idempotencyKey = :key and status = 0 "
+                            + "and owner = :staleOwner" )
+                    .setParameter( "owner", record.getOwner() ).setParameter( "claimedAt", record.getClaimedAt() )
+                    .setParameter( "expiresAt", record.getExpiresAt() )
+                    .setParameter( "key", record.getIdempotencyKey() ).setParameter( "staleOwner", staleOwner )
+                    .executeUpdate();
+            session.getTransaction().commit();
+            return updated == 1;
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Saves the outcome of the request a record was claimed for, if the
+     * record's owner still holds the claim.
+     *
+     * @param record
+     *            the record, with its outcome
+     * @return true if the outcome was saved; false if the claim was taken
+     *         over or released
+     */
+    public static boolean complete ( final IdempotencyRecord record ) {
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.beginTransaction();
+            final int updated = session
+                    .createQuery( "update IdempotencyRecord set status = :status, body = :body "
+                            + "where idempotencyKey = :key and owner = :owner" )
+                    .setParameter( "status", record.getStatus() ).setParameter( "body", record.getBody() )
+                    .setParameter( "key", record.getIdempotencyKey() ).setParameter( "owner", record.getOwner() )
+                    .executeUpdate();
+            session.getTransaction().commit();
+            return updated == 1;
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Removes the record saved under a key, so that the request can be tried
+     * again, if the given owner still holds the claim.
+     *
+     * @param idempotencyKey
+     *            the idempotency key
+     * @param owner
+     *            owner of the claim to remove
+     */
+    public static void release ( final String idempotencyKey, final String owner ) {
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.beginTransaction();
+            session.createQuery( "delete from IdempotencyRecord where idempotencyKey = :key and owner = :owner" )
+                    .setParameter( "key", idempotencyKey ).setParameter( "owner", owner ).executeUpdate();
+            session.getTransaction().commit();
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Removes records that have expired.
+     *
+     * @param now
+     *            current time, in epoch milliseconds
+     * @return number of records removed
+     */
+    public static int purge ( final long now ) {
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.beginTransaction();
+            final int removed = session.createQuery( "delete from IdempotencyRecord where expiresAt < :now" )
+                    .setParameter( "now", now ).executeUpdate();
+            session.getTransaction().commit();
+            return removed;
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Returns the idempotency key.
+     *
+     * @return the key
+     */
+    @Id
+    @Column ( name = "idempotency_key", length = MAX_KEY_LENGTH )
+    public String getIdempotencyKey () {
+        return idempotencyKey;
+    }
+
+    /**
+     * Sets the idempotency key.
+     *
+     * @param idempotencyKey
+     *            the key
+     */
+    public void setIdempotencyKey ( final String idempotencyKey ) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    /**
+     * Returns what the request asked for.
+     *
+     * @return request fingerprint
+     */
+    @Column ( nullable = false )
+    public String getFingerprint () {
+        return fingerprint;
+    }
+
+    /**
+     * Sets what the request asked for.
+     *
+     * @param fingerprint
+     *            request fingerprint
+     */
+    public void setFingerprint ( final String fingerprint ) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Returns the HTTP status of the outcome.
+     *
+     * @return status, or 0 if the request is still being carried out
+     */
+    public int getStatus () {
+        return status;
+    }
+
+    /**
+     * Sets the HTTP status of the outcome.
+     *
+     * @param status
+     *            HTTP status
+     */
+    public void setStatus ( final int status ) {
+        this.status = status;
+    }
+
+    /**
+     * Returns the body of the outcome.
+     *
+     * @return response body
+     */
+    @Column ( length = 1024 )
+    public String getBody () {
+        return body;
+    }
+
+    /**
+     * Sets the body of the outcome.
+     *
+     * @param body
+     *            response body
+     */
+    public void setBody ( final String body ) {
+        this.body = body;
+    }
+
+    /**
+     * Returns when the record stops counting.
+     *
+     * @return epoch milliseconds
+     */
+    @Column ( name = "expires_at" )
+    public long getExpiresAt () {
+        return expiresAt;
+    }
+
+    /**
+     * Sets when the record stops counting.
+     *
+     * @param expiresAt
+     *            epoch milliseconds
+     */
+    public void setExpiresAt ( final long expiresAt ) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Returns the token identifying the claim.
+     *
+     * @return claim owner
+     */
+    @Column ( name = "claim_owner", length = 36, nullable = false )
+    public String getOwner () {
+        return owner;
+    }
+
+    /**
+     * Sets the token identifying the claim.
+     *
+     * @param owner
+     *            claim owner
+     */
+    public void setOwner ( final String owner ) {
+        this.owner = owner;
+    }
+
+    /**
+     * Returns when the request was claimed.
+     *
+     * @return epoch milliseconds
+     */
+    @Column ( name = "claimed_at" )
+    public long getClaimedAt () {
+        return claimedAt;
+    }
+
+    /**
+     * Sets when the request was claimed.
+     *
+     * @param claimedAt
+     *            epoch milliseconds
+     */
+    public void setClaimedAt ( final long claimedAt ) {
+        this.claimedAt = claimedAt;
+    }
+}
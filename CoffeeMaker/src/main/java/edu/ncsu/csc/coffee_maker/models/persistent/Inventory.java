@@ -1,7 +1,6 @@
 package edu.ncsu.csc.coffee_maker.models.persistent;
 
-import java.util.ArrayList;
-
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
@@ -9,17 +8,17 @@ import javax.persistence.Id;
 import javax.persistence.Table;
 import javax.validation.constraints.Min;
 
-import org.hibernate.Session;
-import org.hibernate.criterion.DetachedCriteria;
-import org.hibernate.criterion.Projections;
-import org.hibernate.criterion.Property;
 import org.springframework.validation.annotation.Validated;
 
-import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import edu.ncsu.csc.coffee_maker.models.IngredientLedger;
 
 /**
  * Inventory for the coffee maker. Inventory is tied to the database using
- * Hibernate libraries.
+ * Hibernate libraries. This is only the mapped row and its amounts; how
+ * changes reach the database is up to the {@link InventoryPersistence} chosen
+ * by the InventoryStore.
  *
  * @author Kai Presler-Marshall
  * @author Elizabeth Gilbert
@@ -30,15 +29,19 @@ import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
 @Validated
 public class Inventory {
 
-    private Long id;
-    @Min ( 0 )
-    private int  coffee;
-    @Min ( 0 )
-    private int  milk;
-    @Min ( 0 )
-    private int  sugar;
-    @Min ( 0 )
-    private int  chocolate;
+    private Long                   id;
+
+    /**
+     * Version of the inventory row, bumped by every shared update. Ordinary
+     * saves leave it alone.
+     */
+    private long                   rowVersion;
+
+    /** Sequence number of the last journal record the row includes */
+    private long                   journalSequence;
+
+    /** Current ingredient levels; shared safely between request threads */
+    private final IngredientLedger ledger = new IngredientLedger();
 
     /**
      * Creates a coffee maker inventory object and fills each item in the
@@ -50,7 +53,10 @@ public class Inventory {
     }
 
     /**
-     * Use this to create inventory with specified amts.
+     * Use this to create inventory with specified amts. The inventory is only
+     * a value: nothing is saved to the database. The live inventory is the
+     * one held by the InventoryStore, and every change meant to last goes
+     * through it.
      *
      * @param coffee
      *            amt of coffee
@@ -62,69 +68,40 @@ public class Inventory {
      *            amt of chocolate
      */
     public Inventory ( final int coffee, final int milk, final int sugar, final int chocolate ) {
-        setCoffee( coffee );
-        setMilk( milk );
-        setSugar( sugar );
-        setChocolate( chocolate );
-
-        // Put this into the DB
-        final Session session = HibernateUtil.getSessionFactory().openSession();
-        session.beginTransaction();
-        session.save( this );
-        session.getTransaction().commit();
-        session.close();
+        ledger.setAll( coffee, milk, sugar, chocolate );
     }
 
     /**
-     * Pulls the latest information from the update and sets the fields.
+     * Returns the ledger holding this inventory's amounts, for the
+     * persistence strategies to change them.
+     *
+     * @return the ledger
      */
-    @SuppressWarnings ( "unchecked" )
-    public void pullFromDB () {
-        // Inventory entry with the highest ID should be
-        // the current inventory.
-        final Session session = HibernateUtil.getSessionFactory().openSession();
-        session.beginTransaction();
-
-        final DetachedCriteria maxId = DetachedCriteria.forClass( Inventory.class )
-                .setProjection( Projections.max( "id" ) );
-        final ArrayList<Inventory> result = (ArrayList<Inventory>) session.createCriteria( Inventory.class )
-                .add( Property.forName( "id" ).eq( maxId ) ).list();
-
-        session.getTransaction().commit();
-        session.close();
-
-        if ( !result.isEmpty() ) {
-            // Update the Inventory instance to reflect DB result
-            final Inventory i = result.get( 0 );
-
-            setCoffee( i.getCoffee() );
-            setMilk( i.getMilk() );
-            setSugar( i.getSugar() );
-            setChocolate( i.getChocolate() );
-        }
-        else {
-            // No DB records yet, default to empty inventory
-            setCoffee( 0 );
-            setMilk( 0 );
-            setSugar( 0 );
-            setChocolate( 0 );
-
-            // Put this into the DB
-            pushToDB();
-        }
+    IngredientLedger ledger () {
+        return ledger;
+    }
 
+    /**
+     * Returns the number of changes made to this inventory's amounts. Used to
+     * tell whether anything derived from the inventory is out of date; it is
+     * not saved to the database.
+     *
+     * @return change version
+     */
+    public long version () {
+        return ledger.getVersion();
     }
 
     /**
-     * Saves the inforamtion in the fields to the database.
+     * Returns a detached copy of this inventory's amounts that is not yet
+     * saved to the database.
+     *
+     * @return copy of the inventory
      */
-    public void pushToDB () {
-        // Put this into the DB
-        final Session session = HibernateUtil.getSessionFactory().openSession();
-        session.beginTransaction();
-        session.save( this );
-        session.getTransaction().commit();
-        session.close();
+    Inventory copy () {
+        final Inventory i = new Inventory();
+        i.ledger.setAll( ledger.snapshot() );
+        return i;
     }
 
     /**
@@ -148,13 +125,61 @@ public class Inventory {
         this.id = id;
     }
 
+    /**
+     * Returns the version of the inventory row, used to detect concurrent
+     * updates from other instances.
+     *
+     * @return row version
+     */
+    @JsonIgnore
+    @Column ( name = "version", updatable = false )
+    public long getRowVersion () {
+        return rowVersion;
+    }
+
+    /**
+     * Sets the version of the inventory row.
+     *
+     * @param rowVersion
+     *            row version
+     */
+    @JsonIgnore
+    public void setRowVersion ( final long rowVersion ) {
+        this.rowVersion = rowVersion;
+    }
+
+    /**
+     * Returns the sequence number of the last journal record included in this
+     * inventory; 0 without a journal.
+     *
+     * @return journal sequence number
+     */
+    @JsonIgnore
+    @Column ( name = "journal_seq" )
+    public long getJournalSequence () {
+        return journalSequence;
+    }
+
+    /**
+     * Sets the sequence number of the last journal record included in this
+     * inventory.
+     *
+     * @param journalSequence
+     *            journal sequence number
+     */
+    @JsonIgnore
+    public void setJournalSequence ( final long journalSequence ) {
+        this.journalSequence = journalSequence;
+    }
+
     /**
      * Returns the current number of chocolate units in the inventory.
      *
      * @return amount of chocolate
      */
+    @Min ( 0 )
     public int getChocolate () {
-        return chocolate;
+        return ledger.get( IngredientLedger.CHOCOLATE );
     }
 
     /**
@@ -165,8 +190,8 @@ public class Inventory {
      *            amount of chocolate to set
      */
     public void setChocolate ( final int amtChocolate ) {
-        if ( chocolate >= 0 ) {
-            chocolate = amtChocolate;
+        if ( getChocolate() >= 0 ) {
+            ledger.set( IngredientLedger.CHOCOLATE, amtChocolate );
         }
     }
 
@@ -199,8 +224,9 @@ public class Inventory {
      *
      * @return amount of coffee
      */
+    @Min ( 0 )
     public int getCoffee () {
-        return coffee;
+        return ledger.get( IngredientLedger.COFFEE );
     }
 
     /**
@@ -210,8 +236,8 @@ public class Inventory {
      *            amount of coffee to set
      */
     public void setCoffee ( final int amtCoffee ) {
-        if ( coffee >= 0 ) {
-            coffee = amtCoffee;
+        if ( getCoffee() >= 0 ) {
+            ledger.set( IngredientLedger.COFFEE, amtCoffee );
         }
     }
 
@@ -244,8 +270,9 @@ public class Inventory {
      *
      * @return int
      */
+    @Min ( 0 )
     public int getMilk () {
-        return milk;
+        return ledger.get( IngredientLedger.MILK );
     }
 
     /**
@@ -255,8 +282,8 @@ public class Inventory {
      *            amount of milk to set
      */
     public void setMilk ( final int amtMilk ) {
-        if ( milk >= 0 ) {
-            milk = amtMilk;
+        if ( getMilk() >= 0 ) {
+            ledger.set( IngredientLedger.MILK, amtMilk );
         }
     }
 
@@ -289,8 +316,9 @@ public class Inventory {
      *
      * @return int
      */
+    @Min ( 0 )
     public int getSugar () {
-        return sugar;
+        return ledger.get( IngredientLedger.SUGAR );
     }
 
     /**
@@ -300,8 +328,8 @@ public class Inventory {
      *            amount of sugar to set
      */
     public void setSugar ( final int amtSugar ) {
-        if ( sugar >= 0 ) {
-            sugar = amtSugar;
+        if ( getSugar() >= 0 ) {
+            ledger.set( IngredientLedger.SUGAR, amtSugar );
         }
     }
 
@@ -337,74 +365,7 @@ public class Inventory {
      * @return true if enough ingredients to make the beverage
      */
     public boolean enoughIngredients ( final Recipe r ) {
-        boolean isEnough = true;
-        if ( coffee < r.getCoffee() ) {
-            isEnough = false;
-        }
-        if ( milk < r.getMilk() ) {
-            isEnough = false;
-        }
-        if ( sugar < r.getSugar() ) {
-            isEnough = false;
-        }
-        if ( chocolate < r.getChocolate() ) {
-            isEnough = false;
-        }
-        return isEnough;
-    }
-
-    /**
-     * Removes the ingredients used to make the specified recipe. Assumes that
-     * the user has checked that there are enough ingredients to make
-     *
-     * @param r
-     *            recipe to make
-     * @return true if recipe is made.
-     */
-    public boolean useIngredients ( final Recipe r ) {
-        if ( enoughIngredients( r ) ) {
-            setCoffee( coffee - r.getCoffee() );
-            setMilk( milk - r.getMilk() );
-            setSugar( sugar - r.getSugar() );
-            setChocolate( chocolate - r.getChocolate() );
-
-            // Add updated inventory to the DB
-            pushToDB();
-
-            return true;
-        }
-        else {
-            return false;
-        }
-    }
-
-    /**
-     * Adds ingredients to the inventory
-     *
-     * @param coffee
-     *            amt of coffee
-     * @param milk
-     *            amt of milk
-     * @param sugar
-     *            amt of sugar
-     * @param chocolate
-     *            amt of chocolate
-     * @return true if successful, false if not
-     */
-    public boolean addIngredients ( final int coffee, final int milk, final int sugar, final int chocolate ) {
-        if ( coffee < 0 || milk < 0 || sugar < 0 || chocolate < 0 ) {
-            throw new IllegalArgumentException( "Amount cannot be negative" );
-        }
-
-        setCoffee( this.coffee + coffee );
-        setMilk( this.milk + milk );
-        setSugar( this.sugar + sugar );
-        setChocolate( this.chocolate + chocolate );
-
-        // Update the DB
-        pushToDB();
-
-        return true;
+        return ledger.hasEnough( r.getCoffee(), r.getMilk(), r.getSugar(), r.getChocolate() );
     }
 
     /**
@@ -414,18 +375,19 @@ public class Inventory {
      */
     @Override
     public String toString () {
+        final int[] levels = ledger.snapshot();
         final StringBuffer buf = new StringBuffer();
         buf.append( "Coffee: " );
-        buf.append( getCoffee() );
+        buf.append( levels[IngredientLedger.COFFEE] );
         buf.append( "\n" );
         buf.append( "Milk: " );
-        buf.append( getMilk() );
+        buf.append( levels[IngredientLedger.MILK] );
         buf.append( "\n" );
         buf.append( "Sugar: " );
-        buf.append( getSugar() );
+        buf.append( levels[IngredientLedger.SUGAR] );
         buf.append( "\n" );
         buf.append( "Chocolate: " );
-        buf.append( getChocolate() );
+        buf.append( levels[IngredientLedger.CHOCOLATE] );
         buf.append( "\n" );
         return buf.toString();
     }
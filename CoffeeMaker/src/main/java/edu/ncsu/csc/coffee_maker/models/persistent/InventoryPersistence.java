@@ -0,0 +1,104 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import java.util.List;
+
+/**
+ * How changes to the inventory reach the database. Each implementation is
+ * one persistence mode: saved on every change, written behind, saved by group
+ * commit, journaled, or made in the database itself when several instances
+ * share it. The InventoryStore chooses one at startup and makes every change
+ * through it; the Inventory itself is only the mapped row.
+ *
+ * @author sbutler2901
+ */
+public interface InventoryPersistence {
+
+    /**
+     * Reads the current inventory from the database into an inventory. If
+     * the database holds no inventory yet, an empty one is saved.
+     *
+     * @param inventory
+     *            inventory to fill
+     * @return true if an inventory was found in the database
+     */
+    boolean load ( Inventory inventory );
+
+    /**
+     * Redoes changes that an earlier run journaled but never saved, on top of
+     * the amounts last loaded, and saves the result. Call once at startup,
+     * after {@link #load(Inventory)}.
+     *
+     * @param inventory
+     *            inventory to replay onto
+     * @return number of changes replayed; 0 if this mode keeps no journal
+     */
+    int replayJournal ( Inventory inventory );
+
+    /**
+     * Removes the ingredients used to make the specified recipe, if there are
+     * enough of all of them. The check and the removal happen atomically, so
+     * concurrent orders cannot oversell.
+     *
+     * @param inventory
+     *            inventory to take from
+     * @param r
+     *            recipe to make
+     * @return true if recipe is made.
+     * @throws IllegalStateException
+     *             if the inventory could not be updated in the database
+     */
+    boolean useIngredients ( Inventory inventory, Recipe r ) throws IllegalStateException;
+
+    /**
+     * Removes the ingredients for several recipes in one atomic pass and
+     * updates the DB once. In all-or-nothing mode either every recipe is made
+     * or none is; otherwise each recipe is made if the ingredients left after
+     * the earlier ones cover it.
+     *
+     * @param inventory
+     *            inventory to take from
+     * @param recipes
+     *            recipes to make, in order
+     * @param allOrNothing
+     *            true to make every recipe or none of them
+     * @return for each recipe, true if it is made
+     * @throws IllegalStateException
+     *             if the inventory could not be updated in the database
+     */
+    boolean[] useIngredients ( Inventory inventory, List<Recipe> recipes, boolean allOrNothing )
+            throws IllegalStateException;
+
+    /**
+     * Adds ingredients to the inventory.
+     *
+     * @param inventory
+     *            inventory to add to
+     * @param amounts
+     *            amounts to add, indexed by ingredient; none negative
+     * @throws IllegalStateException
+     *             if the inventory could not be updated in the database
+     */
+    void addIngredients ( Inventory inventory, int[] amounts ) throws IllegalStateException;
+
+    /**
+     * Replaces all four amounts in the inventory in one step and saves them.
+     * Readers see either the old amounts or the new ones, never a mix.
+     *
+     * @param inventory
+     *            inventory to change
+     * @param amounts
+     *            new amounts, indexed by ingredient; none negative
+     * @throws IllegalStateException
+     *             if the inventory could not be updated in the database
+     */
+    void setIngredients ( Inventory inventory, int[] amounts ) throws IllegalStateException;
+
+    /**
+     * Waits until every change made so far has been saved. Returns at once if
+     * changes are saved before they return.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    void flush () throws InterruptedException;
+}
@@ -0,0 +1,317 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import org.hibernate.Session;
+import org.hibernate.StaleStateException;
+
+import edu.ncsu.csc.coffee_maker.models.IngredientLedger;
+import edu.ncsu.csc.coffee_maker.util.CoffeeMakerMetrics;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * Reads and writes of the inventory table that every persistence strategy
+ * shares. The current inventory is the row with the lowest ID: the first one
+ * created. Rows inserted after it, e.g. by instances that found the table
+ * empty at the same time, are never read and are removed by
+ * {@link #compactHistory()}.
+ *
+ * @author sbutler2901
+ */
+public final class InventoryRows {
+
+    /** Span of row IDs deleted per transaction when compacting */
+    private static final int COMPACTION_CHUNK = 10000;
+
+    /** ID of the row holding the current inventory, once known */
+    private static volatile Long currentRowId;
+
+    /**
+     * Not instantiated.
+     */
+    private InventoryRows () {
+    }
+
+    /**
+     * Returns the ID of the row holding the current inventory, if it is known.
+     *
+     * @return row ID, or null
+     */
+    static Long currentRowId () {
+        return currentRowId;
+    }
+
+    /**
+     * Reads the current inventory in a transaction of its own.
+     *
+     * @return the current inventory, or null if there is none
+     */
+    static Inventory readCurrent () {
+        final long start = System.nanoTime();
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.beginTransaction();
+            final Inventory current = loadCurrent( session );
+            session.getTransaction().commit();
+            return current;
+        }
+        finally {
+            session.close();
+            CoffeeMakerMetrics.db( CoffeeMakerMetrics.INVENTORY_PULL, start );
+        }
+    }
+
+    /**
+     * Reads the row holding the current inventory.
+     *
+     * @param session
+     *            session to read with, in a transaction
+     * @return the current inventory, or null if there is none
+     */
+    static Inventory loadCurrent ( final Session session ) {
+        Inventory current = null;
+        final Long rowId = currentRowId;
+        if ( rowId != null ) {
+            // The current inventory is kept in a single row; look it up by key
+            current = session.get( Inventory.class, rowId );
+        }
+        if ( current == null ) {
+            // Not known yet (or removed)
+            final Long first = firstRowId( session );
+            if ( first != null ) {
+                current = session.get( Inventory.class, first );
+                currentRowId = first;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the ID of the first inventory row, which holds the current
+     * inventory.
+     *
+     * @param session
+     *            session to read with, in a transaction
+     * @return lowest row ID, or null if the table is empty
+     */
+    private static Long firstRowId ( final Session session ) {
+        return (Long) session.createQuery( "select min(id) from Inventory" ).uniqueResult();
+    }
+
+    /**
+     * Writes a snapshot to the current inventory row, creating the row if
+     * there is none yet.
+     *
+     * @param snapshot
+     *            amounts to save, with the ID of the current row (if known)
+     */
+    static void write ( final Inventory snapshot ) {
+        if ( snapshot.getId() != null ) {
+            final Session session = HibernateUtil.getSessionFactory().openSession();
+            try {
+                session.beginTransaction();
+                session.update( snapshot );
+                session.getTransaction().commit();
+                return;
+            }
+            catch ( final StaleStateException e ) {
+                // The row was removed behind our back; start a new one
+                session.getTransaction().rollback();
+            }
+            finally {
+                session.close();
+            }
+        }
+
+        synchronized ( InventoryRows.class ) {
+            snapshot.setId( null );
+            final Session session = HibernateUtil.getSessionFactory().openSession();
+            session.beginTransaction();
+            session.save( snapshot );
+            session.getTransaction().commit();
+            session.close();
+            currentRowId = snapshot.getId();
+        }
+    }
+
+    /**
+     * Creates the inventory row for shared updates in an empty table. Other
+     * instances may find the table empty at the same time and insert a row
+     * too, so the row inserted here is not trusted as current: as everywhere
+     * else, the one with the lowest ID is, and everyone agrees on it. The row
+     * inserted here is removed again if it is not that one (unless an update
+     * has already been made to it).
+     *
+     * @return ID of the current row
+     */
+    static long createSharedRow () {
+        final Inventory empty = new Inventory();
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.beginTransaction();
+            session.save( empty );
+            session.getTransaction().commit();
+        }
+        finally {
+            session.close();
+        }
+
+        session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.beginTransaction();
+            final Long first = firstRowId( session );
+            if ( !empty.getId().equals( first ) ) {
+                // Another instance got there first; ours was never current
+                session.createQuery( "delete from Inventory where id = :id and rowVersion = 0" )
+                        .setParameter( "id", empty.getId() ).executeUpdate();
+            }
+            session.getTransaction().commit();
+            currentRowId = first;
+            return first;
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Returns the ID of the row holding the current inventory, looking it up
+     * (or creating an empty one) if it is not known yet.
+     *
+     * @return ID of the current row
+     */
+    static long currentRow () {
+        final Long known = currentRowId;
+        if ( known != null ) {
+            return known;
+        }
+        final Inventory current = readCurrent();
+        if ( current != null ) {
+            return current.getId();
+        }
+        return createSharedRow();
+    }
+
+    /**
+     * Saves new amounts to an inventory row if its version is still the one
+     * expected, bumping the version.
+     *
+     * @param rowId
+     *            ID of the row
+     * @param expected
+     *            version the row must have
+     * @param amounts
+     *            amounts to save, indexed by ingredient
+     * @return true if the row was updated
+     */
+    static boolean compareAndSet ( final long rowId, final long expected, final int[] amounts ) {
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.beginTransaction();
+            final int updated = session
+                    .createQuery( "update Inventory set coffee = :coffee, milk = :milk, sugar = :sugar, "
+                            + "chocolate = :chocolate, rowVersion = rowVersion + 1 "
+                            + "where id = :id and rowVersion = :version" )
+                    .setParameter( "coffee", amounts[IngredientLedger.COFFEE] )
+                    .setParameter( "milk", amounts[IngredientLedger.MILK] )
+                    .setParameter( "sugar", amounts[IngredientLedger.SUGAR] )
+                    .setParameter( "chocolate", amounts[IngredientLedger.CHOCOLATE] ).setParameter( "id", rowId )
+                    .setParameter( "version", expected ).executeUpdate();
+            session.getTransaction().commit();
+            return updated == 1;
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Runs an UPDATE of the current inventory row. An UPDATE that matches no
+     * row either found its condition false or missed the row altogether,
+     * because the ID known for it is out of date; the two are told apart by
+     * checking that the row is still there. If it is not, the current row is
+     * looked up again and the UPDATE is retried once.
+     *
+     * @param update
+     *            HQL update, with parameters for the ID and each ingredient
+     * @param amounts
+     *            amounts to bind to the ingredient parameters
+     * @return true if the row was updated, false if its condition was false
+     * @throws IllegalStateException
+     *             if the row is still missing when retried
+     */
+    static boolean updateCurrentRow ( final String update, final int[] amounts ) throws IllegalStateException {
+        for ( int attempt = 1;; attempt++ ) {
+            final long rowId = currentRow();
+            final Session session = HibernateUtil.getSessionFactory().openSession();
+            final boolean missing;
+            try {
+                session.beginTransaction();
+                final int updated = session.createQuery( update )
+                        .setParameter( "coffee", amounts[IngredientLedger.COFFEE] )
+                        .setParameter( "milk", amounts[IngredientLedger.MILK] )
+                        .setParameter( "sugar", amounts[IngredientLedger.SUGAR] )
+                        .setParameter( "chocolate", amounts[IngredientLedger.CHOCOLATE] )
+                        .setParameter( "id", rowId ).executeUpdate();
+                missing = updated == 0 && session.get( Inventory.class, rowId ) == null;
+                session.getTransaction().commit();
+                if ( !missing ) {
+                    return updated == 1;
+                }
+            }
+            finally {
+                session.close();
+            }
+
+            if ( attempt > 1 ) {
+                throw new IllegalStateException( "Inventory row " + rowId + " is missing" );
+            }
+            // Forget the stale ID and look the current row up again
+            currentRowId = null;
+        }
+    }
+
+    /**
+     * Deletes every inventory row but the current one: history left behind by
+     * versions that appended a row per change, and rows inserted by instances
+     * that lost the race to create the first row. Rows are removed in chunks
+     * of consecutive IDs so that a large backlog does not hold locks on the
+     * table for long. Each chunk checks, in its own transaction, that the
+     * current row is still there and never deletes it.
+     *
+     * @return number of rows deleted
+     */
+    public static int compactHistory () {
+        int total = 0;
+        while ( true ) {
+            final Session session = HibernateUtil.getSessionFactory().openSession();
+            try {
+                session.beginTransaction();
+                final Long rowId = currentRowId;
+                if ( rowId == null || session.get( Inventory.class, rowId ) == null ) {
+                    // Nothing is known to be current; keep everything
+                    session.getTransaction().commit();
+                    return total;
+                }
+                final Long oldest = (Long) session.createQuery( "select min(id) from Inventory where id <> :id" )
+                        .setParameter( "id", rowId ).uniqueResult();
+                if ( oldest == null ) {
+                    session.getTransaction().commit();
+                    return total;
+                }
+                total += session
+                        .createQuery( "delete from Inventory where id >= :start and id < :end and id <> :id" )
+                        .setParameter( "start", oldest ).setParameter( "end", oldest + COMPACTION_CHUNK )
+                        .setParameter( "id", rowId ).executeUpdate();
+                session.getTransaction().commit();
+            }
+            catch ( final RuntimeException e ) {
+                if ( session.getTransaction().isActive() ) {
+                    session.getTransaction().rollback();
+                }
+                throw e;
+            }
+            finally {
+                session.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import edu.ncsu.csc.coffee_maker.models.IngredientLedger;
+import edu.ncsu.csc.coffee_maker.models.InventoryJournal;
+import edu.ncsu.csc.coffee_maker.util.WriteBehindQueue;
+
+/**
+ * Logs every change to a local write-ahead journal before it is applied. The
+ * database is then updated in the background, and changes it never got are
+ * replayed from the journal on the next start. Each saved row records the
+ * last journal record it includes, and journal records are acknowledged once
+ * the row holding them has committed. Journaled changes hold the ledger's
+ * lock, so that the journal's order matches the ledger's.
+ *
+ * @author sbutler2901
+ */
+public class JournaledInventoryPersistence extends QueuedInventoryPersistence {
+
+    /** Journal the changes are logged to */
+    private final InventoryJournal journal;
+
+    /** Longest an order waits for its batch to commit, in ms; 0 not to wait */
+    private final long             commitTimeout;
+
+    /**
+     * Creates the mode.
+     *
+     * @param journal
+     *            journal to log changes to
+     * @param writer
+     *            queue that writes the changes
+     * @param commitTimeout
+     *            with group commit, longest an order waits for its batch to
+     *            commit, in ms; 0 to return once the change is journaled
+     */
+    public JournaledInventoryPersistence ( final InventoryJournal journal, final WriteBehindQueue writer,
+            final long commitTimeout ) {
+        super( writer );
+        this.journal = journal;
+        this.commitTimeout = commitTimeout;
+    }
+
+    @Override
+    public int replayJournal ( final Inventory inventory ) {
+        // Anything the database already includes needs no replaying
+        journal.acknowledge( inventory.getJournalSequence() );
+        final List<InventoryJournal.Record> records = journal.recordsAfter( journal.getAcknowledged() );
+        if ( records.isEmpty() ) {
+            // Keep new sequence numbers ahead of the database's
+            journal.restartAfter( inventory.getJournalSequence() );
+            return 0;
+        }
+        synchronized ( inventory.ledger() ) {
+            for ( final InventoryJournal.Record record : records ) {
+                record.applyTo( inventory.ledger() );
+            }
+        }
+        save( inventory );
+        return records.size();
+    }
+
+    @Override
+    protected boolean reserve ( final Inventory inventory, final Recipe r, final int[] amounts ) {
+        final IngredientLedger ledger = inventory.ledger();
+        synchronized ( ledger ) {
+            if ( !ledger.reserve( amounts ) ) {
+                return false;
+            }
+            journal( ledger, InventoryJournal.USE, r, amounts );
+            return true;
+        }
+    }
+
+    @Override
+    protected boolean[] reserveEach ( final Inventory inventory, final List<Recipe> recipes,
+            final boolean allOrNothing, final int[][] amounts ) {
+        final IngredientLedger ledger = inventory.ledger();
+        synchronized ( ledger ) {
+            final boolean[] made = ledger.reserveEach( allOrNothing, amounts );
+            for ( int i = 0; i < made.length; i++ ) {
+                if ( made[i] ) {
+                    journal( ledger, InventoryJournal.USE, recipes.get( i ), amounts[i] );
+                }
+            }
+            return made;
+        }
+    }
+
+    @Override
+    protected void add ( final Inventory inventory, final int[] amounts ) {
+        final IngredientLedger ledger = inventory.ledger();
+        synchronized ( ledger ) {
+            ledger.add( amounts );
+            journal( ledger, InventoryJournal.ADD, null, amounts );
+        }
+    }
+
+    @Override
+    protected void set ( final Inventory inventory, final int[] amounts ) {
+        final IngredientLedger ledger = inventory.ledger();
+        synchronized ( ledger ) {
+            ledger.setAll( amounts );
+            journal.append( InventoryJournal.SET, 0, ledger.snapshot() );
+        }
+    }
+
+    /**
+     * Appends a record to the journal, undoing the ledger change it describes
+     * if the journal cannot take it. The caller holds the ledger's lock.
+     *
+     * @param ledger
+     *            ledger the change was made to
+     * @param op
+     *            USE or ADD
+     * @param r
+     *            recipe the change was for, or null
+     * @param amounts
+     *            amounts, indexed by ingredient
+     */
+    private void journal ( final IngredientLedger ledger, final int op, final Recipe r, final int[] amounts ) {
+        try {
+            journal.append( op, null == r || null == r.getId() ? 0 : r.getId(), amounts );
+        }
+        catch ( final RuntimeException e ) {
+            if ( op == InventoryJournal.USE ) {
+                ledger.add( amounts );
+            }
+            else {
+                ledger.take( amounts );
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    protected Inventory snapshot ( final Inventory inventory ) {
+        // Journaled changes are made under the same lock, so the snapshot
+        // includes exactly the records up to this one
+        final Inventory snapshot = super.snapshot( inventory );
+        snapshot.setJournalSequence( journal.lastSequence() );
+        return snapshot;
+    }
+
+    @Override
+    protected CompletableFuture<Void> queue ( final Inventory snapshot ) throws IllegalStateException {
+        return writer().submit( snapshot );
+    }
+
+    @Override
+    protected void written ( final Inventory snapshot ) {
+        journal.acknowledge( snapshot.getJournalSequence() );
+    }
+
+    @Override
+    protected void queued ( final Inventory snapshot, final CompletableFuture<Void> committed )
+            throws IllegalStateException {
+        committed.thenRun( new Runnable() {
+            @Override
+            public void run () {
+                journal.acknowledge( snapshot.getJournalSequence() );
+            }
+        } );
+        if ( commitTimeout > 0 ) {
+            GroupCommitInventoryPersistence.awaitCommit( committed, commitTimeout );
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import java.util.concurrent.CompletableFuture;
+
+import edu.ncsu.csc.coffee_maker.util.CoffeeMakerMetrics;
+import edu.ncsu.csc.coffee_maker.util.WriteBehindQueue;
+
+/**
+ * Base of the modes that save the inventory through a write-behind queue:
+ * snapshots of the amounts are queued under the ledger's lock, so that they
+ * are written in the same order as the states they record, and a background
+ * writer saves them in batches. The very first save, made before the
+ * inventory row exists, is written directly so that the row is created once.
+ *
+ * @author sbutler2901
+ */
+abstract class QueuedInventoryPersistence extends DirectInventoryPersistence {
+
+    /** Writes the queued snapshots */
+    private final WriteBehindQueue writer;
+
+    /**
+     * Creates the mode.
+     *
+     * @param writer
+     *            queue that writes the snapshots
+     */
+    QueuedInventoryPersistence ( final WriteBehindQueue writer ) {
+        this.writer = writer;
+    }
+
+    /**
+     * Returns the queue that writes the snapshots.
+     *
+     * @return the write-behind queue
+     */
+    protected final WriteBehindQueue writer () {
+        return writer;
+    }
+
+    @Override
+    public void flush () throws InterruptedException {
+        writer.flush();
+    }
+
+    @Override
+    protected void save ( final Inventory inventory ) throws IllegalStateException {
+        final long start = System.nanoTime();
+        try {
+            final Inventory snapshot;
+            final long order;
+            final CompletableFuture<Void> committed;
+            final long waitStart = System.nanoTime();
+            synchronized ( inventory.ledger() ) {
+                CoffeeMakerMetrics.lockWait( waitStart );
+                snapshot = snapshot( inventory );
+                if ( snapshot.getId() == null ) {
+                    order = nextOrder();
+                    committed = null;
+                }
+                else {
+                    order = 0;
+                    committed = queue( snapshot );
+                }
+            }
+
+            if ( order != 0 ) {
+                writeInOrder( snapshot, order );
+                written( snapshot );
+            }
+            else if ( committed != null ) {
+                // Outside the lock, so that other orders can join the batch
+                queued( snapshot, committed );
+            }
+        }
+        finally {
+            CoffeeMakerMetrics.db( CoffeeMakerMetrics.INVENTORY_PUSH, start );
+        }
+    }
+
+    /**
+     * Hands a snapshot to the queue. The caller holds the ledger's lock.
+     *
+     * @param snapshot
+     *            amounts to save
+     * @return future completed once the snapshot has been committed, or null
+     *         if nothing waits for it
+     * @throws IllegalStateException
+     *             if the queue refuses the snapshot
+     */
+    protected abstract CompletableFuture<Void> queue ( Inventory snapshot ) throws IllegalStateException;
+
+    /**
+     * Called once a snapshot that was written directly is committed.
+     *
+     * @param snapshot
+     *            amounts saved
+     */
+    protected void written ( final Inventory snapshot ) {
+        // Nothing to do by default
+    }
+
+    /**
+     * Called, without the ledger's lock, once a snapshot has been queued.
+     *
+     * @param snapshot
+     *            amounts queued
+     * @param committed
+     *            future completed once the snapshot has been committed
+     * @throws IllegalStateException
+     *             if the snapshot was not saved
+     */
+    protected void queued ( final Inventory snapshot, final CompletableFuture<Void> committed )
+            throws IllegalStateException {
+        // Nothing to do by default
+    }
+}
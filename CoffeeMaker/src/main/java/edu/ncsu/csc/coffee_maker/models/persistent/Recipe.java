@@ -1,5 +1,6 @@
 package edu.ncsu.csc.coffee_maker.models.persistent;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
@@ -7,11 +8,16 @@ import javax.persistence.Table;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.GenericGenerator;
 
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
 /**
  * Recipe for the coffee maker. Recipe is tied to the database using Hibernate
- * libraries.
+ * libraries. Recipes are read far more often than they change, so they are
+ * kept in the second-level cache.
  *
  * @author Sarah Heckman
  * @author Kai Presler-Marshall
@@ -19,6 +25,8 @@ import org.hibernate.annotations.GenericGenerator;
  */
 @Entity
 @Table ( name = "recipes" )
+@Cacheable
+@Cache ( usage = CacheConcurrencyStrategy.READ_WRITE, region = HibernateUtil.RECIPE_REGION )
 public class Recipe {
 
     private Long    id;
@@ -54,6 +62,23 @@ public class Recipe {
         this.chocolate = 0;
     }
 
+    /**
+     * Creates a copy of a recipe, with the same ID, so that it can be changed
+     * and saved without touching the original.
+     *
+     * @param r
+     *            recipe to copy
+     */
+    public Recipe ( final Recipe r ) {
+        this.id = r.id;
+        this.name = r.name;
+        this.price = r.price;
+        this.coffee = r.coffee;
+        this.milk = r.milk;
+        this.sugar = r.sugar;
+        this.chocolate = r.chocolate;
+    }
+
     /**
      * Get the ID of the Recipe
      *
@@ -0,0 +1,169 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import org.hibernate.Session;
+
+import edu.ncsu.csc.coffee_maker.models.IngredientLedger;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * For several instances of the application sharing one database. The
+ * database is then the source of truth: every change is a version-checked
+ * update of the inventory row, retried if another instance got there first,
+ * and the in-memory amounts are what this instance last read or wrote.
+ *
+ * @author sbutler2901
+ */
+public class SharedInventoryPersistence implements InventoryPersistence {
+
+    /** Maximum attempts at an update before giving up */
+    private final int maxAttempts;
+
+    /**
+     * Creates the mode.
+     *
+     * @param maxAttempts
+     *            maximum attempts at an update before giving up
+     */
+    public SharedInventoryPersistence ( final int maxAttempts ) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Override
+    public boolean load ( final Inventory inventory ) {
+        final Inventory current = InventoryRows.readCurrent();
+        if ( current != null ) {
+            inventory.ledger().setAll( current.ledger().snapshot() );
+            return true;
+        }
+        // No row yet; create an empty one
+        setIngredients( inventory, new int[IngredientLedger.INGREDIENTS] );
+        return false;
+    }
+
+    @Override
+    public int replayJournal ( final Inventory inventory ) {
+        return 0;
+    }
+
+    @Override
+    public boolean useIngredients ( final Inventory inventory, final Recipe r ) throws IllegalStateException {
+        return updateShared( inventory, new Function<IngredientLedger, Boolean>() {
+            @Override
+            public Boolean apply ( final IngredientLedger levels ) {
+                return levels.reserve( r.getCoffee(), r.getMilk(), r.getSugar(), r.getChocolate() );
+            }
+        } );
+    }
+
+    @Override
+    public boolean[] useIngredients ( final Inventory inventory, final List<Recipe> recipes,
+            final boolean allOrNothing ) throws IllegalStateException {
+        final int[][] amounts = new int[recipes.size()][];
+        for ( int i = 0; i < amounts.length; i++ ) {
+            final Recipe r = recipes.get( i );
+            amounts[i] = new int[] { r.getCoffee(), r.getMilk(), r.getSugar(), r.getChocolate() };
+        }
+        return updateShared( inventory, new Function<IngredientLedger, boolean[]>() {
+            @Override
+            public boolean[] apply ( final IngredientLedger levels ) {
+                return levels.reserveEach( allOrNothing, amounts );
+            }
+        } );
+    }
+
+    @Override
+    public void addIngredients ( final Inventory inventory, final int[] amounts ) throws IllegalStateException {
+        updateShared( inventory, new Function<IngredientLedger, Void>() {
+            @Override
+            public Void apply ( final IngredientLedger levels ) {
+                levels.add( amounts );
+                return null;
+            }
+        } );
+    }
+
+    @Override
+    public void setIngredients ( final Inventory inventory, final int[] amounts ) throws IllegalStateException {
+        updateShared( inventory, new Function<IngredientLedger, Void>() {
+            @Override
+            public Void apply ( final IngredientLedger levels ) {
+                levels.setAll( amounts );
+                return null;
+            }
+        } );
+    }
+
+    @Override
+    public void flush () throws InterruptedException {
+        // Every change is made in the database before it returns
+    }
+
+    /**
+     * Applies a change to the inventory row with optimistic concurrency. The
+     * change is worked out from the row as it is in the database and saved
+     * only if the row's version has not moved on in the meantime; otherwise
+     * it is tried again from the new state, after a short random pause. On
+     * success the in-memory amounts are set to what was saved.
+     *
+     * @param inventory
+     *            in-memory inventory to update
+     * @param change
+     *            change to make; applied to a scratch copy of the row's
+     *            amounts, perhaps several times, so it must have no other
+     *            effects
+     * @param <T>
+     *            result of the change
+     * @return result of the successful attempt
+     * @throws IllegalStateException
+     *             if every attempt conflicted with another instance
+     */
+    private <T> T updateShared ( final Inventory inventory, final Function<IngredientLedger, T> change )
+            throws IllegalStateException {
+        for ( int attempt = 1;; attempt++ ) {
+            final Session session = HibernateUtil.getSessionFactory().openSession();
+            final Inventory row;
+            try {
+                session.beginTransaction();
+                row = InventoryRows.loadCurrent( session );
+                session.getTransaction().commit();
+            }
+            finally {
+                session.close();
+            }
+            if ( row == null ) {
+                // No row yet; create an empty one and try again
+                InventoryRows.createSharedRow();
+                continue;
+            }
+
+            final IngredientLedger next = new IngredientLedger();
+            next.setAll( row.ledger().snapshot() );
+            final long unchanged = next.getVersion();
+            final T result = change.apply( next );
+            if ( next.getVersion() == unchanged ) {
+                // Nothing to save, e.g. not enough ingredients
+                inventory.ledger().setAll( next.snapshot() );
+                return result;
+            }
+            if ( InventoryRows.compareAndSet( row.getId(), row.getRowVersion(), next.snapshot() ) ) {
+                inventory.ledger().setAll( next.snapshot() );
+                return result;
+            }
+
+            if ( attempt >= maxAttempts ) {
+                throw new IllegalStateException( "Inventory update conflicted " + attempt + " times; giving up" );
+            }
+            try {
+                Thread.sleep( ThreadLocalRandom.current().nextInt( Math.min( attempt, 10 ) + 1 ) );
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException( "Interrupted while updating inventory", e );
+            }
+        }
+    }
+}
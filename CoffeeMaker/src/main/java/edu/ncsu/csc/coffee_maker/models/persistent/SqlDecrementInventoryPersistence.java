@@ -0,0 +1,76 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+/**
+ * Makes each purchase a single conditional UPDATE that checks and takes the
+ * ingredients in the database, in one round trip and without a Java-side
+ * lock. Restocks are likewise a single UPDATE. The database is the source of
+ * truth, as for {@link SharedInventoryPersistence}, whose version-checked
+ * updates are still used for batches and for replacing the amounts: several
+ * lines don't fit one conditional UPDATE.
+ *
+ * @author sbutler2901
+ */
+public class SqlDecrementInventoryPersistence extends SharedInventoryPersistence {
+
+    /**
+     * Creates the mode.
+     *
+     * @param maxAttempts
+     *            maximum attempts at a version-checked update before giving up
+     */
+    public SqlDecrementInventoryPersistence ( final int maxAttempts ) {
+        super( maxAttempts );
+    }
+
+    @Override
+    public boolean useIngredients ( final Inventory inventory, final Recipe r ) throws IllegalStateException {
+        final int[] amounts = { r.getCoffee(), r.getMilk(), r.getSugar(), r.getChocolate() };
+        if ( decrement( amounts ) ) {
+            // Keep the in-memory amounts close; the database decided
+            inventory.ledger().take( amounts );
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void addIngredients ( final Inventory inventory, final int[] amounts ) throws IllegalStateException {
+        // The in-memory amounts only follow a change the database made
+        increment( amounts );
+        inventory.ledger().add( amounts );
+    }
+
+    /**
+     * Takes amounts from the inventory row with one conditional UPDATE, which
+     * only matches if there is enough of every ingredient. The row's version
+     * is bumped so that version-checked updates notice the change.
+     *
+     * @param amounts
+     *            amounts to take, indexed by ingredient
+     * @return true if the amounts were taken, false if there was not enough
+     * @throws IllegalStateException
+     *             if the inventory row cannot be found
+     */
+    private static boolean decrement ( final int[] amounts ) throws IllegalStateException {
+        return InventoryRows.updateCurrentRow( "update Inventory set coffee = coffee - :coffee, milk = milk - :milk, "
+                + "sugar = sugar - :sugar, chocolate = chocolate - :chocolate, "
+                + "rowVersion = rowVersion + 1 where id = :id and coffee >= :coffee "
+                + "and milk >= :milk and sugar >= :sugar and chocolate >= :chocolate", amounts );
+    }
+
+    /**
+     * Adds amounts to the inventory row with one UPDATE, bumping its version.
+     *
+     * @param amounts
+     *            amounts to add, indexed by ingredient
+     * @throws IllegalStateException
+     *             if the inventory row cannot be found
+     */
+    private static void increment ( final int[] amounts ) throws IllegalStateException {
+        if ( !InventoryRows.updateCurrentRow( "update Inventory set coffee = coffee + :coffee, milk = milk + :milk, "
+                + "sugar = sugar + :sugar, chocolate = chocolate + :chocolate, "
+                + "rowVersion = rowVersion + 1 where id = :id", amounts ) ) {
+            throw new IllegalStateException( "Inventory row was not updated" );
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import java.util.concurrent.CompletableFuture;
+
+import edu.ncsu.csc.coffee_maker.util.WriteBehindQueue;
+
+/**
+ * Writes changes to the database asynchronously instead of on every order: a
+ * copy of the amounts is queued and the order returns without waiting for the
+ * database. Changes still queued when the process dies are lost.
+ *
+ * @author sbutler2901
+ */
+public class WriteBehindInventoryPersistence extends QueuedInventoryPersistence {
+
+    /**
+     * Creates the mode.
+     *
+     * @param queue
+     *            queue that writes the changes
+     */
+    public WriteBehindInventoryPersistence ( final WriteBehindQueue queue ) {
+        super( queue );
+    }
+
+    @Override
+    protected CompletableFuture<Void> queue ( final Inventory snapshot ) throws IllegalStateException {
+        writer().enqueue( snapshot );
+        return null;
+    }
+}
@@ -0,0 +1,545 @@
+package edu.ncsu.csc.coffee_maker.services;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import edu.ncsu.csc.coffee_maker.models.persistent.IdempotencyRecord;
+
+/**
+ * Service that remembers the outcome of requests made with an
+ * Idempotency-Key, so that a client retrying after a timeout gets the
+ * original answer instead of having the request carried out again. A retry
+ * that arrives while the first attempt is still running waits for its
+ * outcome. A key reused for a different request is refused with 422
+ * Unprocessable Entity. Replayed responses carry the header
+ * Idempotent-Replayed: true.
+ *
+ * Outcomes are kept for a limited time and number. Requests that were not
+ * carried out (refused with 429, or failed with a server error) are
+ * forgotten, so that they can be retried.
+ *
+ * The keys are split between stripes, each a small first-in, first-out map
+ * with its own lock, so requests with different keys rarely wait for each
+ * other. Within a stripe, entries stay in the order they were added; a hit
+ * does not move them, as with a single time-to-live that is also the order
+ * they expire in. A full stripe drops its oldest completed entry, however
+ * recently it was used; entries for requests still running are kept, so that
+ * a retry never starts a second attempt while the first is running.
+ *
+ * With persistence on, each key is also saved to the database before the
+ * request is carried out, and its outcome afterwards. Instances sharing the
+ * database then answer each other's retries, and retries are still answered
+ * after a restart. A retry that reaches another instance while the request is
+ * still running there is refused with 409 Conflict. A key whose request has
+ * had no outcome saved for longer than the claim timeout (its instance died,
+ * or could not save it) is taken over and the request carried out again.
+ *
+ * Settings (Spring properties):
+ * <ul>
+ * <li>coffeemaker.idempotency.ttl: seconds an outcome is kept (3600)</li>
+ * <li>coffeemaker.idempotency.maxEntries: outcomes kept in memory
+ * (100000)</li>
+ * <li>coffeemaker.idempotency.stripes: number of stripes, rounded up to a
+ * power of two (16)</li>
+ * <li>coffeemaker.idempotency.persistent: also keep outcomes in the database
+ * (false)</li>
+ * <li>coffeemaker.idempotency.claimTimeout: seconds a key saved without an
+ * outcome blocks retries before another attempt may take it over (60)</li>
+ * </ul>
+ *
+ * @author sbutler2901
+ */
+@Service ( "idempotencyCache" )
+public class IdempotencyCache {
+
+    /** Logger for this class */
+    private static final Logger      LOG      = LoggerFactory.getLogger( IdempotencyCache.class );
+
+    /** Header marking a response as the replay of an earlier one */
+    static final String              REPLAYED = "Idempotent-Replayed";
+
+    /** Seconds an outcome is kept */
+    @Value ( "${coffeemaker.idempotency.ttl:3600}" )
+    private long                     ttl;
+
+    /** Outcomes kept in memory */
+    @Value ( "${coffeemaker.idempotency.maxEntries:100000}" )
+    private int                      maxEntries;
+
+    /** Number of stripes */
+    @Value ( "${coffeemaker.idempotency.stripes:16}" )
+    private int                      stripeCount;
+
+    /** Whether outcomes are also kept in the database */
+    @Value ( "${coffeemaker.idempotency.persistent:false}" )
+    private boolean                  persistent;
+
+    /** Seconds a key without an outcome blocks retries */
+    @Value ( "${coffeemaker.idempotency.claimTimeout:60}" )
+    private long                     claimTimeout;
+
+    /** The stripes */
+    private Stripe[]                 stripes;
+
+    /** Mask that picks a stripe from a hash */
+    private int                      mask;
+
+    /** Removes expired keys from the database, if persistence is on */
+    private ScheduledExecutorService purger;
+
+    /**
+     * Creates the stripes and, with persistence on, starts removing expired
+     * keys from the database.
+     */
+    @PostConstruct
+    public void start () {
+        int count = 1;
+        while ( count < stripeCount ) {
+            count <<= 1;
+        }
+        stripes = new Stripe[count];
+        mask = count - 1;
+        final int perStripe = Math.max( 1, ( maxEntries + count - 1 ) / count );
+        for ( int i = 0; i < count; i++ ) {
+            stripes[i] = new Stripe( perStripe );
+        }
+
+        if ( persistent ) {
+            purger = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+                @Override
+                public Thread newThread ( final Runnable r ) {
+                    final Thread t = new Thread( r, "idempotency-purger" );
+                    t.setDaemon( true );
+                    return t;
+                }
+            } );
+            purger.scheduleWithFixedDelay( new Runnable() {
+                @Override
+                public void run () {
+                    try {
+                        final int removed = IdempotencyRecord.purge( System.currentTimeMillis() );
+                        LOG.debug( "Removed {} expired idempotency keys", removed );
+                    }
+                    catch ( final RuntimeException e ) {
+                        LOG.warn( "Could not remove expired idempotency keys", e );
+                    }
+                }
+            }, ttl, ttl, TimeUnit.SECONDS );
+        }
+    }
+
+    /**
+     * Stops removing expired keys from the database.
+     */
+    @PreDestroy
+    public void stop () {
+        if ( purger != null ) {
+            purger.shutdownNow();
+        }
+    }
+
+    /**
+     * Carries out a request once per idempotency key. The first request with
+     * a key is carried out; later ones with the same key get its outcome.
+     *
+     * @param key
+     *            the idempotency key
+     * @param fingerprint
+     *            what the request asks for; a key may only be reused for the
+     *            same fingerprint
+     * @param action
+     *            carries out the request
+     * @return the response, original or replayed
+     */
+    public CompletableFuture<ResponseEntity< ? >> execute ( final String key, final String fingerprint,
+            final Supplier<CompletableFuture<ResponseEntity< ? >>> action ) {
+        if ( key.length() > IdempotencyRecord.MAX_KEY_LENGTH ) {
+            return CompletableFuture.<ResponseEntity< ? >> completedFuture( new ResponseEntity<String>(
+                    "Idempotency-Key is longer than " + IdempotencyRecord.MAX_KEY_LENGTH + " characters",
+                    HttpStatus.BAD_REQUEST ) );
+        }
+
+        final long now = System.currentTimeMillis();
+        final Stripe stripe = stripeFor( key );
+        final Entry entry = new Entry( fingerprint, now + TimeUnit.SECONDS.toMillis( ttl ) );
+        final Entry existing;
+        synchronized ( stripe ) {
+            existing = stripe.find( key, now );
+            if ( existing == null ) {
+                stripe.put( key, entry );
+            }
+        }
+        if ( existing != null ) {
+            return replay( existing, fingerprint );
+        }
+
+        final IdempotencyRecord record = persistent ? new IdempotencyRecord( key, fingerprint, entry.expiresAt )
+                : null;
+        if ( persistent ) {
+            final ResponseEntity< ? > saved = claim( record );
+            if ( saved != null ) {
+                // Answered from the database rather than carried out here
+                if ( !saved.getHeaders().containsKey( REPLAYED ) ) {
+                    forget( stripe, key, entry );
+                }
+                entry.outcome.complete( saved );
+                return entry.outcome;
+            }
+        }
+
+        CompletableFuture<ResponseEntity< ? >> response;
+        try {
+            response = action.get();
+        }
+        catch ( final RuntimeException e ) {
+            response = new CompletableFuture<ResponseEntity< ? >>();
+            response.completeExceptionally( e );
+        }
+        response.whenComplete( new BiConsumer<ResponseEntity< ? >, Throwable>() {
+            @Override
+            public void accept ( final ResponseEntity< ? > result, final Throwable error ) {
+                if ( error != null ) {
+                    forget( stripe, key, entry );
+                    release( record );
+                    entry.outcome.completeExceptionally( error );
+                    return;
+                }
+                if ( isFinal( result ) ) {
+                    save( record, result );
+                }
+                else {
+                    forget( stripe, key, entry );
+                    release( record );
+                }
+                entry.outcome.complete( result );
+            }
+        } );
+        return response;
+    }
+
+    /**
+     * Returns the number of outcomes held in memory, including requests
+     * still being carried out and entries that have expired but not yet been
+     * removed.
+     *
+     * @return entries in memory
+     */
+    public int size () {
+        int size = 0;
+        for ( final Stripe stripe : stripes ) {
+            synchronized ( stripe ) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the stripe a key belongs to.
+     *
+     * @param key
+     *            the idempotency key
+     * @return its stripe
+     */
+    private Stripe stripeFor ( final String key ) {
+        final int h = key.hashCode();
+        return stripes[( h ^ ( h >>> 16 ) ) & mask];
+    }
+
+    /**
+     * Answers a retry with the outcome of the first request with its key.
+     *
+     * @param existing
+     *            entry for the first request
+     * @param fingerprint
+     *            what the retry asks for
+     * @return the replayed response
+     */
+    private static CompletableFuture<ResponseEntity< ? >> replay ( final Entry existing, final String fingerprint ) {
+        if ( !existing.fingerprint.equals( fingerprint ) ) {
+            return CompletableFuture.<ResponseEntity< ? >> completedFuture( mismatch() );
+        }
+        return existing.outcome.thenApply( new Function<ResponseEntity< ? >, ResponseEntity< ? >>() {
+            @Override
+            public ResponseEntity< ? > apply ( final ResponseEntity< ? > original ) {
+                return replayed( original.getBody(), original.getStatusCode() );
+            }
+        } );
+    }
+
+    /**
+     * Builds a replayed response.
+     *
+     * @param body
+     *            original body
+     * @param status
+     *            original status
+     * @return the response, marked as replayed
+     */
+    private static ResponseEntity< ? > replayed ( final Object body, final HttpStatus status ) {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set( REPLAYED, "true" );
+        return new ResponseEntity<Object>( body, headers, status );
+    }
+
+    /**
+     * Builds the response to a key reused for a different request.
+     *
+     * @return the response
+     */
+    private static ResponseEntity< ? > mismatch () {
+        return new ResponseEntity<String>( "Idempotency-Key was already used for a different request",
+                HttpStatus.UNPROCESSABLE_ENTITY );
+    }
+
+    /**
+     * Returns whether an outcome should be remembered: anything but a request
+     * that was refused for load or failed on the server, which a retry
+     * should try again.
+     *
+     * @param response
+     *            the outcome
+     * @return true to remember it
+     */
+    private static boolean isFinal ( final ResponseEntity< ? > response ) {
+        final HttpStatus status = response.getStatusCode();
+        return status != HttpStatus.TOO_MANY_REQUESTS && !status.is5xxServerError();
+    }
+
+    /**
+     * Removes an entry from memory, unless it has been replaced.
+     *
+     * @param stripe
+     *            its stripe
+     * @param key
+     *            the idempotency key
+     * @param entry
+     *            the entry to remove
+     */
+    private static void forget ( final Stripe stripe, final String key, final Entry entry ) {
+        synchronized ( stripe ) {
+            if ( stripe.get( key ) == entry ) {
+                stripe.remove( key );
+            }
+        }
+    }
+
+    /**
+     * Saves a key to the database before its request is carried out, or
+     * finds the outcome saved under it. A key saved without an outcome for
+     * longer than the claim timeout is taken over.
+     *
+     * @param record
+     *            record claiming the key for this request
+     * @return null if the key was saved and the request should be carried
+     *         out; otherwise the response to give instead
+     */
+    private ResponseEntity< ? > claim ( final IdempotencyRecord record ) {
+        final String key = record.getIdempotencyKey();
+        try {
+            for ( int attempt = 0; attempt < 3; attempt++ ) {
+                if ( IdempotencyRecord.claim( record ) ) {
+                    return null;
+                }
+                final IdempotencyRecord saved = IdempotencyRecord.find( key );
+                if ( saved == null ) {
+                    // Released in the meantime
+                    continue;
+                }
+                final long now = System.currentTimeMillis();
+                if ( saved.getExpiresAt() < now ) {
+                    IdempotencyRecord.release( key, saved.getOwner() );
+                    continue;
+                }
+                if ( !saved.getFingerprint().equals( record.getFingerprint() ) ) {
+                    return mismatch();
+                }
+                if ( saved.getStatus() == 0 ) {
+                    if ( now - saved.getClaimedAt() < TimeUnit.SECONDS.toMillis( claimTimeout ) ) {
+                        return new ResponseEntity<String>( "A request with this Idempotency-Key is in progress",
+                                HttpStatus.CONFLICT );
+                    }
+                    // No outcome will come: the instance that claimed the key
+                    // died or could not save it
+                    if ( IdempotencyRecord.takeOver( saved.getOwner(), record ) ) {
+                        LOG.warn( "Took over idempotency key {}, claimed {} ms ago without an outcome", key,
+                                now - saved.getClaimedAt() );
+                        return null;
+                    }
+                    continue;
+                }
+                return replayed( saved.getBody(), HttpStatus.valueOf( saved.getStatus() ) );
+            }
+        }
+        catch ( final RuntimeException e ) {
+            LOG.error( "Could not save idempotency key", e );
+        }
+        // Better to refuse than to risk carrying the request out twice
+        return new ResponseEntity<String>( "Could not record the Idempotency-Key; try again",
+                HttpStatus.SERVICE_UNAVAILABLE );
+    }
+
+    /**
+     * Saves the outcome of a request to the database, if persistence is on.
+     *
+     * @param record
+     *            record the key was claimed with, or null if persistence is
+     *            off
+     * @param response
+     *            the outcome
+     */
+    private void save ( final IdempotencyRecord record, final ResponseEntity< ? > response ) {
+        if ( !persistent ) {
+            return;
+        }
+        record.setStatus( response.getStatusCodeValue() );
+        record.setBody( response.getBody() == null ? null : response.getBody().toString() );
+        try {
+            if ( !IdempotencyRecord.complete( record ) ) {
+                LOG.warn( "Outcome for idempotency key {} not saved; the key was taken over",
+                        record.getIdempotencyKey() );
+            }
+        }
+        catch ( final RuntimeException e ) {
+            // Still answered from memory by this instance
+            LOG.error( "Could not save outcome for idempotency key", e );
+        }
+    }
+
+    /**
+     * Removes a key from the database, if persistence is on, so that the
+     * request can be retried.
+     *
+     * @param record
+     *            record the key was claimed with, or null if persistence is
+     *            off
+     */
+    private void release ( final IdempotencyRecord record ) {
+        if ( !persistent ) {
+            return;
+        }
+        try {
+            IdempotencyRecord.release( record.getIdempotencyKey(), record.getOwner() );
+        }
+        catch ( final RuntimeException e ) {
+            LOG.error( "Could not release idempotency key", e );
+        }
+    }
+
+    /**
+     * A request made with an idempotency key, and its outcome once known.
+     *
+     * @author sbutler2901
+     */
+    private static final class Entry {
+
+        /** What the request asked for */
+        private final String                                 fingerprint;
+
+        /** Time after which the entry no longer counts, in epoch milliseconds */
+        private final long                                   expiresAt;
+
+        /** The outcome */
+        private final CompletableFuture<ResponseEntity< ? >> outcome = new CompletableFuture<ResponseEntity< ? >>();
+
+        /**
+         * Creates an entry.
+         *
+         * @param fingerprint
+         *            what the request asked for
+         * @param expiresAt
+         *            epoch milliseconds after which the entry no longer counts
+         */
+        Entry ( final String fingerprint, final long expiresAt ) {
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * One stripe: entries in the order they were added (not the order they
+     * were last used), the oldest completed one dropped when it is full.
+     * Guarded by its own monitor.
+     *
+     * @author sbutler2901
+     */
+    private static final class Stripe extends LinkedHashMap<String, Entry> {
+
+        /** Serialization version */
+        private static final long serialVersionUID = 1L;
+
+        /** Most entries held */
+        private final int         capacity;
+
+        /**
+         * Creates a stripe.
+         *
+         * @param capacity
+         *            most entries held
+         */
+        Stripe ( final int capacity ) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Drops expired entries, then returns the one for a key.
+         *
+         * @param key
+         *            the idempotency key
+         * @param now
+         *            current time, in epoch milliseconds
+         * @return the entry, or null if there is none
+         */
+        Entry find ( final String key, final long now ) {
+            // Oldest first, so the expired ones are at the front
+            final Iterator<Entry> it = values().iterator();
+            while ( it.hasNext() && it.next().expiresAt <= now ) {
+                it.remove();
+            }
+            return get( key );
+        }
+
+        /**
+         * Drops the oldest completed entry once the stripe is over capacity.
+         * Entries for requests still running are skipped, so a stripe full of
+         * them grows past its capacity until they finish.
+         *
+         * @param eldest
+         *            oldest entry
+         * @return false; the entry is removed here, if at all
+         */
+        @Override
+        protected boolean removeEldestEntry ( final Map.Entry<String, Entry> eldest ) {
+            if ( size() > capacity ) {
+                final Iterator<Entry> it = values().iterator();
+                while ( it.hasNext() ) {
+                    if ( it.next().outcome.isDone() ) {
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
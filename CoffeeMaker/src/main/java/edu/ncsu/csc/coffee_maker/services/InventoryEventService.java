@@ -0,0 +1,357 @@
+package edu.ncsu.csc.coffee_maker.services;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import edu.ncsu.csc.coffee_maker.models.InventoryStore;
+import edu.ncsu.csc.coffee_maker.models.persistent.Inventory;
+
+/**
+ * Service that pushes inventory changes to subscribed clients as Server-Sent
+ * Events, so that pages showing the inventory need not poll for it.
+ *
+ * Changes are coalesced: once per interval the inventory's change version is
+ * compared with the one last sent, and if it has moved on, one event with the
+ * current amounts is queued for every client. However many orders are made in
+ * an interval, each client gets at most one event for it, and while nothing
+ * changes the only cost is reading the version. A new client is sent the
+ * current amounts at once.
+ *
+ * Events are written to the clients by a small pool of sender threads, never
+ * by the thread checking for changes, so a client on a slow connection only
+ * holds up itself. Each client has a bounded queue of events waiting to be
+ * written; a client whose queue is full is not keeping up and is dropped
+ * (its browser reconnects and starts again from the current amounts).
+ *
+ * Each "inventory" event carries the amounts, the change version (also the
+ * event id) and, under "delta", how much each amount moved since the previous
+ * change event.
+ *
+ * Settings (Spring properties):
+ * <ul>
+ * <li>coffeemaker.inventory.events.interval: milliseconds between checks for
+ * changes, the most often a client is sent an event (500)</li>
+ * <li>coffeemaker.inventory.events.timeout: milliseconds before a stream is
+ * closed, after which browsers reconnect on their own (1800000)</li>
+ * <li>coffeemaker.inventory.events.backlog: events queued for a client before
+ * it is dropped (16)</li>
+ * <li>coffeemaker.inventory.events.senders: threads writing events to clients
+ * (4)</li>
+ * </ul>
+ *
+ * @author sbutler2901
+ */
+@Service ( "inventoryEventService" )
+public class InventoryEventService {
+
+    /** Logger for this class */
+    private static final Logger                    LOG         = LoggerFactory.getLogger( InventoryEventService.class );
+
+    /** Name of the events sent */
+    static final String                            EVENT       = "inventory";
+
+    /** Milliseconds between checks for changes */
+    @Value ( "${coffeemaker.inventory.events.interval:500}" )
+    private long                                   interval;
+
+    /** Milliseconds before a stream is closed */
+    @Value ( "${coffeemaker.inventory.events.timeout:1800000}" )
+    private long                                   timeout;
+
+    /** Events queued for a client before it is dropped */
+    @Value ( "${coffeemaker.inventory.events.backlog:16}" )
+    private int                                    backlog;
+
+    /** Threads writing events to clients */
+    @Value ( "${coffeemaker.inventory.events.senders:4}" )
+    private int                                    senders;
+
+    /** Clients subscribed */
+    private final CopyOnWriteArrayList<Client>     subscribers = new CopyOnWriteArrayList<Client>();
+
+    /** Runs the checks */
+    private ScheduledExecutorService               scheduler;
+
+    /** Writes events to clients */
+    private ExecutorService                        sender;
+
+    /** Amounts last sent; only used on the scheduler thread */
+    private int[]                                  sent;
+
+    /** Change version last sent; only used on the scheduler thread */
+    private long                                   sentVersion = -1;
+
+    /**
+     * Starts checking for changes.
+     */
+    @PostConstruct
+    public void start () {
+        sender = Executors.newFixedThreadPool( senders, daemon( "inventory-events-send" ) );
+        scheduler = Executors.newSingleThreadScheduledExecutor( daemon( "inventory-events" ) );
+        scheduler.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run () {
+                try {
+                    publish();
+                }
+                catch ( final RuntimeException e ) {
+                    // Keep checking; a failure here must not end the schedule
+                    LOG.warn( "Could not publish inventory event", e );
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Stops checking for changes and closes every stream.
+     */
+    @PreDestroy
+    public void stop () {
+        scheduler.shutdownNow();
+        sender.shutdownNow();
+        for ( final Client client : subscribers ) {
+            client.emitter.complete();
+        }
+        subscribers.clear();
+    }
+
+    /**
+     * Subscribes a client to inventory events, sending it the current amounts
+     * straight away.
+     *
+     * @return the client's event stream
+     */
+    public SseEmitter subscribe () {
+        final SseEmitter emitter = new SseEmitter( timeout );
+        final Client client = new Client( emitter );
+        final Runnable remove = new Runnable() {
+            @Override
+            public void run () {
+                subscribers.remove( client );
+            }
+        };
+        emitter.onCompletion( remove );
+        emitter.onTimeout( remove );
+
+        // Queued before the client is listed, so no change event gets ahead
+        // of it
+        final long version = InventoryStore.getInstance().getVersion();
+        client.offer( event( version, read(), null ) );
+        subscribers.add( client );
+        return emitter;
+    }
+
+    /**
+     * Returns the number of clients subscribed.
+     *
+     * @return subscriber count
+     */
+    public int getSubscriberCount () {
+        return subscribers.size();
+    }
+
+    /**
+     * Queues the current amounts for every client if the inventory has changed
+     * since they were last sent.
+     */
+    void publish () {
+        if ( subscribers.isEmpty() ) {
+            // Deltas for later clients start from their first change event
+            sent = null;
+            return;
+        }
+        final long version = InventoryStore.getInstance().getVersion();
+        if ( version == sentVersion ) {
+            return;
+        }
+        // Amounts read after the version are at least as new as it
+        final int[] amounts = read();
+        final SseEmitter.SseEventBuilder event = event( version, amounts, sent );
+        sent = amounts;
+        sentVersion = version;
+
+        for ( final Client client : subscribers ) {
+            client.offer( event );
+        }
+    }
+
+    /**
+     * Creates a factory for daemon threads.
+     *
+     * @param name
+     *            name of the threads
+     * @return the factory
+     */
+    private static ThreadFactory daemon ( final String name ) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread ( final Runnable r ) {
+                final Thread t = new Thread( r, name );
+                t.setDaemon( true );
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Reads the current amounts.
+     *
+     * @return coffee, milk, sugar and chocolate
+     */
+    private static int[] read () {
+        final Inventory inventory = InventoryStore.getInstance().getInventory();
+        return new int[] { inventory.getCoffee(), inventory.getMilk(), inventory.getSugar(),
+                inventory.getChocolate() };
+    }
+
+    /**
+     * Builds an inventory event.
+     *
+     * @param version
+     *            change version of the amounts
+     * @param amounts
+     *            coffee, milk, sugar and chocolate
+     * @param previous
+     *            amounts sent before, or null if there is nothing to compare
+     *            with
+     * @return the event
+     */
+    private static SseEmitter.SseEventBuilder event ( final long version, final int[] amounts,
+            final int[] previous ) {
+        final Map<String, Object> data = new LinkedHashMap<String, Object>();
+        data.put( "version", version );
+        data.put( "coffee", amounts[0] );
+        data.put( "milk", amounts[1] );
+        data.put( "sugar", amounts[2] );
+        data.put( "chocolate", amounts[3] );
+        if ( previous != null ) {
+            final Map<String, Integer> delta = new LinkedHashMap<String, Integer>();
+            delta.put( "coffee", amounts[0] - previous[0] );
+            delta.put( "milk", amounts[1] - previous[1] );
+            delta.put( "sugar", amounts[2] - previous[2] );
+            delta.put( "chocolate", amounts[3] - previous[3] );
+            data.put( "delta", delta );
+        }
+        return SseEmitter.event().id( Long.toString( version ) ).name( EVENT ).data( data,
+                MediaType.APPLICATION_JSON );
+    }
+
+    /**
+     * A subscribed client: its event stream and the events waiting to be
+     * written to it. At most one sender thread writes to a client at a time,
+     * so its events go out in order.
+     *
+     * @author sbutler2901
+     */
+    private final class Client implements Runnable {
+
+        /** The client's event stream */
+        private final SseEmitter                                 emitter;
+
+        /** Events waiting to be written */
+        private final BlockingQueue<SseEmitter.SseEventBuilder> pending;
+
+        /** Whether a sender thread is writing, or about to write, events */
+        private final AtomicBoolean                              sending = new AtomicBoolean();
+
+        /**
+         * Creates a client.
+         *
+         * @param emitter
+         *            the client's event stream
+         */
+        Client ( final SseEmitter emitter ) {
+            this.emitter = emitter;
+            this.pending = new ArrayBlockingQueue<SseEmitter.SseEventBuilder>( Math.max( backlog, 1 ) );
+        }
+
+        /**
+         * Queues an event for the client, dropping the client if its queue
+         * is full.
+         *
+         * @param event
+         *            the event
+         */
+        void offer ( final SseEmitter.SseEventBuilder event ) {
+            if ( !pending.offer( event ) ) {
+                LOG.info( "Dropping an inventory event client that is not keeping up" );
+                drop( new IllegalStateException( "Client is not keeping up with inventory events" ) );
+                return;
+            }
+            schedule();
+        }
+
+        /**
+         * Has a sender thread write the queued events, unless one already is.
+         */
+        private void schedule () {
+            if ( sending.compareAndSet( false, true ) ) {
+                try {
+                    sender.execute( this );
+                }
+                catch ( final RejectedExecutionException e ) {
+                    // Shutting down; the stream is about to be closed
+                    sending.set( false );
+                }
+            }
+        }
+
+        /**
+         * Writes the queued events to the client.
+         */
+        @Override
+        public void run () {
+            try {
+                SseEmitter.SseEventBuilder event;
+                while ( ( event = pending.poll() ) != null ) {
+                    emitter.send( event );
+                }
+            }
+            catch ( final IOException | IllegalStateException e ) {
+                // The client has gone away
+                drop( e );
+                return;
+            }
+            sending.set( false );
+            // An event queued after the last poll would otherwise wait for
+            // the next one
+            if ( !pending.isEmpty() ) {
+                schedule();
+            }
+        }
+
+        /**
+         * Unsubscribes the client and closes its stream.
+         *
+         * @param cause
+         *            why the client is dropped
+         */
+        private void drop ( final Exception cause ) {
+            subscribers.remove( this );
+            pending.clear();
+            emitter.completeWithError( cause );
+        }
+    }
+
+}
@@ -2,10 +2,14 @@ package edu.ncsu.csc.coffee_maker.services;
 
 import org.springframework.stereotype.Service;
 
+import edu.ncsu.csc.coffee_maker.models.InventoryStore;
 import edu.ncsu.csc.coffee_maker.models.persistent.Inventory;
 
 /**
- * Service for working with the inventory.
+ * Service for working with the inventory. This works on the same Inventory as
+ * the CoffeeMaker, held by the InventoryStore, so reads are served from memory
+ * and changes are seen by both at once. The inventory is not loaded when the
+ * service is created, but by the WarmUpService or the first request.
  *
  * @author Sarah Heckman
  * @author Kai Presler-Marshall
@@ -14,32 +18,37 @@ import edu.ncsu.csc.coffee_maker.models.persistent.Inventory;
 @Service ( "inventoryService" )
 public class InventoryService {
 
-    private static Inventory inventory;
-
-    static {
-        inventory = populateInventory();
-    }
-
     /**
-     * Returns the inventory
+     * Returns the inventory, loading it on first use.
      *
      * @return the inventory
      */
     public Inventory getInventory () {
-        return inventory;
+        return InventoryStore.getInstance().getInventory();
     }
 
     /**
-     * Updates the InventoryService's inventory with the given values.
+     * Returns the change version of the inventory, which moves on whenever
+     * the inventory changes.
+     *
+     * @return change version
+     */
+    public long getVersion () {
+        return InventoryStore.getInstance().getVersion();
+    }
+
+    /**
+     * Updates the InventoryService's inventory with the given values, all four
+     * at once.
      *
      * @param inventory
      *            information to update
+     * @throws IllegalArgumentException
+     *             if an amount is negative
      */
-    public void updateInventory ( final Inventory inventory ) {
-        InventoryService.inventory.setCoffee( inventory.getCoffee() );
-        InventoryService.inventory.setMilk( inventory.getMilk() );
-        InventoryService.inventory.setSugar( inventory.getSugar() );
-        InventoryService.inventory.setChocolate( inventory.getChocolate() );
+    public void updateInventory ( final Inventory inventory ) throws IllegalArgumentException {
+        InventoryStore.getInstance().setIngredients( inventory.getCoffee(), inventory.getMilk(), inventory.getSugar(),
+                inventory.getChocolate() );
     }
 
     /**
@@ -49,7 +58,7 @@ public class InventoryService {
      *            Inventory with new ingredients
      */
     public void addInventory ( final Inventory inventory ) throws IllegalArgumentException {
-        InventoryService.inventory.addIngredients( inventory.getCoffee(), inventory.getMilk(), inventory.getSugar(),
+        InventoryStore.getInstance().addIngredients( inventory.getCoffee(), inventory.getMilk(), inventory.getSugar(),
                 inventory.getChocolate() );
     }
 
@@ -59,12 +68,7 @@ public class InventoryService {
      * @return Inventory
      */
     public String checkInventory () {
-        return InventoryService.inventory.toString();
-    }
-
-    private static Inventory populateInventory() {
-        final Inventory initInventory = new Inventory(15, 15, 15, 15);
-        return initInventory;
+        return getInventory().toString();
     }
 
 }
@@ -0,0 +1,154 @@
+package edu.ncsu.csc.coffee_maker.services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import edu.ncsu.csc.coffee_maker.Application;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+
+/**
+ * Service that makes orders on a dedicated pool of dispenser threads, so that
+ * request threads are not held while the ingredients are taken and saved.
+ * Orders wait in a bounded queue. When it is full, a new order is either
+ * rejected at once or waits a while for room, depending on the policy.
+ *
+ * The wait policy gives up the first point for orders that find the queue
+ * full: such an order waits for room on the request thread that placed it, so
+ * under sustained overload the web server's request threads end up waiting
+ * too, and every other request queues behind them for up to maxWait. The
+ * reject policy never blocks a request thread and is the better choice
+ * wherever clients can retry a 429; with wait, keep maxWait short.
+ *
+ * Settings (Spring properties):
+ * <ul>
+ * <li>coffeemaker.orders.dispensers: number of dispenser threads (4)</li>
+ * <li>coffeemaker.orders.queueCapacity: orders that may wait (256)</li>
+ * <li>coffeemaker.orders.whenFull: reject or wait (reject)</li>
+ * <li>coffeemaker.orders.maxWait: with wait, milliseconds to wait for room
+ * before rejecting (1000)</li>
+ * </ul>
+ *
+ * @author sbutler2901
+ */
+@Service ( "orderDispatcher" )
+public class OrderDispatcher {
+
+    /** Policy value that makes orders wait for room in a full queue */
+    static final String        WAIT = "wait";
+
+    /** Number of dispenser threads */
+    @Value ( "${coffeemaker.orders.dispensers:4}" )
+    private int                dispensers;
+
+    /** Number of orders that may wait for a dispenser */
+    @Value ( "${coffeemaker.orders.queueCapacity:256}" )
+    private int                queueCapacity;
+
+    /** What to do with an order when the queue is full: reject or wait */
+    @Value ( "${coffeemaker.orders.whenFull:reject}" )
+    private String             whenFull;
+
+    /** With the wait policy, how long to wait for room, in milliseconds */
+    @Value ( "${coffeemaker.orders.maxWait:1000}" )
+    private long               maxWait;
+
+    /** Runs the orders */
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Starts the dispenser threads.
+     */
+    @PostConstruct
+    public void start () {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadFactory threads = new ThreadFactory() {
+            @Override
+            public Thread newThread ( final Runnable r ) {
+                final Thread t = new Thread( r, "dispenser-" + count.incrementAndGet() );
+                t.setDaemon( true );
+                return t;
+            }
+        };
+        final RejectedExecutionHandler full = WAIT.equalsIgnoreCase( whenFull ) ? new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution ( final Runnable r, final ThreadPoolExecutor pool ) {
+                if ( pool.isShutdown() ) {
+                    throw new RejectedExecutionException( "Not taking orders" );
+                }
+                try {
+                    if ( !pool.getQueue().offer( r, maxWait, TimeUnit.MILLISECONDS ) ) {
+                        throw new RejectedExecutionException( "Too many orders waiting; try again later" );
+                    }
+                }
+                catch ( final InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException( "Interrupted while waiting to place order" );
+                }
+            }
+        } : new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution ( final Runnable r, final ThreadPoolExecutor pool ) {
+                throw new RejectedExecutionException( "Too many orders waiting; try again later" );
+            }
+        };
+        executor = new ThreadPoolExecutor( dispensers, dispensers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( queueCapacity ), threads, full );
+    }
+
+    /**
+     * Stops taking orders and waits briefly for those already queued.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @PreDestroy
+    public void stop () throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination( 10, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Queues an order for a recipe.
+     *
+     * @param recipe
+     *            recipe to make; null if it was not found
+     * @param amtPaid
+     *            amount paid
+     * @return the change, once the order has been made; completes
+     *         exceptionally as CoffeeMaker.makeCoffee would throw
+     * @throws RejectedExecutionException
+     *             if the queue is full (and, with the wait policy, stayed
+     *             full while the calling thread waited)
+     */
+    public CompletableFuture<Integer> makeCoffee ( final Recipe recipe, final int amtPaid )
+            throws RejectedExecutionException {
+        return CompletableFuture.supplyAsync( new Supplier<Integer>() {
+            @Override
+            public Integer get () {
+                return Application.getCoffeeMaker().makeCoffee( recipe, amtPaid );
+            }
+        }, executor );
+    }
+
+    /**
+     * Returns the number of orders waiting for a dispenser.
+     *
+     * @return queue depth
+     */
+    public int getQueueDepth () {
+        return executor.getQueue().size();
+    }
+}
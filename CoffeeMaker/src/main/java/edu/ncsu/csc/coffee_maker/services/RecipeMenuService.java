@@ -0,0 +1,217 @@
+package edu.ncsu.csc.coffee_maker.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.ncsu.csc.coffee_maker.Application;
+import edu.ncsu.csc.coffee_maker.models.RecipeBook;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+
+/**
+ * Service that keeps the recipe menu pre-serialized. The JSON for the full
+ * recipe list, plain and gzipped, is built once per catalog version of the
+ * RecipeBook and reused until a recipe is added, edited or deleted, so polling
+ * clients cost no serialization work.
+ *
+ * @author sbutler2901
+ */
+@Service ( "recipeMenuService" )
+public class RecipeMenuService {
+
+    /** Mapper used to encode the menu; the same one Spring MVC uses */
+    @Autowired
+    private ObjectMapper  mapper;
+
+    /** Most recently built menu */
+    private volatile Menu menu;
+
+    /**
+     * Returns the menu for the current recipes, building it if the catalog
+     * has changed since it was last built.
+     *
+     * @return encoded menu
+     */
+    public Menu getMenu () {
+        final RecipeBook book = Application.getCoffeeMaker().getRecipeBook();
+        final long version = book.getVersion();
+        final Menu current = menu;
+        if ( current != null && current.getVersion() == version ) {
+            return current;
+        }
+        synchronized ( this ) {
+            if ( menu != null && menu.getVersion() == version ) {
+                return menu;
+            }
+            // The list is at least as new as the version read above, so at
+            // worst this is rebuilt again on the next call
+            final Menu built = new Menu( version, encode( book.getRecipes() ) );
+            menu = built;
+            return built;
+        }
+    }
+
+    /**
+     * Serializes recipes to JSON.
+     *
+     * @param recipes
+     *            recipes to encode
+     * @return UTF-8 JSON
+     */
+    private byte[] encode ( final List<Recipe> recipes ) {
+        try {
+            return mapper.writeValueAsBytes( recipes );
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * One encoded version of the recipe menu. Immutable; the byte arrays must
+     * not be modified.
+     *
+     * @author sbutler2901
+     */
+    public static final class Menu {
+
+        /** Catalog version this menu was built from */
+        private final long   version;
+
+        /** JSON body */
+        private final byte[] json;
+
+        /** Gzipped JSON body */
+        private final byte[] gzip;
+
+        /** Strong entity tag for the JSON, quoted */
+        private final String etag;
+
+        /**
+         * Strong entity tag for the gzipped JSON, quoted. A strong tag names
+         * one byte sequence, so the two encodings cannot share one.
+         */
+        private final String gzipEtag;
+
+        /**
+         * Builds a menu from its JSON encoding.
+         *
+         * @param version
+         *            catalog version
+         * @param json
+         *            JSON body
+         */
+        Menu ( final long version, final byte[] json ) {
+            this.version = version;
+            this.json = json;
+            this.gzip = gzip( json );
+            // A digest of the content rather than the version, so tags stay
+            // valid across restarts and across instances
+            final String digest = DigestUtils.md5DigestAsHex( json );
+            this.etag = "\"" + digest + "\"";
+            this.gzipEtag = "\"" + digest + "-gzip\"";
+        }
+
+        /**
+         * Compresses bytes with gzip.
+         *
+         * @param bytes
+         *            bytes to compress
+         * @return compressed bytes
+         */
+        private static byte[] gzip ( final byte[] bytes ) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream( bytes.length / 4 + 64 );
+            try ( GZIPOutputStream zip = new GZIPOutputStream( out ) ) {
+                zip.write( bytes );
+            }
+            catch ( final IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+            return out.toByteArray();
+        }
+
+        /**
+         * Returns the catalog version this menu was built from.
+         *
+         * @return catalog version
+         */
+        public long getVersion () {
+            return version;
+        }
+
+        /**
+         * Returns the JSON body.
+         *
+         * @return JSON bytes
+         */
+        public byte[] getJson () {
+            return json;
+        }
+
+        /**
+         * Returns the gzipped JSON body.
+         *
+         * @return gzipped JSON bytes
+         */
+        public byte[] getGzip () {
+            return gzip;
+        }
+
+        /**
+         * Returns the strong entity tag of the JSON body, including its
+         * quotes.
+         *
+         * @return entity tag
+         */
+        public String getEtag () {
+            return etag;
+        }
+
+        /**
+         * Returns the strong entity tag of the gzipped JSON body, including
+         * its quotes.
+         *
+         * @return entity tag
+         */
+        public String getGzipEtag () {
+            return gzipEtag;
+        }
+
+        /**
+         * Returns whether an If-None-Match header matches this menu, in either
+         * encoding, in which case the client's copy is current. Uses the weak
+         * comparison that RFC 7232 prescribes for If-None-Match.
+         *
+         * @param ifNoneMatch
+         *            header value; may be null
+         * @return true if the client already has this menu
+         */
+        public boolean matches ( final String ifNoneMatch ) {
+            if ( ifNoneMatch == null ) {
+                return false;
+            }
+            for ( String tag : ifNoneMatch.split( "," ) ) {
+                tag = tag.trim();
+                if ( "*".equals( tag ) ) {
+                    return true;
+                }
+                if ( tag.startsWith( "W/" ) ) {
+                    tag = tag.substring( 2 );
+                }
+                if ( etag.equals( tag ) || gzipEtag.equals( tag ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package edu.ncsu.csc.coffee_maker.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import edu.ncsu.csc.coffee_maker.Application;
+import edu.ncsu.csc.coffee_maker.models.InventoryStore;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * Service that loads the application's data once the application has started
+ * and the web server is listening, so that startup does not wait for the
+ * database. The Hibernate SessionFactory, the inventory and the recipes are
+ * each loaded by their own background thread. Each is also loaded on first
+ * use, so a request that arrives before they are ready waits for them rather
+ * than failing, and nothing is loaded twice.
+ *
+ * {@link #isReady()} turns true once all three are loaded, for a readiness
+ * check to route traffic only to instances that will answer promptly.
+ *
+ * @author sbutler2901
+ */
+@Service ( "warmUpService" )
+public class WarmUpService {
+
+    /** Logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( WarmUpService.class );
+
+    /** True once everything is loaded */
+    private volatile boolean    ready;
+
+    /** Why warming up failed, or null */
+    private volatile Throwable  failure;
+
+    /**
+     * Starts loading in the background once the application is ready.
+     *
+     * @param event
+     *            the event that the application is ready
+     */
+    @EventListener
+    public void onApplicationReady ( final ApplicationReadyEvent event ) {
+        final long start = System.nanoTime();
+        final AtomicInteger count = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool( 3, new ThreadFactory() {
+            @Override
+            public Thread newThread ( final Runnable r ) {
+                final Thread t = new Thread( r, "warm-up-" + count.incrementAndGet() );
+                t.setDaemon( true );
+                return t;
+            }
+        } );
+
+        // Each waits for the session factory if another thread is building it
+        final CompletableFuture<Void> database = CompletableFuture.runAsync( new Runnable() {
+            @Override
+            public void run () {
+                HibernateUtil.getSessionFactory();
+            }
+        }, executor );
+        final CompletableFuture<Void> inventory = CompletableFuture.runAsync( new Runnable() {
+            @Override
+            public void run () {
+                InventoryStore.getInstance();
+            }
+        }, executor );
+        final CompletableFuture<Void> recipes = CompletableFuture.runAsync( new Runnable() {
+            @Override
+            public void run () {
+                Application.getCoffeeMaker();
+            }
+        }, executor );
+
+        CompletableFuture.allOf( database, inventory, recipes ).whenComplete( new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept ( final Void result, final Throwable error ) {
+                executor.shutdown();
+                if ( error != null ) {
+                    failure = error;
+                    LOG.error( "Warm-up failed", error );
+                    return;
+                }
+                ready = true;
+                LOG.info( "Warm-up finished in {} ms", ( System.nanoTime() - start ) / 1000000 );
+            }
+        } );
+    }
+
+    /**
+     * Returns true once the session factory, inventory and recipes are
+     * loaded.
+     *
+     * @return true if ready
+     */
+    public boolean isReady () {
+        return ready;
+    }
+
+    /**
+     * Returns why warming up failed.
+     *
+     * @return the failure, or null if warm-up has not failed
+     */
+    public Throwable getFailure () {
+        return failure;
+    }
+}
@@ -0,0 +1,192 @@
+package edu.ncsu.csc.coffee_maker.util;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+import edu.ncsu.csc.coffee_maker.models.CoffeeOrder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Timers and counters for orders, the inventory and the database. Meters are
+ * registered with Micrometer's global registry, which Spring Boot connects to
+ * its Prometheus registry, so they can be recorded from classes that are not
+ * Spring beans. Outside Spring (tests, tools) nothing is connected and
+ * recording costs next to nothing.
+ *
+ * Meters:
+ * <ul>
+ * <li>coffeemaker.orders: drinks ordered, tagged by outcome</li>
+ * <li>coffeemaker.order.duration: time to make an order, tagged single or
+ * batch</li>
+ * <li>coffeemaker.inventory.lock.wait: time spent waiting for the inventory's
+ * lock before saving</li>
+ * <li>coffeemaker.db.duration: time spent on the database, tagged by
+ * operation (inventory.pull, inventory.push, recipes.reload)</li>
+ * <li>coffeemaker.db.sessions.opened, .closed and .open, and
+ * coffeemaker.db.transactions: Hibernate's own counts</li>
+ * </ul>
+ *
+ * @author sbutler2901
+ */
+public final class CoffeeMakerMetrics {
+
+    /** Registry every meter is registered with */
+    private static final MeterRegistry                    REGISTRY       = Metrics.globalRegistry;
+
+    /** Drinks ordered, by outcome */
+    private static final Map<CoffeeOrder.Status, Counter> ORDERS         = new EnumMap<CoffeeOrder.Status, Counter>(
+            CoffeeOrder.Status.class );
+
+    /** Time to make a single-drink order */
+    private static final Timer                            SINGLE_ORDER   = orderTimer( "single" );
+
+    /** Time to make a batch order */
+    private static final Timer                            BATCH_ORDER    = orderTimer( "batch" );
+
+    /** Time spent waiting for the inventory's lock */
+    private static final Timer                            LOCK_WAIT      = Timer
+            .builder( "coffeemaker.inventory.lock.wait" )
+            .description( "Time spent waiting for the inventory lock before saving" ).register( REGISTRY );
+
+    /** Time spent reading the inventory from the database */
+    public static final Timer                             INVENTORY_PULL = dbTimer( "inventory.pull" );
+
+    /** Time spent saving the inventory, including queueing it */
+    public static final Timer                             INVENTORY_PUSH = dbTimer( "inventory.push" );
+
+    /** Time spent reloading the recipes */
+    public static final Timer                             RECIPE_RELOAD  = dbTimer( "recipes.reload" );
+
+    static {
+        for ( final CoffeeOrder.Status status : CoffeeOrder.Status.values() ) {
+            ORDERS.put( status, Counter.builder( "coffeemaker.orders" ).description( "Drinks ordered" )
+                    .tag( "outcome", status.name().toLowerCase( Locale.ROOT ) ).register( REGISTRY ) );
+        }
+    }
+
+    /**
+     * Not instantiated.
+     */
+    private CoffeeMakerMetrics () {
+    }
+
+    /**
+     * Builds an order timer.
+     *
+     * @param kind
+     *            single or batch
+     * @return the timer
+     */
+    private static Timer orderTimer ( final String kind ) {
+        return Timer.builder( "coffeemaker.order.duration" ).description( "Time to make an order" )
+                .tag( "kind", kind ).publishPercentileHistogram().register( REGISTRY );
+    }
+
+    /**
+     * Builds a database timer.
+     *
+     * @param operation
+     *            what is timed
+     * @return the timer
+     */
+    private static Timer dbTimer ( final String operation ) {
+        return Timer.builder( "coffeemaker.db.duration" ).description( "Time spent on the database" )
+                .tag( "operation", operation ).register( REGISTRY );
+    }
+
+    /**
+     * Records a single-drink order.
+     *
+     * @param outcome
+     *            how the order went
+     * @param startNanos
+     *            System.nanoTime() when the order started
+     */
+    public static void order ( final CoffeeOrder.Status outcome, final long startNanos ) {
+        ORDERS.get( outcome ).increment();
+        SINGLE_ORDER.record( System.nanoTime() - startNanos, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * Records a batch order, counting each of its lines by outcome.
+     *
+     * @param order
+     *            the completed order
+     * @param startNanos
+     *            System.nanoTime() when the order started
+     */
+    public static void order ( final CoffeeOrder order, final long startNanos ) {
+        for ( final CoffeeOrder.Line line : order.getLines() ) {
+            ORDERS.get( line.getStatus() ).increment();
+        }
+        BATCH_ORDER.record( System.nanoTime() - startNanos, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * Records time spent waiting for the inventory's lock.
+     *
+     * @param startNanos
+     *            System.nanoTime() when the wait started
+     */
+    public static void lockWait ( final long startNanos ) {
+        LOCK_WAIT.record( System.nanoTime() - startNanos, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * Records time spent on the database.
+     *
+     * @param timer
+     *            one of the database timers
+     * @param startNanos
+     *            System.nanoTime() when the operation started
+     */
+    public static void db ( final Timer timer, final long startNanos ) {
+        timer.record( System.nanoTime() - startNanos, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * Publishes Hibernate's session and transaction counts. They are only
+     * counted when hibernate.generate_statistics is on.
+     *
+     * @param sessionFactory
+     *            the session factory to watch
+     */
+    static void bind ( final SessionFactory sessionFactory ) {
+        final Statistics statistics = sessionFactory.getStatistics();
+        FunctionCounter.builder( "coffeemaker.db.sessions.opened", statistics, new ToDoubleFunction<Statistics>() {
+            @Override
+            public double applyAsDouble ( final Statistics s ) {
+                return s.getSessionOpenCount();
+            }
+        } ).description( "Hibernate sessions opened" ).register( REGISTRY );
+        FunctionCounter.builder( "coffeemaker.db.sessions.closed", statistics, new ToDoubleFunction<Statistics>() {
+            @Override
+            public double applyAsDouble ( final Statistics s ) {
+                return s.getSessionCloseCount();
+            }
+        } ).description( "Hibernate sessions closed" ).register( REGISTRY );
+        Gauge.builder( "coffeemaker.db.sessions.open", statistics, new ToDoubleFunction<Statistics>() {
+            @Override
+            public double applyAsDouble ( final Statistics s ) {
+                return s.getSessionOpenCount() - s.getSessionCloseCount();
+            }
+        } ).description( "Hibernate sessions currently open" ).register( REGISTRY );
+        FunctionCounter.builder( "coffeemaker.db.transactions", statistics, new ToDoubleFunction<Statistics>() {
+            @Override
+            public double applyAsDouble ( final Statistics s ) {
+                return s.getTransactionCount();
+            }
+        } ).description( "Hibernate transactions completed" ).register( REGISTRY );
+    }
+}
@@ -1,43 +1,259 @@
 package edu.ncsu.csc.coffee_maker.util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+
+import edu.ncsu.csc.coffee_maker.models.persistent.IdempotencyRecord;
+import edu.ncsu.csc.coffee_maker.models.persistent.Inventory;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
 
 /**
- * A utility class for setting up the Hibernate SessionFactory
+ * A utility class for setting up the Hibernate SessionFactory. The factory is
+ * built on first use rather than when the class is loaded.
+ *
+ * The settings in hibernate.cfg.xml can be overridden in two ways. Setting the
+ * system property coffeemaker.hibernate.profile to a name (for example,
+ * production) applies the settings in hibernate-[name].properties on the
+ * classpath. After that, any system property whose name starts with
+ * "hibernate." overrides the setting of the same name.
+ *
+ * The h2 profile uses an embedded in-memory H2 database, so nothing needs to
+ * be installed or running; the tests and benchmarks use it.
+ *
+ * Without a hibernate.cfg.xml on the classpath, the persistent classes are
+ * registered directly and every setting must come from a profile or system
+ * properties.
+ *
+ * Unless coffeemaker.hibernate.cache is false, recipes are kept in a local
+ * Ehcache second-level cache, and the recipe query in a query cache, both
+ * configured in ehcache-hibernate.xml. Settings in hibernate.cfg.xml, a
+ * profile or system properties take precedence. The recipe region is grown
+ * to hold every recipe a RecipeBook may contain. Hit and miss counts are
+ * available from {@link #getCacheStatistics()}.
  *
  * @author Elizabeth Gilbert
  */
 public class HibernateUtil {
 
-    private static SessionFactory sessionFactory = buildSessionFactory();
+    /** Logger for this class */
+    private static final Logger                 LOG              = LoggerFactory.getLogger( HibernateUtil.class );
+
+    /** System property that selects a configuration profile */
+    public static final String                  PROFILE_PROPERTY = "coffeemaker.hibernate.profile";
+
+    /** System property that turns the second-level cache off when false */
+    public static final String                  CACHE_PROPERTY   = "coffeemaker.hibernate.cache";
+
+    /** Second-level cache region holding recipes */
+    public static final String                  RECIPE_REGION    = "recipes";
+
+    /** Query cache region holding the recipe list query */
+    public static final String                  RECIPE_QUERIES   = "recipe-queries";
+
+    /** Name of the cache manager configured in ehcache-hibernate.xml */
+    public static final String                  CACHE_MANAGER    = "coffeemaker-hibernate";
+
+    /** The session factory, once built */
+    private static volatile SessionFactory      sessionFactory;
+
+    /** Write-behind queues that must be drained before the factory closes */
+    private static final List<WriteBehindQueue> QUEUES           = new CopyOnWriteArrayList<WriteBehindQueue>();
 
     private static SessionFactory buildSessionFactory () {
         try {
             // Create the SessionFactory from hibernate.cfg.xml
-            return new Configuration().configure().buildSessionFactory();
+            final Configuration configuration;
+            if ( HibernateUtil.class.getResource( "/hibernate.cfg.xml" ) != null ) {
+                configuration = new Configuration().configure();
+            }
+            else {
+                configuration = new Configuration().addAnnotatedClass( Recipe.class )
+                        .addAnnotatedClass( Inventory.class );
+            }
+            // Not listed in existing copies of hibernate.cfg.xml
+            configuration.addAnnotatedClass( IdempotencyRecord.class );
+
+            if ( !"false".equalsIgnoreCase( System.getProperty( CACHE_PROPERTY ) ) ) {
+                setDefault( configuration, "hibernate.cache.use_second_level_cache", "true" );
+                setDefault( configuration, "hibernate.cache.use_query_cache", "true" );
+                setDefault( configuration, "hibernate.cache.region.factory_class",
+                        "org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory" );
+                setDefault( configuration, "net.sf.ehcache.configurationResourceName", "/ehcache-hibernate.xml" );
+            }
+            // Feeds the cache statistics and the session metrics
+            setDefault( configuration, "hibernate.generate_statistics", "true" );
+
+            final String profile = System.getProperty( PROFILE_PROPERTY );
+            if ( profile != null && !profile.isEmpty() ) {
+                configuration.addProperties( loadProfile( profile ) );
+            }
+            for ( final String name : System.getProperties().stringPropertyNames() ) {
+                if ( name.startsWith( "hibernate." ) ) {
+                    configuration.setProperty( name, System.getProperty( name ) );
+                }
+            }
+
+            final SessionFactory factory = configuration.buildSessionFactory();
+            CoffeeMakerMetrics.bind( factory );
+            return factory;
         }
         catch ( final Throwable ex ) {
             // Make sure you log the exception, as it might be swallowed
-            System.err.println( "Initial SessionFactory creation failed." + ex );
-            throw new ExceptionInInitializerError( ex );
+            LOG.error( "Initial SessionFactory creation failed", ex );
+            throw new IllegalStateException( "Could not build the Hibernate SessionFactory", ex );
+        }
+    }
+
+    /**
+     * Sets a property unless hibernate.cfg.xml already has.
+     *
+     * @param configuration
+     *            configuration to change
+     * @param name
+     *            property name
+     * @param value
+     *            value to use if the property is not set
+     */
+    private static void setDefault ( final Configuration configuration, final String name, final String value ) {
+        if ( configuration.getProperty( name ) == null ) {
+            configuration.setProperty( name, value );
+        }
+    }
+
+    /**
+     * Loads the settings of a configuration profile.
+     *
+     * @param profile
+     *            name of the profile
+     * @return settings from hibernate-[profile].properties
+     * @throws IOException
+     *             if the profile cannot be read
+     */
+    private static Properties loadProfile ( final String profile ) throws IOException {
+        final String resource = "/hibernate-" + profile + ".properties";
+        final InputStream in = HibernateUtil.class.getResourceAsStream( resource );
+        if ( in == null ) {
+            throw new IOException( "No Hibernate profile " + resource + " on the classpath" );
+        }
+        try {
+            final Properties properties = new Properties();
+            properties.load( in );
+            return properties;
+        }
+        finally {
+            in.close();
         }
     }
 
     /**
-     * Returns the Hibernate SessionFactory.
+     * Returns the Hibernate SessionFactory, building it on first use. Callers
+     * that arrive while it is being built wait for it.
      *
      * @return session factory
      */
     public static SessionFactory getSessionFactory () {
-        return sessionFactory;
+        final SessionFactory factory = sessionFactory;
+        if ( factory != null ) {
+            return factory;
+        }
+        synchronized ( HibernateUtil.class ) {
+            if ( sessionFactory == null ) {
+                sessionFactory = buildSessionFactory();
+            }
+            return sessionFactory;
+        }
+    }
+
+    /**
+     * Returns the second-level and query cache counters since startup: hits,
+     * misses and puts overall, for the recipe region and for the query cache.
+     * All zero if the cache or statistics are turned off.
+     *
+     * @return counters, by name
+     */
+    public static Map<String, Long> getCacheStatistics () {
+        final Statistics statistics = getSessionFactory().getStatistics();
+        final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+        counters.put( "secondLevelHits", statistics.getSecondLevelCacheHitCount() );
+        counters.put( "secondLevelMisses", statistics.getSecondLevelCacheMissCount() );
+        counters.put( "secondLevelPuts", statistics.getSecondLevelCachePutCount() );
+
+        final SecondLevelCacheStatistics recipes = statistics.getSecondLevelCacheStatistics( RECIPE_REGION );
+        if ( recipes != null ) {
+            counters.put( "recipeHits", recipes.getHitCount() );
+            counters.put( "recipeMisses", recipes.getMissCount() );
+            counters.put( "recipePuts", recipes.getPutCount() );
+            counters.put( "recipesCached", recipes.getElementCountInMemory() );
+        }
+
+        counters.put( "queryHits", statistics.getQueryCacheHitCount() );
+        counters.put( "queryMisses", statistics.getQueryCacheMissCount() );
+        counters.put( "queryPuts", statistics.getQueryCachePutCount() );
+        return counters;
     }
 
     /**
-     * Shuts down the connection to the database.
+     * Makes sure the recipe cache region can hold at least the given number of
+     * recipes. The recipe list query is cached as a list of IDs, and every
+     * recipe it names that is no longer in the region is then loaded with a
+     * query of its own, so the region must hold the whole catalog. Does
+     * nothing if the cache is turned off.
+     *
+     * @param recipes
+     *            number of recipes the region must hold
+     */
+    public static void fitRecipeRegion ( final int recipes ) {
+        // The regions are created along with the factory
+        getSessionFactory();
+        final CacheManager manager = CacheManager.getCacheManager( CACHE_MANAGER );
+        final Ehcache region = null == manager ? null : manager.getEhcache( RECIPE_REGION );
+        if ( region == null ) {
+            return;
+        }
+        final long size = region.getCacheConfiguration().getMaxEntriesLocalHeap();
+        // 0 means unbounded
+        if ( size != 0 && size < recipes ) {
+            LOG.info( "Growing the {} cache region from {} to {} entries", RECIPE_REGION, size, recipes );
+            region.getCacheConfiguration().setMaxEntriesLocalHeap( recipes );
+        }
+    }
+
+    /**
+     * Registers a write-behind queue so that it is flushed on shutdown.
+     *
+     * @param queue
+     *            queue to register
+     */
+    static void register ( final WriteBehindQueue queue ) {
+        QUEUES.add( queue );
+    }
+
+    /**
+     * Shuts down the connection to the database. Any updates still waiting in
+     * a write-behind queue are written first.
      */
     public static void shutdown () {
-        // Close caches and connection pools
+        for ( final WriteBehindQueue queue : QUEUES ) {
+            queue.shutdown();
+        }
+        QUEUES.clear();
+
+        // Close caches and connection pools, if they were ever opened
         if ( sessionFactory != null ) {
             sessionFactory.close();
         }
@@ -0,0 +1,451 @@
+package edu.ncsu.csc.coffee_maker.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded write-behind queue for Hibernate entities. Entities handed to
+ * {@link #enqueue(Object)} are merged into the database by a single background
+ * writer, in the order they were enqueued, in batches of up to batchSize
+ * entities per transaction. A batch is written at most flushInterval
+ * milliseconds after its first entity was enqueued. When the queue is full,
+ * callers block until the writer catches up.
+ *
+ * Callers must hand over an entity that they will not modify afterwards (for
+ * example, a copy of the live object).
+ *
+ * The queue can also be used for group commit: {@link #submit(Object)}
+ * returns a future that completes once the transaction holding the entity has
+ * committed, so callers keep their durability guarantee while many of them
+ * share one transaction. Several copies of the same entity in a batch are
+ * merged into one persistent instance, so the database sees one UPDATE.
+ *
+ * A batch that fails is retried, up to maxAttempts times in all; after that
+ * its entities are logged at ERROR and dropped, and their futures fail. If
+ * the writer thread dies, everything still queued fails the same way and
+ * further entities are refused.
+ *
+ * @author sbutler2901
+ */
+public class WriteBehindQueue {
+
+    /** Logger for this class */
+    private static final Logger         LOG = LoggerFactory.getLogger( WriteBehindQueue.class );
+
+    /** Entities waiting to be written */
+    private final BlockingQueue<Entry>  pending;
+    /** Maximum number of entities written in one transaction */
+    private final int                   batchSize;
+    /** Maximum time, in ms, an entity waits before its batch is written */
+    private final long                  flushInterval;
+    /** Attempts at writing a batch before it is dropped */
+    private final int                   maxAttempts;
+    /** Background writer */
+    private final Thread                writer;
+    /** Cleared when the queue is shut down */
+    private volatile boolean            running = true;
+    /** Set when the writer stops taking entities off the queue */
+    private volatile boolean            stopped;
+
+    /** Guards the two counters below */
+    private final Object                progress = new Object();
+    /** Number of entities ever enqueued */
+    private long                        enqueued;
+    /** Number of entities written (or given up on) */
+    private long                        written;
+
+    /**
+     * Creates a write-behind queue and starts its writer thread.
+     *
+     * @param name
+     *            name of the writer thread
+     * @param capacity
+     *            maximum number of entities waiting to be written
+     * @param batchSize
+     *            maximum number of entities written per transaction
+     * @param flushInterval
+     *            maximum time, in ms, an entity waits before it is written
+     * @param maxAttempts
+     *            attempts at writing a batch before its entities are dropped
+     */
+    public WriteBehindQueue ( final String name, final int capacity, final int batchSize, final long flushInterval,
+            final int maxAttempts ) {
+        if ( capacity < 1 || batchSize < 1 || flushInterval < 0 || maxAttempts < 1 ) {
+            throw new IllegalArgumentException( "Invalid write-behind queue configuration" );
+        }
+        this.pending = new ArrayBlockingQueue<Entry>( capacity );
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.maxAttempts = maxAttempts;
+
+        writer = new Thread( new Runnable() {
+            @Override
+            public void run () {
+                writeLoop();
+            }
+        }, name );
+        writer.setDaemon( true );
+        writer.start();
+
+        HibernateUtil.register( this );
+    }
+
+    /**
+     * Queues an entity to be written to the database. Blocks while the queue
+     * is full.
+     *
+     * @param entity
+     *            entity to write
+     * @throws IllegalStateException
+     *             if the queue has been shut down or its writer has died
+     */
+    public void enqueue ( final Object entity ) throws IllegalStateException {
+        put( new Entry( entity, null ) );
+    }
+
+    /**
+     * Queues an entity to be written to the database and returns a future
+     * that completes when it has been committed. Blocks while the queue is
+     * full, but not while the entity is being written.
+     *
+     * @param entity
+     *            entity to write
+     * @return future completed when the entity's transaction commits, or
+     *         completed exceptionally if the entity is dropped
+     * @throws IllegalStateException
+     *             if the queue has been shut down or its writer has died
+     */
+    public CompletableFuture<Void> submit ( final Object entity ) throws IllegalStateException {
+        final CompletableFuture<Void> committed = new CompletableFuture<Void>();
+        put( new Entry( entity, committed ) );
+        return committed;
+    }
+
+    /**
+     * Adds an entry to the queue, waiting for room if needed.
+     *
+     * @param entry
+     *            entry to add
+     * @throws IllegalStateException
+     *             if the queue has been shut down or its writer has died
+     */
+    private void put ( final Entry entry ) throws IllegalStateException {
+        if ( !running ) {
+            throw new IllegalStateException( "Write-behind queue has been shut down" );
+        }
+        synchronized ( progress ) {
+            enqueued++;
+        }
+        boolean interrupted = false;
+        boolean added = false;
+        try {
+            // Wait in steps, so that a writer dying meanwhile is noticed
+            while ( !added && !writerStopped() ) {
+                try {
+                    added = pending.offer( entry, flushInterval + 1, TimeUnit.MILLISECONDS );
+                }
+                catch ( final InterruptedException e ) {
+                    // The update must not be lost; remember and keep waiting
+                    interrupted = true;
+                }
+            }
+            // The writer may have died just before the entry went in
+            if ( added && writerStopped() && pending.remove( entry ) ) {
+                added = false;
+            }
+        }
+        finally {
+            if ( !added ) {
+                markWritten( 1 );
+            }
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if ( !added ) {
+            throw new IllegalStateException( "Write-behind writer has stopped" );
+        }
+    }
+
+    /**
+     * Returns true once the writer thread has stopped, or is about to.
+     *
+     * @return true if nothing more will be written
+     */
+    private boolean writerStopped () {
+        return stopped || !writer.isAlive();
+    }
+
+    /**
+     * Blocks until every entity enqueued before this call has been written.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public void flush () throws InterruptedException {
+        synchronized ( progress ) {
+            final long target = enqueued;
+            while ( written < target && writer.isAlive() ) {
+                progress.wait( flushInterval + 1 );
+            }
+        }
+    }
+
+    /**
+     * Stops accepting entities, writes everything still queued and stops the
+     * writer thread.
+     */
+    public void shutdown () {
+        running = false;
+        boolean interrupted = false;
+        while ( writer.isAlive() ) {
+            try {
+                writer.join();
+            }
+            catch ( final InterruptedException e ) {
+                interrupted = true;
+            }
+        }
+        if ( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of entities waiting to be written.
+     *
+     * @return queue depth
+     */
+    public int size () {
+        return pending.size();
+    }
+
+    /**
+     * Body of the writer thread. Collects batches and writes them until the
+     * queue is shut down and drained. Should the thread die anyway, every
+     * entity it still holds fails rather than leave its submitter waiting.
+     */
+    private void writeLoop () {
+        final List<Entry> batch = new ArrayList<Entry>( batchSize );
+        final List<Object> entities = new ArrayList<Object>( batchSize );
+        int attempts = 0;
+        try {
+            while ( running || !pending.isEmpty() || !batch.isEmpty() ) {
+                try {
+                    if ( batch.isEmpty() ) {
+                        collect( batch );
+                    }
+                    if ( batch.isEmpty() ) {
+                        continue;
+                    }
+                    entities.clear();
+                    for ( final Entry entry : batch ) {
+                        entities.add( entry.entity );
+                    }
+                    attempts++;
+                    write( entities );
+                    finish( batch, null );
+                    attempts = 0;
+                }
+                catch ( final InterruptedException e ) {
+                    // Nobody interrupts the writer; keep draining
+                }
+                catch ( final RuntimeException e ) {
+                    LOG.warn( "Write-behind batch of {} failed (attempt {} of {}): {}", batch.size(), attempts,
+                            maxAttempts, e.toString() );
+                    if ( attempts >= maxAttempts || !running ) {
+                        // Do not spin on a dead database forever
+                        drop( batch, e );
+                        attempts = 0;
+                    }
+                    else {
+                        sleepQuietly( Math.max( flushInterval, 1 ) * attempts );
+                    }
+                }
+            }
+        }
+        finally {
+            stopped = true;
+            if ( !batch.isEmpty() || !pending.isEmpty() ) {
+                final IllegalStateException e = new IllegalStateException( "Write-behind writer has stopped" );
+                pending.drainTo( batch );
+                drop( batch, e );
+            }
+        }
+    }
+
+    /**
+     * Gives up on a batch: logs its entities at ERROR and fails their
+     * futures.
+     *
+     * @param batch
+     *            entries to drop
+     * @param failure
+     *            why they could not be written
+     */
+    private void drop ( final List<Entry> batch, final Throwable failure ) {
+        LOG.error( "Dropping {} unwritten updates", batch.size(), failure );
+        for ( final Entry entry : batch ) {
+            LOG.error( "Dropped update: {}", entry.entity );
+        }
+        finish( batch, failure );
+    }
+
+    /**
+     * Records that the entries of a batch have left the queue, tells their
+     * submitters and empties the batch.
+     *
+     * @param batch
+     *            entries written or dropped
+     * @param failure
+     *            why they were dropped, or null if they were committed
+     */
+    private void finish ( final List<Entry> batch, final Throwable failure ) {
+        markWritten( batch.size() );
+        for ( final Entry entry : batch ) {
+            entry.complete( failure );
+        }
+        batch.clear();
+    }
+
+    /**
+     * Fills the (empty) batch with the next entity and whatever else arrives
+     * before its flush deadline, up to batchSize entities.
+     *
+     * @param batch
+     *            list to fill
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    private void collect ( final List<Entry> batch ) throws InterruptedException {
+        final Entry first = pending.poll( Math.max( flushInterval, 1 ), TimeUnit.MILLISECONDS );
+        if ( first == null ) {
+            return;
+        }
+        batch.add( first );
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( flushInterval );
+        while ( batch.size() < batchSize && running ) {
+            pending.drainTo( batch, batchSize - batch.size() );
+            final long remaining = deadline - System.nanoTime();
+            if ( batch.size() >= batchSize || remaining <= 0 ) {
+                break;
+            }
+            final Entry next = pending.poll( remaining, TimeUnit.NANOSECONDS );
+            if ( next == null ) {
+                break;
+            }
+            batch.add( next );
+        }
+        pending.drainTo( batch, batchSize - batch.size() );
+    }
+
+    /**
+     * Writes one batch of entities in a single transaction, in order. Called
+     * only on the writer thread; an exception fails the whole batch.
+     *
+     * @param entities
+     *            entities to write
+     */
+    protected void write ( final List<Object> entities ) {
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.beginTransaction();
+            for ( final Object entity : entities ) {
+                session.merge( entity );
+            }
+            session.getTransaction().commit();
+        }
+        catch ( final RuntimeException e ) {
+            if ( session.getTransaction().isActive() ) {
+                session.getTransaction().rollback();
+            }
+            throw e;
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Records that a number of entities have left the queue and wakes up any
+     * thread waiting in {@link #flush()}.
+     *
+     * @param count
+     *            number of entities
+     */
+    private void markWritten ( final int count ) {
+        synchronized ( progress ) {
+            written += count;
+            progress.notifyAll();
+        }
+    }
+
+    /**
+     * Sleeps without propagating interruption.
+     *
+     * @param millis
+     *            time to sleep
+     */
+    private static void sleepQuietly ( final long millis ) {
+        try {
+            Thread.sleep( millis );
+        }
+        catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * An entity waiting to be written, and who to tell once it has been.
+     *
+     * @author sbutler2901
+     */
+    private static final class Entry {
+
+        /** Entity to write */
+        private final Object                  entity;
+
+        /** Completed once the entity is committed; null if nobody waits */
+        private final CompletableFuture<Void> committed;
+
+        /**
+         * Creates an entry.
+         *
+         * @param entity
+         *            entity to write
+         * @param committed
+         *            future to complete, or null
+         */
+        Entry ( final Object entity, final CompletableFuture<Void> committed ) {
+            this.entity = entity;
+            this.committed = committed;
+        }
+
+        /**
+         * Tells the submitter, if any, how writing the entity went.
+         *
+         * @param failure
+         *            why the entity was dropped, or null if it was committed
+         */
+        void complete ( final Throwable failure ) {
+            if ( committed == null ) {
+                return;
+            }
+            if ( failure == null ) {
+                committed.complete( null );
+            }
+            else {
+                committed.completeExceptionally( failure );
+            }
+        }
+    }
+}
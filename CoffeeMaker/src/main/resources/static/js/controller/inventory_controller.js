@@ -8,7 +8,12 @@ angular.module('myApp').controller('InventoryController', ['$scope', 'InventoryS
     self.submit = submit;
     self.reset = reset;
  
-    getInventory();
+    var unsubscribe = InventoryService.subscribe(function(data) {
+        $scope.$applyAsync(function() {
+            self.inventoryMaster = data;
+        });
+    });
+    $scope.$on('$destroy', unsubscribe);
  
     function getInventory(){
     		InventoryService.getInventory()
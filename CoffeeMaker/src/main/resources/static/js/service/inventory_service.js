@@ -3,10 +3,12 @@
 angular.module('myApp').factory('InventoryService', ['$http', '$q', function($http, $q){
  
     var REST_SERVICE_URI = '/api/v1/inventory';
+    var EVENTS_URI = '/api/v1/inventory/events';
  
     var factory = {
     		getInventory: getInventory,
-    		updateInventory: updateInventory
+    		updateInventory: updateInventory,
+    		subscribe: subscribe
     };
  
     return factory;
@@ -26,6 +28,24 @@ angular.module('myApp').factory('InventoryService', ['$http', '$q', function($ht
         return deferred.promise;
     } 
  
+    // Calls onUpdate with the inventory now and whenever it changes, pushed
+    // by the server. Returns a function that stops the updates. Browsers
+    // without EventSource get the inventory once. If the stream drops, the
+    // browser reconnects on its own and the first event brings it up to date.
+    function subscribe(onUpdate) {
+        if (typeof EventSource === 'undefined') {
+            getInventory().then(onUpdate);
+            return angular.noop;
+        }
+        var source = new EventSource(EVENTS_URI);
+        source.addEventListener('inventory', function(event) {
+            onUpdate(angular.fromJson(event.data));
+        });
+        return function() {
+            source.close();
+        };
+    }
+ 
     function updateInventory(inventory) {
         var deferred = $q.defer();
         $http.put(REST_SERVICE_URI, inventory)
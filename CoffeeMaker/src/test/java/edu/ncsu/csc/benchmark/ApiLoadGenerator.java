@@ -0,0 +1,516 @@
+package edu.ncsu.csc.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import edu.ncsu.csc.coffee_maker.Application;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * Drives the REST API with an open-model load and reports throughput and
+ * latency percentiles per endpoint, so that hardware can be sized from the
+ * rate at which latency starts to climb.
+ *
+ * Requests arrive at a set rate whether or not earlier ones have finished, as
+ * real customers do. Each request's latency is measured from when it was due
+ * to be sent, not from when a worker got to it, so time spent queued behind a
+ * slow server counts (no coordinated omission). Latencies go into an
+ * HdrHistogram per endpoint.
+ *
+ * By default the application is started inside this JVM on a free port,
+ * against an in-memory H2 database, and the recipes in the mix are created
+ * and the inventory stocked before the run:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=edu.ncsu.csc.benchmark.ApiLoadGenerator \
+ *     -Dload.rate=500 -Dload.duration=60
+ * </pre>
+ *
+ * Settings (system properties):
+ * <ul>
+ * <li>load.rate: requests per second (200)</li>
+ * <li>load.arrivals: poisson or uniform spacing of requests (poisson)</li>
+ * <li>load.duration: seconds measured (30), after load.warmup seconds
+ * (10)</li>
+ * <li>load.concurrency: most requests in flight at once (64)</li>
+ * <li>load.mix: endpoint weights (makecoffee:70,recipes:20,inventory:10)</li>
+ * <li>load.recipes: recipe weights for orders (Coffee:6,Latte:3,Mocha:1);
+ * names other than these three are created with one unit of coffee</li>
+ * <li>load.url: base URL of a server that is already running; nothing is
+ * started or created, and the recipes must exist</li>
+ * <li>load.database: configured to use hibernate.cfg.xml and
+ * coffeemaker.hibernate.profile instead of the h2 profile</li>
+ * <li>load.histograms: file to write each endpoint's full percentile
+ * distribution to</li>
+ * </ul>
+ *
+ * @author sbutler2901
+ */
+public class ApiLoadGenerator {
+
+    /** API base path */
+    private static final String API   = "/api/v1/";
+
+    /** Units of each ingredient stocked before the run */
+    private static final int    STOCK = 100000000;
+
+    /**
+     * Runs the load and prints the report.
+     *
+     * @param args
+     *            unused
+     * @throws Exception
+     *             if the application cannot be started or prepared
+     */
+    public static void main ( final String[] args ) throws Exception {
+        final double rate = Double.parseDouble( System.getProperty( "load.rate", "200" ) );
+        final boolean poisson = !"uniform".equalsIgnoreCase( System.getProperty( "load.arrivals" ) );
+        final long duration = Long.getLong( "load.duration", 30 );
+        final long warmup = Long.getLong( "load.warmup", 10 );
+        final int concurrency = Integer.getInteger( "load.concurrency", 64 );
+        final List<Target> targets = parseMix(
+                System.getProperty( "load.mix", "makecoffee:70,recipes:20,inventory:10" ) );
+        final Map<String, Integer> recipes = parseWeights(
+                System.getProperty( "load.recipes", "Coffee:6,Latte:3,Mocha:1" ) );
+
+        // Keep a pooled connection for every worker
+        System.setProperty( "http.maxConnections", Integer.toString( concurrency ) );
+
+        ConfigurableApplicationContext context = null;
+        String base = System.getProperty( "load.url" );
+        if ( base == null ) {
+            context = startApplication( recipes.size() );
+            base = "http://localhost:" + context.getEnvironment().getProperty( "local.server.port" );
+            prepare( base, recipes.keySet() );
+        }
+        final String[] recipeNames = weighted( recipes );
+
+        try {
+            final long measured = run( base, targets, recipeNames, rate, poisson, warmup, duration, concurrency );
+            report( targets, measured, rate, concurrency );
+        }
+        finally {
+            if ( context != null ) {
+                context.close();
+            }
+        }
+    }
+
+    /**
+     * Starts the application in this JVM on a free port.
+     *
+     * @param recipes
+     *            number of recipes that will be created
+     * @return the application context
+     */
+    private static ConfigurableApplicationContext startApplication ( final int recipes ) {
+        if ( !"configured".equalsIgnoreCase( System.getProperty( "load.database" ) ) ) {
+            System.setProperty( HibernateUtil.PROFILE_PROPERTY, "h2" );
+        }
+        final int capacity = Integer.getInteger( "coffeemaker.recipes.capacity", 3 );
+        System.setProperty( "coffeemaker.recipes.capacity", Integer.toString( Math.max( capacity, recipes ) ) );
+        return SpringApplication.run( Application.class, "--server.port=0" );
+    }
+
+    /**
+     * Creates the recipes in the mix and stocks the inventory.
+     *
+     * @param base
+     *            server URL
+     * @param names
+     *            recipe names
+     * @throws IOException
+     *             if the server cannot be reached or refuses
+     */
+    private static void prepare ( final String base, final Iterable<String> names ) throws IOException {
+        for ( final String name : names ) {
+            final int status = send( base + API + "recipes", "POST", recipeJson( name ) );
+            if ( status != 200 && status != 409 ) {
+                throw new IOException( "Could not create recipe " + name + ": HTTP " + status );
+            }
+        }
+        final String stock = "{\"coffee\":" + STOCK + ",\"milk\":" + STOCK + ",\"sugar\":" + STOCK
+                + ",\"chocolate\":" + STOCK + "}";
+        final int status = send( base + API + "inventory", "PUT", stock );
+        if ( status != 200 ) {
+            throw new IOException( "Could not stock the inventory: HTTP " + status );
+        }
+    }
+
+    /**
+     * Returns the JSON for a recipe in the mix.
+     *
+     * @param name
+     *            recipe name
+     * @return recipe as JSON
+     */
+    private static String recipeJson ( final String name ) {
+        // coffee, milk, sugar, chocolate, price
+        final int[] r;
+        switch ( name.toLowerCase( Locale.ROOT ) ) {
+            case "coffee":
+                r = new int[] { 3, 0, 0, 0, 50 };
+                break;
+            case "latte":
+                r = new int[] { 2, 3, 0, 0, 60 };
+                break;
+            case "mocha":
+                r = new int[] { 2, 2, 1, 3, 70 };
+                break;
+            default:
+                r = new int[] { 1, 0, 0, 0, 50 };
+        }
+        return "{\"name\":\"" + name + "\",\"coffee\":" + r[0] + ",\"milk\":" + r[1] + ",\"sugar\":" + r[2]
+                + ",\"chocolate\":" + r[3] + ",\"price\":" + r[4] + "}";
+    }
+
+    /**
+     * Sends requests at the arrival rate for the warm-up and measured
+     * periods, then waits for the last of them.
+     *
+     * @param base
+     *            server URL
+     * @param targets
+     *            endpoints and their weights
+     * @param recipeNames
+     *            recipe names, repeated by weight
+     * @param rate
+     *            requests per second
+     * @param poisson
+     *            true for exponentially distributed gaps, false for even ones
+     * @param warmup
+     *            seconds not measured
+     * @param duration
+     *            seconds measured
+     * @param concurrency
+     *            most requests in flight
+     * @return nanoseconds from the start of measurement until the last
+     *         measured request completed
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    private static long run ( final String base, final List<Target> targets, final String[] recipeNames,
+            final double rate, final boolean poisson, final long warmup, final long duration,
+            final int concurrency ) throws InterruptedException {
+        final ThreadPoolExecutor workers = new ThreadPoolExecutor( concurrency, concurrency, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>() );
+        final int totalWeight = totalWeight( targets );
+        final Random random = new Random();
+        final double gap = TimeUnit.SECONDS.toNanos( 1 ) / rate;
+
+        final long start = System.nanoTime();
+        final long measureFrom = start + TimeUnit.SECONDS.toNanos( warmup );
+        final long end = measureFrom + TimeUnit.SECONDS.toNanos( duration );
+        long due = start;
+        while ( due < end ) {
+            final long wait = due - System.nanoTime();
+            if ( wait > 0 ) {
+                LockSupport.parkNanos( wait );
+                continue;
+            }
+            final Target target = pick( targets, random.nextInt( totalWeight ) );
+            final String recipe = recipeNames[random.nextInt( recipeNames.length )];
+            final long intended = due;
+            final boolean measure = intended >= measureFrom;
+            workers.execute( new Runnable() {
+                @Override
+                public void run () {
+                    target.call( base, recipe, intended, measure );
+                }
+            } );
+            due += poisson ? (long) ( -Math.log( 1 - random.nextDouble() ) * gap ) : (long) gap;
+        }
+
+        workers.shutdown();
+        workers.awaitTermination( 5, TimeUnit.MINUTES );
+        return System.nanoTime() - measureFrom;
+    }
+
+    /**
+     * Prints throughput and latency percentiles per endpoint, and writes the
+     * full distributions if asked to.
+     *
+     * @param targets
+     *            endpoints measured
+     * @param nanos
+     *            length of the measured period
+     * @param rate
+     *            offered requests per second
+     * @param concurrency
+     *            most requests in flight
+     * @throws IOException
+     *             if the distributions cannot be written
+     */
+    private static void report ( final List<Target> targets, final long nanos, final double rate,
+            final int concurrency ) throws IOException {
+        final double seconds = nanos / 1e9;
+        System.out.printf( "Offered: %.0f req/s, concurrency %d%n", rate, concurrency );
+        System.out.printf( "%-12s %10s %8s %10s %9s %9s %9s %9s%n", "endpoint", "requests", "errors", "req/s",
+                "p50 ms", "p99 ms", "p99.9 ms", "max ms" );
+
+        final String file = System.getProperty( "load.histograms" );
+        final PrintStream out = file == null ? null : new PrintStream( file, "UTF-8" );
+        try {
+            for ( final Target target : targets ) {
+                final Histogram h = target.latencies.getIntervalHistogram();
+                System.out.printf( "%-12s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n", target.name,
+                        h.getTotalCount(), target.errors.get(), h.getTotalCount() / seconds,
+                        h.getValueAtPercentile( 50 ) / 1000.0, h.getValueAtPercentile( 99 ) / 1000.0,
+                        h.getValueAtPercentile( 99.9 ) / 1000.0, h.getMaxValue() / 1000.0 );
+                if ( !target.statuses.isEmpty() ) {
+                    System.out.println( "             error statuses: "
+                            + new TreeMap<Integer, AtomicLong>( target.statuses ) );
+                }
+                if ( out != null ) {
+                    out.println( "# " + target.name + " (ms)" );
+                    h.outputPercentileDistribution( out, 1000.0 );
+                }
+            }
+        }
+        finally {
+            if ( out != null ) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Sends one request and reads the whole response, so that the connection
+     * can be reused.
+     *
+     * @param url
+     *            request URL
+     * @param method
+     *            HTTP method
+     * @param body
+     *            JSON body, or null
+     * @return HTTP status
+     * @throws IOException
+     *             if the server cannot be reached
+     */
+    private static int send ( final String url, final String method, final String body ) throws IOException {
+        final HttpURLConnection c = (HttpURLConnection) new URL( url ).openConnection();
+        c.setRequestMethod( method );
+        if ( body != null ) {
+            c.setDoOutput( true );
+            c.setRequestProperty( "Content-Type", "application/json" );
+            final OutputStream os = c.getOutputStream();
+            try {
+                os.write( body.getBytes( StandardCharsets.UTF_8 ) );
+            }
+            finally {
+                os.close();
+            }
+        }
+        final int status = c.getResponseCode();
+        final InputStream in = status >= 400 ? c.getErrorStream() : c.getInputStream();
+        if ( in != null ) {
+            try {
+                final byte[] buffer = new byte[8192];
+                while ( in.read( buffer ) >= 0 ) {
+                    // Drain
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Parses the endpoint mix.
+     *
+     * @param mix
+     *            endpoint:weight pairs, comma separated
+     * @return the endpoints
+     */
+    private static List<Target> parseMix ( final String mix ) {
+        final List<Target> targets = new ArrayList<Target>();
+        for ( final Map.Entry<String, Integer> e : parseWeights( mix ).entrySet() ) {
+            final String name = e.getKey().toLowerCase( Locale.ROOT );
+            if ( !"makecoffee".equals( name ) && !"recipes".equals( name ) && !"inventory".equals( name ) ) {
+                throw new IllegalArgumentException( "Unknown endpoint " + name + " in load.mix" );
+            }
+            targets.add( new Target( name, e.getValue() ) );
+        }
+        return targets;
+    }
+
+    /**
+     * Parses name:weight pairs.
+     *
+     * @param list
+     *            name:weight pairs, comma separated; a missing weight is 1
+     * @return weights by name, in order
+     */
+    private static Map<String, Integer> parseWeights ( final String list ) {
+        final Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        for ( final String item : list.split( "," ) ) {
+            final String[] parts = item.trim().split( ":" );
+            final int weight = parts.length > 1 ? Integer.parseInt( parts[1].trim() ) : 1;
+            if ( weight > 0 ) {
+                weights.put( parts[0].trim(), weight );
+            }
+        }
+        if ( weights.isEmpty() ) {
+            throw new IllegalArgumentException( "Empty mix: " + list );
+        }
+        return weights;
+    }
+
+    /**
+     * Repeats each name by its weight, so that a uniform pick follows the
+     * weights.
+     *
+     * @param weights
+     *            weights by name
+     * @return the names
+     */
+    private static String[] weighted ( final Map<String, Integer> weights ) {
+        final List<String> names = new ArrayList<String>();
+        for ( final Map.Entry<String, Integer> e : weights.entrySet() ) {
+            for ( int i = 0; i < e.getValue(); i++ ) {
+                names.add( e.getKey() );
+            }
+        }
+        return names.toArray( new String[names.size()] );
+    }
+
+    /**
+     * Adds up the endpoint weights.
+     *
+     * @param targets
+     *            endpoints
+     * @return total weight
+     */
+    private static int totalWeight ( final List<Target> targets ) {
+        int total = 0;
+        for ( final Target t : targets ) {
+            total += t.weight;
+        }
+        return total;
+    }
+
+    /**
+     * Picks the endpoint a point in the total weight falls on.
+     *
+     * @param targets
+     *            endpoints
+     * @param point
+     *            value below the total weight
+     * @return the endpoint
+     */
+    private static Target pick ( final List<Target> targets, final int point ) {
+        int remaining = point;
+        for ( final Target t : targets ) {
+            if ( remaining < t.weight ) {
+                return t;
+            }
+            remaining -= t.weight;
+        }
+        return targets.get( targets.size() - 1 );
+    }
+
+    /**
+     * One endpoint in the mix and what has been measured for it.
+     *
+     * @author sbutler2901
+     */
+    private static final class Target {
+
+        /** makecoffee, recipes or inventory */
+        private final String                   name;
+
+        /** Share of requests */
+        private final int                      weight;
+
+        /** Latencies in microseconds, from when each request was due */
+        private final Recorder                 latencies = new Recorder( 3 );
+
+        /** Requests that failed or got an error status */
+        private final AtomicLong               errors    = new AtomicLong();
+
+        /** Count of each error status; -1 for connection failures */
+        private final Map<Integer, AtomicLong> statuses  = new ConcurrentHashMap<Integer, AtomicLong>();
+
+        /**
+         * Creates an endpoint.
+         *
+         * @param name
+         *            endpoint name
+         * @param weight
+         *            share of requests
+         */
+        Target ( final String name, final int weight ) {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        /**
+         * Sends one request and records how long it took from when it was
+         * due.
+         *
+         * @param base
+         *            server URL
+         * @param recipe
+         *            recipe to order, for makecoffee
+         * @param intended
+         *            System.nanoTime() at which the request was due
+         * @param measure
+         *            false during warm-up
+         */
+        void call ( final String base, final String recipe, final long intended, final boolean measure ) {
+            int status;
+            try {
+                if ( "makecoffee".equals( name ) ) {
+                    // Pay enough for any recipe in the mix
+                    status = send( base + API + "makecoffee/" + recipe, "POST", "100" );
+                }
+                else {
+                    status = send( base + API + name, "GET", null );
+                }
+            }
+            catch ( final IOException e ) {
+                status = -1;
+            }
+            if ( !measure ) {
+                return;
+            }
+            latencies.recordValue( Math.max( 0, ( System.nanoTime() - intended ) / 1000 ) );
+            if ( status < 200 || status >= 400 ) {
+                errors.incrementAndGet();
+                AtomicLong count = statuses.get( status );
+                if ( count == null ) {
+                    statuses.putIfAbsent( status, new AtomicLong() );
+                    count = statuses.get( status );
+                }
+                count.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package edu.ncsu.csc.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.ncsu.csc.coffee_maker.models.CoffeeMaker;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * Measures the latency of CoffeeMaker.makeCoffee against the database set up
+ * in hibernate.cfg.xml. Run it once as-is and once with
+ * -Dcoffeemaker.hibernate.profile=production to compare Hibernate's built-in
+ * pool with the production profile:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=edu.ncsu.csc.benchmark.OrderLatencyBenchmark \
+ *     -Dcoffeemaker.hibernate.profile=production
+ * </pre>
+ *
+ * The number of threads, timed orders per thread and warm-up orders per thread
+ * are set with benchmark.threads, benchmark.orders and benchmark.warmup.
+ *
+ * @author sbutler2901
+ */
+public class OrderLatencyBenchmark {
+
+    /** Name of the recipe ordered by the benchmark */
+    private static final String RECIPE = "BenchmarkCoffee";
+
+    /**
+     * Runs the benchmark and prints latency percentiles.
+     *
+     * @param args
+     *            unused
+     * @throws Exception
+     *             if an order fails
+     */
+    public static void main ( final String[] args ) throws Exception {
+        final int threads = Integer.getInteger( "benchmark.threads", 8 );
+        final int orders = Integer.getInteger( "benchmark.orders", 500 );
+        final int warmup = Integer.getInteger( "benchmark.warmup", 100 );
+
+        final CoffeeMaker cm = new CoffeeMaker();
+        final Recipe recipe = prepare( cm, threads * ( orders + warmup ) );
+
+        run( cm, recipe, threads, warmup );
+        final long start = System.nanoTime();
+        final long[] latencies = run( cm, recipe, threads, orders );
+        final double seconds = ( System.nanoTime() - start ) / 1e9;
+
+        Arrays.sort( latencies );
+        System.out.println( "Profile:    " + System.getProperty( HibernateUtil.PROFILE_PROPERTY, "(default)" ) );
+        System.out.println( "Threads:    " + threads );
+        System.out.println( "Orders:     " + latencies.length );
+        System.out.printf( "Throughput: %.1f orders/s%n", latencies.length / seconds );
+        System.out.printf( "p50:        %.3f ms%n", percentile( latencies, 0.50 ) );
+        System.out.printf( "p90:        %.3f ms%n", percentile( latencies, 0.90 ) );
+        System.out.printf( "p99:        %.3f ms%n", percentile( latencies, 0.99 ) );
+        System.out.printf( "max:        %.3f ms%n", latencies[latencies.length - 1] / 1e6 );
+
+        HibernateUtil.shutdown();
+    }
+
+    /**
+     * Makes sure the benchmark recipe exists and there is enough inventory for
+     * every order.
+     *
+     * @param cm
+     *            coffee maker to prepare
+     * @param total
+     *            number of orders that will be made
+     * @return the benchmark recipe
+     */
+    private static Recipe prepare ( final CoffeeMaker cm, final int total ) {
+        Recipe recipe = cm.getRecipeBook().findRecipe( RECIPE );
+        if ( recipe == null ) {
+            recipe = new Recipe();
+            recipe.setName( RECIPE );
+            recipe.setPrice( 0 );
+            recipe.setCoffee( 1 );
+            recipe.setMilk( 1 );
+            recipe.setSugar( 1 );
+            recipe.setChocolate( 0 );
+            if ( !cm.addRecipe( recipe ) ) {
+                throw new IllegalStateException( "Recipe book is full; cannot add " + RECIPE );
+            }
+        }
+        cm.addInventory( total, total, total, 0 );
+        return recipe;
+    }
+
+    /**
+     * Makes orders from several threads at once and records how long each
+     * took.
+     *
+     * @param cm
+     *            coffee maker to order from
+     * @param recipe
+     *            recipe to order
+     * @param threads
+     *            number of ordering threads
+     * @param orders
+     *            orders per thread
+     * @return latency of each order, in nanoseconds
+     * @throws Exception
+     *             if an order fails
+     */
+    private static long[] run ( final CoffeeMaker cm, final Recipe recipe, final int threads, final int orders )
+            throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool( threads );
+        final List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+        try {
+            for ( int t = 0; t < threads; t++ ) {
+                futures.add( pool.submit( new Callable<long[]>() {
+                    @Override
+                    public long[] call () {
+                        final long[] times = new long[orders];
+                        for ( int i = 0; i < orders; i++ ) {
+                            final long begin = System.nanoTime();
+                            cm.makeCoffee( recipe, recipe.getPrice() );
+                            times[i] = System.nanoTime() - begin;
+                        }
+                        return times;
+                    }
+                } ) );
+            }
+
+            final long[] all = new long[threads * orders];
+            int n = 0;
+            for ( final Future<long[]> f : futures ) {
+                final long[] times = f.get();
+                System.arraycopy( times, 0, all, n, times.length );
+                n += times.length;
+            }
+            return all;
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns a percentile of sorted latencies, in milliseconds.
+     *
+     * @param sorted
+     *            latencies in nanoseconds, sorted ascending
+     * @param p
+     *            percentile, between 0 and 1
+     * @return latency at that percentile in milliseconds
+     */
+    private static double percentile ( final long[] sorted, final double p ) {
+        final int index = (int) Math.min( sorted.length - 1, Math.ceil( p * sorted.length ) - 1 );
+        return sorted[Math.max( index, 0 )] / 1e6;
+    }
+}
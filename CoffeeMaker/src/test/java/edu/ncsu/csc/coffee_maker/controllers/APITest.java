@@ -1,8 +1,12 @@
 package edu.ncsu.csc.coffee_maker.controllers;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import org.hamcrest.Matchers;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -58,4 +62,36 @@ public class APITest {
         mvc.perform( get( "/api/v1/inventory" ) ).andExpect( status().isOk() );
     }
 
+    /**
+     * Tests that subscribing to inventory events starts a stream and sends
+     * the current inventory straight away.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInventoryEvents () throws Exception {
+        mvc.perform( get( "/api/v1/inventory/events" ) ).andExpect( request().asyncStarted() )
+                .andExpect( content().string( Matchers.containsString( "event:inventory" ) ) )
+                .andExpect( content().string( Matchers.containsString( "\"coffee\":" ) ) );
+    }
+
+    /**
+     * Tests that the application reports itself ready once warm-up has loaded
+     * the database, inventory and recipes.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReady () throws Exception {
+        final long deadline = System.currentTimeMillis() + 30000;
+        while ( mvc.perform( get( "/api/v1/ready" ) ).andReturn().getResponse().getStatus() != 200 ) {
+            if ( System.currentTimeMillis() > deadline ) {
+                Assert.fail( "Warm-up did not finish" );
+            }
+            Thread.sleep( 100 );
+        }
+        mvc.perform( get( "/api/v1/ready" ) ).andExpect( status().isOk() )
+                .andExpect( content().string( "{\"ready\":true}" ) );
+    }
+
 }
@@ -0,0 +1,200 @@
+package edu.ncsu.csc.coffee_maker.controllers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import edu.ncsu.csc.coffee_maker.Application;
+import edu.ncsu.csc.coffee_maker.models.InventoryStore;
+import edu.ncsu.csc.coffee_maker.models.RecipeBook;
+import edu.ncsu.csc.coffee_maker.models.persistent.Inventory;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+
+/**
+ * Tests the batch make-coffee endpoint: best-effort and all-or-nothing orders,
+ * the outcome and change of each line, and malformed orders.
+ *
+ * Each test uses one recipe that needs a little more coffee than the
+ * inventory held before the test, and stocks exactly enough coffee for one
+ * drink of it, so that a second drink always runs out whatever other tests
+ * left in the inventory.
+ *
+ * @author sbutler2901
+ */
+@RunWith ( SpringRunner.class )
+@SpringBootTest
+@AutoConfigureMockMvc
+public class BatchOrderTest {
+
+    /** Path of the batch endpoint */
+    private static final String   ORDER = "/api/v1/makecoffee";
+
+    /** Name of the recipe the tests order */
+    private static final String   NAME  = "BatchOrderTest Espresso";
+
+    /** Price of the recipe */
+    private static final int      PRICE = 50;
+
+    /** Handles requests to the REST API */
+    private MockMvc               mvc;
+
+    /** The application */
+    @Autowired
+    private WebApplicationContext context;
+
+    /** The live inventory */
+    private Inventory             inventory;
+
+    /** Coffee left once one drink is made */
+    private int                   coffeeAfterOne;
+
+    /**
+     * Adds the recipe and stocks coffee for exactly one drink of it.
+     */
+    @Before
+    public void setup () {
+        mvc = MockMvcBuilders.webAppContextSetup( context ).build();
+        inventory = Application.getCoffeeMaker().getInventory();
+
+        coffeeAfterOne = inventory.getCoffee();
+        final Recipe espresso = new Recipe();
+        espresso.setName( NAME );
+        espresso.setPrice( PRICE );
+        espresso.setCoffee( coffeeAfterOne + 1 );
+        espresso.setMilk( 0 );
+        espresso.setSugar( 0 );
+        espresso.setChocolate( 0 );
+        assertTrue( "The recipe book has no room for the test recipe", book().addRecipe( espresso ) );
+        InventoryStore.getInstance().addIngredients( coffeeAfterOne + 1, 0, 0, 0 );
+    }
+
+    /**
+     * Removes the recipe.
+     */
+    @After
+    public void tearDown () {
+        final Recipe espresso = book().findRecipe( NAME );
+        if ( espresso != null ) {
+            book().deleteRecipe( espresso );
+        }
+    }
+
+    /**
+     * Returns the application's recipe book.
+     *
+     * @return recipe book
+     */
+    private static RecipeBook book () {
+        return Application.getCoffeeMaker().getRecipeBook();
+    }
+
+    /**
+     * Tests that a best-effort order makes each line it can and reports every
+     * line's outcome and change.
+     *
+     * @throws Exception
+     *             if the request fails
+     */
+    @Test
+    public void testBestEffort () throws Exception {
+        final String body = "{\"allOrNothing\":false,\"lines\":[" + line( NAME, 75 ) + "," + line( NAME, 60 ) + ","
+                + line( NAME, 10 ) + "," + line( "BatchOrderTest Missing", 5 ) + "]}";
+        mvc.perform( post( ORDER ).contentType( MediaType.APPLICATION_JSON ).content( body ) )
+                .andExpect( status().isOk() ).andExpect( jsonPath( "$.lines[0].status" ).value( "MADE" ) )
+                .andExpect( jsonPath( "$.lines[0].change" ).value( 75 - PRICE ) )
+                .andExpect( jsonPath( "$.lines[1].status" ).value( "INSUFFICIENT_INVENTORY" ) )
+                .andExpect( jsonPath( "$.lines[1].change" ).value( 60 ) )
+                .andExpect( jsonPath( "$.lines[2].status" ).value( "INSUFFICIENT_PAYMENT" ) )
+                .andExpect( jsonPath( "$.lines[2].change" ).value( 10 ) )
+                .andExpect( jsonPath( "$.lines[3].status" ).value( "RECIPE_NOT_FOUND" ) )
+                .andExpect( jsonPath( "$.lines[3].change" ).value( 5 ) );
+
+        assertEquals( coffeeAfterOne, inventory.getCoffee() );
+    }
+
+    /**
+     * Tests that an all-or-nothing order that cannot be made in full, for want
+     * of ingredients or of payment, makes nothing, refunds every line and
+     * answers 409 Conflict.
+     *
+     * @throws Exception
+     *             if the request fails
+     */
+    @Test
+    public void testAllOrNothing () throws Exception {
+        final int before = inventory.getCoffee();
+        final String body = "{\"allOrNothing\":true,\"lines\":[" + line( NAME, 50 ) + "," + line( NAME, 70 ) + "]}";
+        mvc.perform( post( ORDER ).contentType( MediaType.APPLICATION_JSON ).content( body ) )
+                .andExpect( status().isConflict() )
+                .andExpect( jsonPath( "$.lines[0].status" ).value( "INSUFFICIENT_INVENTORY" ) )
+                .andExpect( jsonPath( "$.lines[0].change" ).value( 50 ) )
+                .andExpect( jsonPath( "$.lines[1].status" ).value( "INSUFFICIENT_INVENTORY" ) )
+                .andExpect( jsonPath( "$.lines[1].change" ).value( 70 ) );
+        assertEquals( before, inventory.getCoffee() );
+
+        // An underpaid line stops a line that could have been made
+        final String underpaid = "{\"allOrNothing\":true,\"lines\":[" + line( NAME, 50 ) + "," + line( NAME, 10 )
+                + "]}";
+        mvc.perform( post( ORDER ).contentType( MediaType.APPLICATION_JSON ).content( underpaid ) )
+                .andExpect( status().isConflict() ).andExpect( jsonPath( "$.lines[0].status" ).value( "NOT_MADE" ) )
+                .andExpect( jsonPath( "$.lines[0].change" ).value( 50 ) )
+                .andExpect( jsonPath( "$.lines[1].status" ).value( "INSUFFICIENT_PAYMENT" ) )
+                .andExpect( jsonPath( "$.lines[1].change" ).value( 10 ) );
+        assertEquals( before, inventory.getCoffee() );
+
+        // The same order for one drink goes through
+        mvc.perform( post( ORDER ).contentType( MediaType.APPLICATION_JSON )
+                .content( "{\"allOrNothing\":true,\"lines\":[" + line( NAME, 50 ) + "]}" ) )
+                .andExpect( status().isOk() ).andExpect( jsonPath( "$.lines[0].status" ).value( "MADE" ) )
+                .andExpect( jsonPath( "$.lines[0].change" ).value( 0 ) );
+        assertEquals( coffeeAfterOne, inventory.getCoffee() );
+    }
+
+    /**
+     * Tests that an order without drinks, or with an empty line, is refused
+     * with 400 Bad Request.
+     *
+     * @throws Exception
+     *             if the request fails
+     */
+    @Test
+    public void testMalformedOrders () throws Exception {
+        mvc.perform( post( ORDER ).contentType( MediaType.APPLICATION_JSON ).content( "{\"lines\":[]}" ) )
+                .andExpect( status().isBadRequest() );
+        mvc.perform( post( ORDER ).contentType( MediaType.APPLICATION_JSON ).content( "{}" ) )
+                .andExpect( status().isBadRequest() );
+        mvc.perform( post( ORDER ).contentType( MediaType.APPLICATION_JSON )
+                .content( "{\"lines\":[" + line( NAME, 50 ) + ",null]}" ) ).andExpect( status().isBadRequest() );
+
+        // Nothing was made for the order with the empty line
+        assertEquals( coffeeAfterOne + ( coffeeAfterOne + 1 ), inventory.getCoffee() );
+    }
+
+    /**
+     * Builds the JSON for one line of an order.
+     *
+     * @param recipe
+     *            recipe name
+     * @param amtPaid
+     *            amount paid
+     * @return the line
+     */
+    private static String line ( final String recipe, final int amtPaid ) {
+        return "{\"recipe\":\"" + recipe + "\",\"amtPaid\":" + amtPaid + "}";
+    }
+}
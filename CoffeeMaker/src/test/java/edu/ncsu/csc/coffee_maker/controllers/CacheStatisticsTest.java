@@ -0,0 +1,222 @@
+package edu.ncsu.csc.coffee_maker.controllers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.sf.ehcache.CacheManager;
+
+import edu.ncsu.csc.coffee_maker.Application;
+import edu.ncsu.csc.coffee_maker.models.RecipeBook;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * Tests the Hibernate recipe caches through the counters reported by GET
+ * /cache/statistics: reloading an unchanged catalog is served from the caches,
+ * and an edit or delete makes the next reload go to the database and see the
+ * change.
+ *
+ * @author sbutler2901
+ */
+@RunWith ( SpringRunner.class )
+@SpringBootTest
+@AutoConfigureMockMvc
+public class CacheStatisticsTest {
+
+    /** Path of the cache counters */
+    private static final String   STATISTICS = "/api/v1/cache/statistics";
+
+    /** Name of the recipe the tests change */
+    private static final String   NAME       = "CacheStatisticsTestLatte";
+
+    /** Handles requests to the REST API */
+    private MockMvc               mvc;
+
+    /** The application */
+    @Autowired
+    private WebApplicationContext context;
+
+    /** Reads the counters */
+    private final ObjectMapper    mapper     = new ObjectMapper();
+
+    /**
+     * Adds the recipe and loads the catalog into the caches.
+     */
+    @Before
+    public void setup () {
+        mvc = MockMvcBuilders.webAppContextSetup( context ).build();
+
+        final Recipe latte = new Recipe();
+        latte.setName( NAME );
+        latte.setPrice( 40 );
+        latte.setCoffee( 1 );
+        latte.setMilk( 2 );
+        latte.setSugar( 0 );
+        latte.setChocolate( 0 );
+        assertTrue( "The recipe book has no room for the test recipe", book().addRecipe( latte ) );
+        book().updateRecipes();
+    }
+
+    /**
+     * Removes the recipe, if a test left it.
+     */
+    @After
+    public void tearDown () {
+        final Recipe latte = book().findRecipe( NAME );
+        if ( latte != null ) {
+            book().deleteRecipe( latte );
+        }
+    }
+
+    /**
+     * Returns the application's recipe book.
+     *
+     * @return recipe book
+     */
+    private static RecipeBook book () {
+        return Application.getCoffeeMaker().getRecipeBook();
+    }
+
+    /**
+     * Reads the cache counters.
+     *
+     * @return counters, by name
+     * @throws Exception
+     *             if the request fails
+     */
+    @SuppressWarnings ( "unchecked" )
+    private Map<String, Number> statistics () throws Exception {
+        final String body = mvc.perform( get( STATISTICS ) ).andExpect( status().isOk() ).andReturn().getResponse()
+                .getContentAsString();
+        return mapper.readValue( body, Map.class );
+    }
+
+    /**
+     * Returns how much a counter moved on between two readings.
+     *
+     * @param before
+     *            earlier counters
+     * @param after
+     *            later counters
+     * @param name
+     *            counter
+     * @return difference
+     */
+    private static long delta ( final Map<String, Number> before, final Map<String, Number> after,
+            final String name ) {
+        assertNotNull( "No counter " + name, after.get( name ) );
+        return after.get( name ).longValue() - before.get( name ).longValue();
+    }
+
+    /**
+     * Tests that reloading an unchanged catalog hits the query cache once and
+     * finds every recipe it names in the recipe region, without a miss.
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testReloadServedFromCache () throws Exception {
+        final Map<String, Number> before = statistics();
+        book().updateRecipes();
+        final Map<String, Number> after = statistics();
+
+        assertEquals( 1, delta( before, after, "queryHits" ) );
+        assertEquals( 0, delta( before, after, "queryMisses" ) );
+        assertEquals( book().size(), delta( before, after, "recipeHits" ) );
+        assertEquals( 0, delta( before, after, "recipeMisses" ) );
+    }
+
+    /**
+     * Tests that after an edit the next reload misses the query cache and
+     * returns the edited recipe, and the one after is served from the caches
+     * again.
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testEditInvalidates () throws Exception {
+        final List<Recipe> recipes = book().getRecipes();
+        int index = -1;
+        for ( int i = 0; i < recipes.size(); i++ ) {
+            if ( NAME.equals( recipes.get( i ).getName() ) ) {
+                index = i;
+            }
+        }
+        final Recipe changes = new Recipe();
+        changes.setName( NAME );
+        changes.setPrice( 45 );
+        changes.setCoffee( 1 );
+        changes.setMilk( 3 );
+        changes.setSugar( 0 );
+        changes.setChocolate( 0 );
+        assertEquals( NAME, book().editRecipe( index, changes ) );
+
+        Map<String, Number> before = statistics();
+        book().updateRecipes();
+        Map<String, Number> after = statistics();
+        assertEquals( 1, delta( before, after, "queryMisses" ) );
+        assertEquals( 0, delta( before, after, "queryHits" ) );
+        assertEquals( 45, (int) book().findRecipe( NAME ).getPrice() );
+        assertEquals( 3, (int) book().findRecipe( NAME ).getMilk() );
+
+        before = after;
+        book().updateRecipes();
+        after = statistics();
+        assertEquals( 1, delta( before, after, "queryHits" ) );
+        assertEquals( book().size(), delta( before, after, "recipeHits" ) );
+    }
+
+    /**
+     * Tests that after a delete through the API the next reload misses the
+     * query cache and no longer returns the recipe.
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testDeleteInvalidates () throws Exception {
+        mvc.perform( delete( "/api/v1/recipes/" + NAME ) ).andExpect( status().isOk() );
+
+        final Map<String, Number> before = statistics();
+        book().updateRecipes();
+        final Map<String, Number> after = statistics();
+        assertEquals( 1, delta( before, after, "queryMisses" ) );
+        assertNull( book().findRecipe( NAME ) );
+    }
+
+    /**
+     * Tests that a recipe book larger than the configured recipe region grows
+     * the region to hold all of its recipes.
+     */
+    @Test
+    public void testRegionFitsCapacity () {
+        new RecipeBook( 5000 );
+        final long size = CacheManager.getCacheManager( HibernateUtil.CACHE_MANAGER )
+                .getEhcache( HibernateUtil.RECIPE_REGION ).getCacheConfiguration().getMaxEntriesLocalHeap();
+        assertTrue( "Region holds " + size, size == 0 || size >= 5000 );
+    }
+}
@@ -0,0 +1,240 @@
+package edu.ncsu.csc.coffee_maker.controllers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import edu.ncsu.csc.coffee_maker.Application;
+import edu.ncsu.csc.coffee_maker.models.InventoryStore;
+import edu.ncsu.csc.coffee_maker.models.RecipeBook;
+import edu.ncsu.csc.coffee_maker.models.persistent.Inventory;
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+import edu.ncsu.csc.coffee_maker.services.OrderDispatcher;
+
+/**
+ * Tests single-drink orders made asynchronously through the OrderDispatcher:
+ * a made order, and a full dispenser queue under each policy. The tests that
+ * need a full queue give the controller a dispatcher of their own, with one
+ * dispenser and room for one waiting order, and fill both.
+ *
+ * @author sbutler2901
+ */
+@RunWith ( SpringRunner.class )
+@SpringBootTest
+@AutoConfigureMockMvc
+public class OrderDispatcherTest {
+
+    /** Name of the recipe the tests order */
+    private static final String   NAME    = "DispatcherTestMocha";
+
+    /** Path that orders the recipe */
+    private static final String   ORDER   = "/api/v1/makecoffee/" + NAME;
+
+    /** Price of the recipe */
+    private static final int      PRICE   = 50;
+
+    /** Handles requests to the REST API */
+    private MockMvc               mvc;
+
+    /** The application */
+    @Autowired
+    private WebApplicationContext context;
+
+    /** The controller, whose dispatcher some tests replace */
+    @Autowired
+    private RESTAPIController     controller;
+
+    /** The application's own dispatcher */
+    private OrderDispatcher       original;
+
+    /** Dispatcher put in place by a test, if any */
+    private OrderDispatcher       replacement;
+
+    /** Lets the dispenser of a replacement dispatcher finish */
+    private final CountDownLatch  release = new CountDownLatch( 1 );
+
+    /** The live inventory */
+    private Inventory             inventory;
+
+    /**
+     * Adds the recipe and the coffee for one drink of it.
+     */
+    @Before
+    public void setup () {
+        mvc = MockMvcBuilders.webAppContextSetup( context ).build();
+        original = controller.orderDispatcher;
+        inventory = Application.getCoffeeMaker().getInventory();
+
+        final Recipe mocha = new Recipe();
+        mocha.setName( NAME );
+        mocha.setPrice( PRICE );
+        mocha.setCoffee( 1 );
+        mocha.setMilk( 0 );
+        mocha.setSugar( 0 );
+        mocha.setChocolate( 0 );
+        assertTrue( "The recipe book has no room for the test recipe", book().addRecipe( mocha ) );
+        InventoryStore.getInstance().addIngredients( 1, 0, 0, 0 );
+    }
+
+    /**
+     * Puts the application's dispatcher back and removes the recipe.
+     *
+     * @throws InterruptedException
+     *             if interrupted while stopping the replacement dispatcher
+     */
+    @After
+    public void tearDown () throws InterruptedException {
+        controller.orderDispatcher = original;
+        release.countDown();
+        if ( replacement != null ) {
+            replacement.stop();
+        }
+        final Recipe mocha = book().findRecipe( NAME );
+        if ( mocha != null ) {
+            book().deleteRecipe( mocha );
+        }
+    }
+
+    /**
+     * Returns the application's recipe book.
+     *
+     * @return recipe book
+     */
+    private static RecipeBook book () {
+        return Application.getCoffeeMaker().getRecipeBook();
+    }
+
+    /**
+     * Gives the controller a dispatcher with one dispenser and room for one
+     * waiting order, and fills both until the test ends.
+     *
+     * @param whenFull
+     *            policy for a full queue
+     * @param maxWait
+     *            with the wait policy, milliseconds to wait for room
+     */
+    private void fillDispatcher ( final String whenFull, final long maxWait ) {
+        replacement = new OrderDispatcher();
+        ReflectionTestUtils.setField( replacement, "dispensers", 1 );
+        ReflectionTestUtils.setField( replacement, "queueCapacity", 1 );
+        ReflectionTestUtils.setField( replacement, "whenFull", whenFull );
+        ReflectionTestUtils.setField( replacement, "maxWait", maxWait );
+        replacement.start();
+
+        final ThreadPoolExecutor executor = (ThreadPoolExecutor) ReflectionTestUtils.getField( replacement,
+                "executor" );
+        // The first task starts the only dispenser and holds it; the second
+        // takes the only place in the queue
+        executor.execute( new Runnable() {
+            @Override
+            public void run () {
+                try {
+                    release.await();
+                }
+                catch ( final InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+        executor.execute( new Runnable() {
+            @Override
+            public void run () {
+                // Only takes up room
+            }
+        } );
+        assertEquals( 1, replacement.getQueueDepth() );
+        controller.orderDispatcher = replacement;
+    }
+
+    /**
+     * Places an order and returns the response sent once it is done.
+     *
+     * @param amtPaid
+     *            amount paid
+     * @return the dispatched response
+     * @throws Exception
+     *             if a request fails
+     */
+    private ResultActions order ( final int amtPaid ) throws Exception {
+        final MvcResult started = mvc.perform(
+                post( ORDER ).contentType( MediaType.APPLICATION_JSON ).content( Integer.toString( amtPaid ) ) )
+                .andExpect( request().asyncStarted() ).andReturn();
+        return mvc.perform( asyncDispatch( started ) );
+    }
+
+    /**
+     * Tests that an order is made on a dispenser thread and the change is
+     * sent once it is done.
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testOrderMade () throws Exception {
+        final int before = inventory.getCoffee();
+        order( 60 ).andExpect( status().isOk() ).andExpect( jsonPath( "$.result" ).value( "success" ) )
+                .andExpect( jsonPath( "$.change" ).value( 60 - PRICE ) );
+        assertEquals( before - 1, inventory.getCoffee() );
+    }
+
+    /**
+     * Tests that with the reject policy an order that finds the queue full is
+     * refused at once with 429 Too Many Requests and nothing is made.
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testFullQueueRejected () throws Exception {
+        fillDispatcher( "reject", 0 );
+        final int before = inventory.getCoffee();
+
+        order( PRICE ).andExpect( status().isTooManyRequests() );
+        assertEquals( before, inventory.getCoffee() );
+        assertEquals( 1, replacement.getQueueDepth() );
+    }
+
+    /**
+     * Tests that with the wait policy an order that finds the queue full waits
+     * for room for up to maxWait, then is refused with 429 Too Many Requests.
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testWaitTimesOut () throws Exception {
+        final long maxWait = 200;
+        fillDispatcher( "wait", maxWait );
+        final int before = inventory.getCoffee();
+
+        final long start = System.nanoTime();
+        order( PRICE ).andExpect( status().isTooManyRequests() );
+        final long waited = ( System.nanoTime() - start ) / 1000000;
+
+        assertTrue( "Refused after " + waited + " ms", waited >= maxWait );
+        assertEquals( before, inventory.getCoffee() );
+    }
+}
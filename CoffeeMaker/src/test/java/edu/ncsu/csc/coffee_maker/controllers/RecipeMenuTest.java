@@ -0,0 +1,150 @@
+package edu.ncsu.csc.coffee_maker.controllers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+/**
+ * Tests the pre-serialized recipe menu served by GET /recipes: entity tags
+ * for each encoding, 304 Not Modified for a client whose copy is current, and
+ * the gzipped body.
+ *
+ * @author sbutler2901
+ */
+@RunWith ( SpringRunner.class )
+@SpringBootTest
+@AutoConfigureMockMvc
+public class RecipeMenuTest {
+
+    /** Path of the menu */
+    private static final String   RECIPES = "/api/v1/recipes";
+
+    /** Handles requests to the REST API */
+    private MockMvc               mvc;
+
+    /** The application */
+    @Autowired
+    private WebApplicationContext context;
+
+    /**
+     * Sets up the tests.
+     */
+    @Before
+    public void setup () {
+        mvc = MockMvcBuilders.webAppContextSetup( context ).build();
+    }
+
+    /**
+     * Tests that a client sending back the tag it was given gets 304 Not
+     * Modified with the same tag and no body.
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testNotModified () throws Exception {
+        final MockHttpServletResponse first = mvc.perform( get( RECIPES ) ).andExpect( status().isOk() )
+                .andReturn().getResponse();
+        final String etag = first.getHeader( HttpHeaders.ETAG );
+        assertNotNull( etag );
+        assertEquals( HttpHeaders.ACCEPT_ENCODING, first.getHeader( HttpHeaders.VARY ) );
+
+        final MockHttpServletResponse again = mvc
+                .perform( get( RECIPES ).header( HttpHeaders.IF_NONE_MATCH, "\"other\", " + etag ) )
+                .andExpect( status().isNotModified() ).andExpect( header().string( HttpHeaders.ETAG, etag ) )
+                .andReturn().getResponse();
+        assertEquals( 0, again.getContentAsByteArray().length );
+
+        mvc.perform( get( RECIPES ).header( HttpHeaders.IF_NONE_MATCH, "\"other\"" ) )
+                .andExpect( status().isOk() );
+    }
+
+    /**
+     * Tests that the gzipped menu has a tag of its own, decompresses to the
+     * plain menu, and that either tag answers a conditional request.
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testGzipVariant () throws Exception {
+        final MockHttpServletResponse plain = mvc.perform( get( RECIPES ) ).andExpect( status().isOk() )
+                .andReturn().getResponse();
+        final MockHttpServletResponse zipped = mvc
+                .perform( get( RECIPES ).header( HttpHeaders.ACCEPT_ENCODING, "deflate, gzip" ) )
+                .andExpect( status().isOk() ).andExpect( header().string( HttpHeaders.CONTENT_ENCODING, "gzip" ) )
+                .andReturn().getResponse();
+
+        final String etag = plain.getHeader( HttpHeaders.ETAG );
+        final String gzipEtag = zipped.getHeader( HttpHeaders.ETAG );
+        assertNotEquals( etag, gzipEtag );
+        assertTrue( gzipEtag, gzipEtag.endsWith( "-gzip\"" ) );
+        assertArrayEquals( plain.getContentAsByteArray(), gunzip( zipped.getContentAsByteArray() ) );
+
+        mvc.perform( get( RECIPES ).header( HttpHeaders.ACCEPT_ENCODING, "gzip" )
+                .header( HttpHeaders.IF_NONE_MATCH, gzipEtag ) ).andExpect( status().isNotModified() )
+                .andExpect( header().string( HttpHeaders.ETAG, gzipEtag ) );
+        mvc.perform( get( RECIPES ).header( HttpHeaders.IF_NONE_MATCH, "W/" + gzipEtag ) )
+                .andExpect( status().isNotModified() ).andExpect( header().string( HttpHeaders.ETAG, etag ) );
+
+        // gzip;q=0 refuses gzip
+        mvc.perform( get( RECIPES ).header( HttpHeaders.ACCEPT_ENCODING, "gzip;q=0" ) )
+                .andExpect( status().isOk() ).andExpect( header().doesNotExist( HttpHeaders.CONTENT_ENCODING ) )
+                .andExpect( header().string( HttpHeaders.ETAG, etag ) );
+    }
+
+    /**
+     * Tests that If-None-Match: * matches the menu, whatever its tag.
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testIfNoneMatchAny () throws Exception {
+        mvc.perform( get( RECIPES ).header( HttpHeaders.IF_NONE_MATCH, "*" ) ).andExpect( status().isNotModified() );
+    }
+
+    /**
+     * Decompresses gzipped bytes.
+     *
+     * @param bytes
+     *            gzipped bytes
+     * @return the original bytes
+     * @throws IOException
+     *             if the bytes are not gzipped
+     */
+    private static byte[] gunzip ( final byte[] bytes ) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try ( GZIPInputStream in = new GZIPInputStream( new ByteArrayInputStream( bytes ) ) ) {
+            final byte[] buffer = new byte[4096];
+            int n;
+            while ( ( n = in.read( buffer ) ) > 0 ) {
+                out.write( buffer, 0, n );
+            }
+        }
+        return out.toByteArray();
+    }
+}
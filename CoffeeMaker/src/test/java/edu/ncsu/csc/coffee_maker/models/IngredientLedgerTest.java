@@ -0,0 +1,159 @@
+package edu.ncsu.csc.coffee_maker.models;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Tests the IngredientLedger, including that concurrent reservations never
+ * oversell an ingredient.
+ *
+ * @author sbutler2901
+ */
+public class IngredientLedgerTest {
+
+    /** Number of threads competing for ingredients in the stress test */
+    private static final int THREADS  = 64;
+    /** Number of reservations each thread attempts */
+    private static final int ATTEMPTS = 2000;
+
+    /**
+     * Tests that a reservation takes all of the ingredients or none of them.
+     */
+    @Test
+    public void testReserveAllOrNothing () {
+        final IngredientLedger ledger = new IngredientLedger();
+        ledger.setAll( 5, 5, 5, 0 );
+
+        final long version = ledger.getVersion();
+
+        assertFalse( ledger.reserve( 1, 1, 1, 1 ) );
+        assertArrayEquals( new int[] { 5, 5, 5, 0 }, ledger.snapshot() );
+        assertEquals( version, ledger.getVersion() );
+
+        assertTrue( ledger.reserve( 5, 2, 0, 0 ) );
+        assertArrayEquals( new int[] { 0, 3, 5, 0 }, ledger.snapshot() );
+        assertEquals( version + 1, ledger.getVersion() );
+        assertFalse( ledger.hasEnough( 1, 0, 0, 0 ) );
+
+        ledger.add( 1, 0, 0, 2 );
+        assertEquals( 1, ledger.get( IngredientLedger.COFFEE ) );
+        assertEquals( 2, ledger.get( IngredientLedger.CHOCOLATE ) );
+    }
+
+    /**
+     * Tests reserving several orders at once, in both modes.
+     */
+    @Test
+    public void testReserveEach () {
+        final IngredientLedger ledger = new IngredientLedger();
+        ledger.setAll( 3, 3, 3, 3 );
+        final int[] small = { 1, 1, 0, 0 };
+        final int[] large = { 2, 0, 0, 3 };
+
+        // The second and third orders together need 4 coffee
+        assertArrayEquals( new boolean[] { false, false, false },
+                ledger.reserveEach( true, small, large, small ) );
+        assertArrayEquals( new int[] { 3, 3, 3, 3 }, ledger.snapshot() );
+
+        assertArrayEquals( new boolean[] { true, true, false },
+                ledger.reserveEach( false, small, large, small ) );
+        assertArrayEquals( new int[] { 0, 2, 3, 0 }, ledger.snapshot() );
+
+        assertArrayEquals( new boolean[0], ledger.reserveEach( true ) );
+    }
+
+    /**
+     * Tests that invalid amounts are rejected without changing the ledger.
+     */
+    @Test
+    public void testInvalidAmounts () {
+        final IngredientLedger ledger = new IngredientLedger();
+        ledger.setAll( 1, 1, 1, 1 );
+        try {
+            ledger.reserve( -1, 0, 0, 0 );
+            fail( "Negative reservation accepted" );
+        }
+        catch ( final IllegalArgumentException e ) {
+            assertArrayEquals( new int[] { 1, 1, 1, 1 }, ledger.snapshot() );
+        }
+        try {
+            ledger.add( Integer.MAX_VALUE, 0, 0, 0 );
+            fail( "Overflowing addition accepted" );
+        }
+        catch ( final IllegalArgumentException e ) {
+            assertArrayEquals( new int[] { 1, 1, 1, 1 }, ledger.snapshot() );
+        }
+    }
+
+    /**
+     * Runs many threads that reserve overlapping recipes against a limited
+     * stock, then checks that exactly the stock was sold and never more.
+     *
+     * @throws Exception
+     *             if a worker fails
+     */
+    @Test
+    public void testNoOversellUnderContention () throws Exception {
+        final int stock = THREADS * ATTEMPTS / 4;
+        final IngredientLedger ledger = new IngredientLedger();
+        ledger.setAll( stock, stock, stock, stock );
+
+        // Recipes that share coffee but otherwise touch different ingredients
+        final int[][] recipes = { { 1, 1, 0, 0 }, { 1, 0, 1, 0 }, { 1, 0, 0, 1 }, { 2, 1, 1, 1 } };
+
+        final ExecutorService pool = Executors.newFixedThreadPool( THREADS );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+        try {
+            for ( int t = 0; t < THREADS; t++ ) {
+                final int[] recipe = recipes[t % recipes.length];
+                results.add( pool.submit( new Callable<int[]>() {
+                    @Override
+                    public int[] call () throws Exception {
+                        final int[] used = new int[IngredientLedger.INGREDIENTS];
+                        start.await();
+                        for ( int i = 0; i < ATTEMPTS; i++ ) {
+                            if ( ledger.reserve( recipe ) ) {
+                                for ( int k = 0; k < used.length; k++ ) {
+                                    used[k] += recipe[k];
+                                }
+                            }
+                        }
+                        return used;
+                    }
+                } ) );
+            }
+            start.countDown();
+
+            final int[] used = new int[IngredientLedger.INGREDIENTS];
+            for ( final Future<int[]> f : results ) {
+                final int[] u = f.get();
+                for ( int k = 0; k < used.length; k++ ) {
+                    used[k] += u[k];
+                }
+            }
+
+            final int[] left = ledger.snapshot();
+            for ( int k = 0; k < used.length; k++ ) {
+                assertTrue( "Ingredient " + k + " went negative", left[k] >= 0 );
+                assertEquals( "Ingredient " + k + " was oversold", stock, used[k] + left[k] );
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package edu.ncsu.csc.coffee_maker.models;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the InventoryJournal: records survive reopening the file, torn records
+ * are ignored, and a full journal reuses the slots of acknowledged records
+ * but never those of unacknowledged ones.
+ *
+ * @author sbutler2901
+ */
+public class InventoryJournalTest {
+
+    /** Journal file used by each test */
+    private Path file;
+
+    /**
+     * Creates an empty file for the journal.
+     *
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    @Before
+    public void setUp () throws IOException {
+        file = Files.createTempFile( "inventory", ".journal" );
+    }
+
+    /**
+     * Removes the journal file.
+     *
+     * @throws IOException
+     *             if the file cannot be removed
+     */
+    @After
+    public void tearDown () throws IOException {
+        Files.deleteIfExists( file );
+    }
+
+    /**
+     * Tests that unacknowledged records are found again after reopening, and
+     * that replaying them rebuilds the ledger.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testReplayAfterReopen () throws IOException {
+        try ( InventoryJournal journal = new InventoryJournal( file, 16, false ) ) {
+            assertEquals( 0, journal.lastSequence() );
+            assertEquals( 1, journal.append( InventoryJournal.SET, 0, 10, 10, 10, 10 ) );
+            assertEquals( 2, journal.append( InventoryJournal.USE, 7, 3, 1, 1, 0 ) );
+            assertEquals( 3, journal.append( InventoryJournal.ADD, 0, 0, 0, 0, 5 ) );
+            journal.acknowledge( 1 );
+        }
+
+        try ( InventoryJournal journal = new InventoryJournal( file, 16, false ) ) {
+            assertEquals( 3, journal.lastSequence() );
+            assertEquals( 1, journal.getAcknowledged() );
+
+            final List<InventoryJournal.Record> records = journal.recordsAfter( journal.getAcknowledged() );
+            assertEquals( 2, records.size() );
+            assertEquals( 2, records.get( 0 ).getSequence() );
+            assertEquals( InventoryJournal.USE, records.get( 0 ).getOp() );
+            assertEquals( 7, records.get( 0 ).getRecipeId() );
+
+            final IngredientLedger ledger = new IngredientLedger();
+            ledger.setAll( 10, 10, 10, 10 );
+            for ( final InventoryJournal.Record record : records ) {
+                record.applyTo( ledger );
+            }
+            assertArrayEquals( new int[] { 7, 9, 9, 15 }, ledger.snapshot() );
+        }
+    }
+
+    /**
+     * Tests that a record damaged by a crash, and everything after it, is
+     * left out.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testTornRecordEndsJournal () throws IOException {
+        try ( InventoryJournal journal = new InventoryJournal( file, 16, false ) ) {
+            journal.append( InventoryJournal.USE, 1, 1, 0, 0, 0 );
+            journal.append( InventoryJournal.USE, 1, 1, 0, 0, 0 );
+            journal.append( InventoryJournal.USE, 1, 1, 0, 0, 0 );
+        }
+
+        // Flip a byte in the middle of the second record
+        try ( RandomAccessFile raw = new RandomAccessFile( file.toFile(), "rw" ) ) {
+            final long at = 32 + InventoryJournal.RECORD_SIZE + 20;
+            raw.seek( at );
+            final int b = raw.read();
+            raw.seek( at );
+            raw.write( b ^ 0xff );
+        }
+
+        try ( InventoryJournal journal = new InventoryJournal( file, 16, false ) ) {
+            assertEquals( 1, journal.lastSequence() );
+            assertEquals( 1, journal.recordsAfter( 0 ).size() );
+
+            // The next record takes the damaged one's place
+            assertEquals( 2, journal.append( InventoryJournal.ADD, 0, 1, 1, 1, 1 ) );
+        }
+    }
+
+    /**
+     * Tests that a journal full of unacknowledged records refuses new ones,
+     * and takes them again once the old ones are acknowledged.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testFullJournal () throws IOException {
+        try ( InventoryJournal journal = new InventoryJournal( file, 2, false ) ) {
+            journal.append( InventoryJournal.USE, 1, 1, 0, 0, 0 );
+            journal.append( InventoryJournal.USE, 1, 1, 0, 0, 0 );
+            try {
+                journal.append( InventoryJournal.USE, 1, 1, 0, 0, 0 );
+                fail( "A full journal should not take records that would overwrite unsaved ones" );
+            }
+            catch ( final IllegalStateException e ) {
+                assertTrue( e.getMessage().contains( "full" ) );
+            }
+
+            journal.acknowledge( 2 );
+            assertEquals( 3, journal.append( InventoryJournal.USE, 1, 1, 0, 0, 0 ) );
+            assertEquals( 1, journal.recordsAfter( 0 ).size() );
+        }
+
+        try ( InventoryJournal journal = new InventoryJournal( file, 2, false ) ) {
+            assertEquals( 3, journal.lastSequence() );
+            assertEquals( 1, journal.recordsAfter( journal.getAcknowledged() ).size() );
+        }
+    }
+
+    /**
+     * Tests that records keep being taken well past the journal's capacity
+     * while acknowledgements lag a few records behind, and that the records
+     * not yet acknowledged survive reopening.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testWrapsWithLaggingAcks () throws IOException {
+        try ( InventoryJournal journal = new InventoryJournal( file, 4, false ) ) {
+            for ( long seq = 1; seq <= 50; seq++ ) {
+                assertEquals( seq, journal.append( InventoryJournal.USE, 1, (int) seq, 0, 0, 0 ) );
+                journal.acknowledge( seq - 2 );
+            }
+            assertEquals( 48, journal.getAcknowledged() );
+
+            // Two slots hold unacknowledged records; two more fit, then no more
+            journal.append( InventoryJournal.USE, 1, 51, 0, 0, 0 );
+            journal.append( InventoryJournal.USE, 1, 52, 0, 0, 0 );
+            try {
+                journal.append( InventoryJournal.USE, 1, 53, 0, 0, 0 );
+                fail( "A journal must not overwrite records that are not acknowledged" );
+            }
+            catch ( final IllegalStateException e ) {
+                assertTrue( e.getMessage().contains( "full" ) );
+            }
+        }
+
+        try ( InventoryJournal journal = new InventoryJournal( file, 4, false ) ) {
+            assertEquals( 52, journal.lastSequence() );
+            final List<InventoryJournal.Record> records = journal.recordsAfter( journal.getAcknowledged() );
+            assertEquals( 4, records.size() );
+            for ( int i = 0; i < records.size(); i++ ) {
+                assertEquals( 49 + i, records.get( i ).getSequence() );
+                assertEquals( 49 + i, records.get( i ).getAmounts()[0] );
+            }
+
+            journal.acknowledge( 50 );
+            assertEquals( 53, journal.append( InventoryJournal.USE, 1, 53, 0, 0, 0 ) );
+            assertEquals( 3, journal.recordsAfter( journal.getAcknowledged() ).size() );
+        }
+    }
+
+    /**
+     * Tests that restarting keeps new sequence numbers ahead of what the
+     * database has seen, but never drops unacknowledged records.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testRestartAfter () throws IOException {
+        try ( InventoryJournal journal = new InventoryJournal( file, 16, false ) ) {
+            journal.append( InventoryJournal.USE, 1, 1, 0, 0, 0 );
+            journal.restartAfter( 100 );
+            assertEquals( 1, journal.lastSequence() );
+
+            journal.acknowledge( 1 );
+            journal.restartAfter( 100 );
+            assertEquals( 100, journal.lastSequence() );
+            assertTrue( journal.recordsAfter( 0 ).isEmpty() );
+            assertEquals( 101, journal.append( InventoryJournal.USE, 1, 1, 0, 0, 0 ) );
+        }
+    }
+}
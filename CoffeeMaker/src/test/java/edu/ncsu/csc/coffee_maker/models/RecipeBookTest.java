@@ -0,0 +1,177 @@
+package edu.ncsu.csc.coffee_maker.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.coffee_maker.models.persistent.Recipe;
+
+/**
+ * Tests the RecipeBook against the database (the embedded H2 profile in the
+ * test build): lookups by name and ID, adding and deleting at capacity, and
+ * the read-only lists it hands out.
+ *
+ * @author sbutler2901
+ */
+public class RecipeBookTest {
+
+    /** Recipes added beyond those already in the database */
+    private static final int ROOM = 3;
+
+    /** The book under test */
+    private RecipeBook       book;
+
+    /** Recipes in the database before the test */
+    private int              existing;
+
+    /**
+     * Creates a book with room for a few more recipes.
+     */
+    @Before
+    public void setUp () {
+        existing = new RecipeBook( Integer.MAX_VALUE ).size();
+        book = new RecipeBook( existing + ROOM );
+    }
+
+    /**
+     * Removes the recipes the test added.
+     */
+    @After
+    public void tearDown () {
+        for ( final Recipe r : new ArrayList<Recipe>( book.getRecipes() ) ) {
+            if ( r.getName().startsWith( "RecipeBookTest" ) ) {
+                book.deleteRecipe( r );
+            }
+        }
+    }
+
+    /**
+     * Creates a recipe.
+     *
+     * @param name
+     *            recipe name
+     * @param coffee
+     *            units of coffee
+     * @return the recipe
+     */
+    private static Recipe recipe ( final String name, final int coffee ) {
+        final Recipe r = new Recipe();
+        r.setName( name );
+        r.setPrice( 50 );
+        r.setCoffee( coffee );
+        r.setMilk( 1 );
+        r.setSugar( 1 );
+        r.setChocolate( 1 );
+        return r;
+    }
+
+    /**
+     * Tests finding recipes by name, ignoring case, and by ID.
+     */
+    @Test
+    public void testIndexedLookup () {
+        final Recipe latte = recipe( "RecipeBookTest Latte", 2 );
+        assertTrue( book.addRecipe( latte ) );
+
+        assertSame( latte, book.findRecipe( "RecipeBookTest Latte" ) );
+        assertSame( latte, book.findRecipe( "recipebooktest LATTE" ) );
+        assertSame( latte, book.findRecipeById( latte.getId() ) );
+        assertNull( book.findRecipe( "RecipeBookTest Mocha" ) );
+        assertNull( book.findRecipe( null ) );
+
+        // A name is taken whatever its case
+        assertFalse( book.addRecipe( recipe( "RECIPEBOOKTEST LATTE", 3 ) ) );
+
+        book.deleteRecipe( latte );
+        assertNull( book.findRecipe( "RecipeBookTest Latte" ) );
+        assertNull( book.findRecipeById( latte.getId() ) );
+    }
+
+    /**
+     * Tests that the book refuses recipes once full, and takes them again
+     * once one is deleted.
+     */
+    @Test
+    public void testAddDeleteAtCapacity () {
+        for ( int i = 0; i < ROOM; i++ ) {
+            assertTrue( book.addRecipe( recipe( "RecipeBookTest " + i, 1 ) ) );
+        }
+        assertEquals( existing + ROOM, book.size() );
+        assertEquals( existing + ROOM, book.getRecipes().size() );
+        assertFalse( book.addRecipe( recipe( "RecipeBookTest Extra", 1 ) ) );
+
+        book.deleteRecipe( book.findRecipe( "RecipeBookTest 1" ) );
+        assertEquals( existing + ROOM - 1, book.size() );
+        assertTrue( book.addRecipe( recipe( "RecipeBookTest Extra", 1 ) ) );
+
+        // Recipes are listed in the order they were added
+        final List<Recipe> all = book.getRecipes();
+        assertEquals( "RecipeBookTest 0", all.get( existing ).getName() );
+        assertEquals( "RecipeBookTest 2", all.get( existing + 1 ).getName() );
+        assertEquals( "RecipeBookTest Extra", all.get( existing + 2 ).getName() );
+    }
+
+    /**
+     * Tests that a list handed out does not change when the book does, is
+     * read-only, and is reused until the book changes.
+     */
+    @Test
+    public void testSnapshotConsistency () {
+        final long version = book.getVersion();
+        final List<Recipe> before = book.getRecipes();
+        assertSame( before, book.getRecipes() );
+
+        assertTrue( book.addRecipe( recipe( "RecipeBookTest Mocha", 1 ) ) );
+        assertTrue( book.getVersion() > version );
+        assertEquals( existing, before.size() );
+
+        final List<Recipe> after = book.getRecipes();
+        assertEquals( existing + 1, after.size() );
+        assertSame( after, book.getRecipes() );
+
+        try {
+            after.add( recipe( "RecipeBookTest Other", 1 ) );
+            fail( "The list handed out must be read-only" );
+        }
+        catch ( final UnsupportedOperationException e ) {
+            // expected
+        }
+
+        book.deleteRecipe( book.findRecipe( "RecipeBookTest Mocha" ) );
+        assertEquals( existing + 1, after.size() );
+        assertEquals( existing, book.getRecipes().size() );
+    }
+
+    /**
+     * Tests that editing a recipe saves and swaps in a new instance, leaving
+     * the one handed out before untouched.
+     */
+    @Test
+    public void testEditReplacesRecipe () {
+        final Recipe mocha = recipe( "RecipeBookTest Mocha", 1 );
+        assertTrue( book.addRecipe( mocha ) );
+        final int index = book.getRecipes().indexOf( mocha );
+
+        assertEquals( "RecipeBookTest Mocha", book.editRecipe( index, recipe( "RecipeBookTest Mocha", 4 ) ) );
+
+        final Recipe edited = book.findRecipe( "RecipeBookTest Mocha" );
+        assertEquals( 4, (int) edited.getCoffee() );
+        assertEquals( mocha.getId(), edited.getId() );
+        assertSame( edited, book.findRecipeById( mocha.getId() ) );
+        assertSame( edited, book.getRecipes().get( index ) );
+        assertEquals( 1, (int) mocha.getCoffee() );
+
+        // The saved recipe is what a fresh book loads
+        assertEquals( 4, (int) new RecipeBook( existing + ROOM ).findRecipe( "RecipeBookTest Mocha" ).getCoffee() );
+    }
+}
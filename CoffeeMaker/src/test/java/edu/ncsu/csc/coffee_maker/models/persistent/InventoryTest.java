@@ -0,0 +1,263 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hibernate.Session;
+import org.junit.Test;
+
+import edu.ncsu.csc.coffee_maker.models.InventoryStore;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+import edu.ncsu.csc.coffee_maker.util.WriteBehindQueue;
+
+/**
+ * Tests saving the Inventory to the database (the embedded H2 profile in the
+ * test build) while many orders race, waiting for group commits, and
+ * compacting the inventory table.
+ *
+ * @author sbutler2901
+ */
+public class InventoryTest {
+
+    /** Number of threads ordering at once */
+    private static final int THREADS = 8;
+    /** Orders each thread makes */
+    private static final int ORDERS  = 200;
+    /** Units of each ingredient in stock at the start */
+    private static final int STOCK   = 5000;
+
+    /**
+     * Tests that after concurrent orders, each saving the inventory outside
+     * the ledger's lock, the database holds the newest amounts rather than a
+     * snapshot that was written late.
+     *
+     * @throws Exception
+     *             if an order fails
+     */
+    @Test
+    public void testConcurrentSavesKeepNewest () throws Exception {
+        final InventoryStore store = InventoryStore.getInstance();
+        final Inventory inventory = store.getInventory();
+        store.addIngredients( STOCK, STOCK, STOCK, STOCK );
+        final int[] before = { inventory.getCoffee(), inventory.getMilk(), inventory.getSugar(),
+                inventory.getChocolate() };
+        final Recipe recipe = new Recipe();
+        recipe.setName( "InventoryTest" );
+        recipe.setPrice( 50 );
+        recipe.setCoffee( 1 );
+        recipe.setMilk( 1 );
+        recipe.setSugar( 1 );
+        recipe.setChocolate( 1 );
+
+        final ExecutorService pool = Executors.newFixedThreadPool( THREADS );
+        try {
+            final List<Future<Integer>> made = new ArrayList<Future<Integer>>();
+            for ( int t = 0; t < THREADS; t++ ) {
+                made.add( pool.submit( new Callable<Integer>() {
+                    @Override
+                    public Integer call () {
+                        int count = 0;
+                        for ( int i = 0; i < ORDERS; i++ ) {
+                            if ( store.useIngredients( recipe ) ) {
+                                count++;
+                            }
+                        }
+                        return count;
+                    }
+                } ) );
+            }
+            for ( final Future<Integer> f : made ) {
+                assertEquals( ORDERS, (int) f.get() );
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        store.flush();
+
+        final int used = THREADS * ORDERS;
+        assertEquals( before[0] - used, inventory.getCoffee() );
+
+        final Inventory stored = InventoryRows.readCurrent();
+        assertNotNull( stored );
+        assertEquals( before[0] - used, stored.getCoffee() );
+        assertEquals( before[1] - used, stored.getMilk() );
+        assertEquals( before[2] - used, stored.getSugar() );
+        assertEquals( before[3] - used, stored.getChocolate() );
+    }
+
+    /**
+     * Tests that an inventory made from amounts is only a value: creating one
+     * neither adds a row nor changes the live inventory or its row.
+     */
+    @Test
+    public void testValueConstructorSavesNothing () {
+        final Inventory live = InventoryStore.getInstance().getInventory();
+        final String amounts = live.toString();
+        final long rows = rowCount();
+
+        final Inventory value = new Inventory( 1, 2, 3, 4 );
+        assertEquals( 1, value.getCoffee() );
+        assertEquals( 4, value.getChocolate() );
+        assertNull( value.getId() );
+
+        assertEquals( rows, rowCount() );
+        assertEquals( amounts, live.toString() );
+        final Inventory stored = InventoryRows.readCurrent();
+        assertNotNull( stored );
+        assertEquals( live.getCoffee(), stored.getCoffee() );
+        assertEquals( live.getChocolate(), stored.getChocolate() );
+    }
+
+    /**
+     * Tests that setting all four amounts replaces them together, saves them
+     * once, and refuses a negative amount without changing anything.
+     */
+    @Test
+    public void testSetIngredients () {
+        final InventoryStore store = InventoryStore.getInstance();
+        final Inventory live = store.getInventory();
+        final int[] before = { live.getCoffee(), live.getMilk(), live.getSugar(), live.getChocolate() };
+        try {
+            store.setIngredients( 11, 12, 13, 14 );
+            assertEquals( "Coffee: 11\nMilk: 12\nSugar: 13\nChocolate: 14\n", live.toString() );
+            final Inventory stored = InventoryRows.readCurrent();
+            assertNotNull( stored );
+            assertEquals( live.toString(), stored.toString() );
+
+            try {
+                store.setIngredients( 1, 2, -3, 4 );
+                fail( "A negative amount was accepted" );
+            }
+            catch ( final IllegalArgumentException e ) {
+                assertEquals( 11, live.getCoffee() );
+                assertEquals( 13, live.getSugar() );
+            }
+        }
+        finally {
+            store.setIngredients( before[0], before[1], before[2], before[3] );
+        }
+    }
+
+    /**
+     * Tests that compaction removes every row but the current one, which keeps
+     * its amounts, and that the extra rows are never read as current.
+     */
+    @Test
+    public void testCompactHistory () {
+        final Inventory live = InventoryStore.getInstance().getInventory();
+        final Long current = currentId();
+
+        // Rows created after the current one, as by an older version that
+        // appended a row per change or an instance that lost the race to
+        // create the first row
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        session.beginTransaction();
+        for ( int i = 1; i <= 3; i++ ) {
+            session.createSQLQuery( "INSERT INTO inventory (id, chocolate, coffee, milk, sugar, version, journal_seq) "
+                    + "VALUES (:id, 1, 1, 1, 1, 0, 0)" ).setParameter( "id", current + 1000 + i ).executeUpdate();
+        }
+        session.getTransaction().commit();
+        session.close();
+        assertEquals( current, currentId() );
+
+        assertTrue( InventoryRows.compactHistory() >= 3 );
+        assertEquals( 0, InventoryRows.compactHistory() );
+
+        session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            assertEquals( 0L, session.createQuery( "select count(*) from Inventory where id <> :id" )
+                    .setParameter( "id", current ).uniqueResult() );
+            assertNotNull( session.get( Inventory.class, current ) );
+        }
+        finally {
+            session.close();
+        }
+
+        final Inventory stored = InventoryRows.readCurrent();
+        assertNotNull( stored );
+        assertEquals( live.getCoffee(), stored.getCoffee() );
+        assertEquals( live.getChocolate(), stored.getChocolate() );
+    }
+
+    /**
+     * Tests that an order waiting for a group commit gets an
+     * IllegalStateException once the queue gives up on a database that keeps
+     * failing, rather than waiting forever.
+     */
+    @Test
+    public void testFailingGroupCommit () {
+        final WriteBehindQueue queue = new WriteBehindQueue( "test-group-commit", 4, 4, 1, 2 ) {
+            @Override
+            protected void write ( final List<Object> entities ) {
+                throw new IllegalArgumentException( "Database is down" );
+            }
+        };
+        try {
+            GroupCommitInventoryPersistence.awaitCommit( queue.submit( new Inventory() ), 10000 );
+            fail( "An update the database refused must not be reported as saved" );
+        }
+        catch ( final IllegalStateException e ) {
+            assertTrue( e.getCause() instanceof IllegalArgumentException );
+        }
+        finally {
+            queue.shutdown();
+        }
+    }
+
+    /**
+     * Tests that an order stops waiting for a group commit that never
+     * completes.
+     */
+    @Test
+    public void testGroupCommitTimeout () {
+        try {
+            GroupCommitInventoryPersistence.awaitCommit( new CompletableFuture<Void>(), 10 );
+            fail( "A commit that never completes must time out" );
+        }
+        catch ( final IllegalStateException e ) {
+            // expected
+        }
+    }
+
+    /**
+     * Returns the number of rows in the inventory table.
+     *
+     * @return row count
+     */
+    private static long rowCount () {
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            return (Long) session.createQuery( "select count(*) from Inventory" ).uniqueResult();
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Returns the ID of the current inventory row, the first one.
+     *
+     * @return row ID
+     */
+    private static Long currentId () {
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            return (Long) session.createQuery( "select min(id) from Inventory" ).uniqueResult();
+        }
+        finally {
+            session.close();
+        }
+    }
+}
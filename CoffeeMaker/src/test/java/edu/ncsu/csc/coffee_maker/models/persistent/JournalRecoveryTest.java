@@ -0,0 +1,225 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.tools.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.coffee_maker.models.InventoryStore;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * Crashes a CoffeeMaker instance that journals its inventory changes before
+ * they reach the database, then starts another one on the same journal and
+ * embedded H2 database and checks that nothing was lost or applied twice.
+ *
+ * @author sbutler2901
+ */
+public class JournalRecoveryTest {
+
+    /** Coffee in stock at the start */
+    private static final int    STOCK    = 100;
+    /** Espressos the crashing instance makes */
+    private static final int    ORDERS   = 10;
+    /** Prefix of the line on which an instance reports its result */
+    private static final String RESULT   = "RESULT ";
+    /** Longest the test may run, in milliseconds */
+    private static final long   DEADLINE = 120000;
+
+    /** Database server the instances connect to */
+    private Server              server;
+
+    /** JDBC URL of the database */
+    private String              url;
+
+    /** Journal file shared by the instances */
+    private File                journal;
+
+    /**
+     * Starts the database server, creates the inventory with the stock and
+     * an empty journal.
+     *
+     * @throws Exception
+     *             if the database cannot be set up
+     */
+    @Before
+    public void setUp () throws Exception {
+        final int port;
+        try ( ServerSocket socket = new ServerSocket( 0 ) ) {
+            port = socket.getLocalPort();
+        }
+        server = Server.createTcpServer( "-tcpPort", Integer.toString( port ) ).start();
+        url = "jdbc:h2:tcp://localhost:" + port + "/mem:journal" + port + ";DB_CLOSE_DELAY=-1";
+
+        try ( Connection c = DriverManager.getConnection( url, "sa", "" );
+                Statement s = c.createStatement() ) {
+            s.execute( "CREATE TABLE inventory (id BIGINT AUTO_INCREMENT PRIMARY KEY, chocolate INT NOT NULL, "
+                    + "coffee INT NOT NULL, milk INT NOT NULL, sugar INT NOT NULL, version BIGINT NOT NULL, "
+                    + "journal_seq BIGINT NOT NULL DEFAULT 0)" );
+            s.execute( "INSERT INTO inventory (chocolate, coffee, milk, sugar, version) VALUES (0, " + STOCK
+                    + ", 0, 0, 0)" );
+        }
+
+        journal = File.createTempFile( "inventory", ".journal" );
+        journal.delete();
+    }
+
+    /**
+     * Removes the journal and stops the database server.
+     */
+    @After
+    public void tearDown () {
+        journal.delete();
+        if ( server != null ) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Tests that orders made just before a crash are recovered from the
+     * journal exactly once.
+     *
+     * @throws Exception
+     *             if an instance fails
+     */
+    @Test ( timeout = DEADLINE )
+    public void testRecoverAfterCrash () throws Exception {
+        assertEquals( ORDERS, runNode( "crash" ) );
+        assertEquals( "The crashed instance should not have saved its orders", STOCK, coffeeInDatabase() );
+
+        assertEquals( "Every order should be replayed", ORDERS, runNode( "recover" ) );
+        assertEquals( STOCK - ORDERS, coffeeInDatabase() );
+
+        assertEquals( "Saved orders should not be replayed again", 0, runNode( "recover" ) );
+        assertEquals( STOCK - ORDERS, coffeeInDatabase() );
+    }
+
+    /**
+     * Returns the coffee in the database.
+     *
+     * @return units of coffee
+     * @throws Exception
+     *             if the database cannot be read
+     */
+    private int coffeeInDatabase () throws Exception {
+        try ( Connection c = DriverManager.getConnection( url, "sa", "" );
+                Statement s = c.createStatement();
+                ResultSet rs = s.executeQuery( "SELECT coffee FROM inventory" ) ) {
+            assertTrue( rs.next() );
+            return rs.getInt( 1 );
+        }
+    }
+
+    /**
+     * Runs one instance in a new JVM and waits for it to exit.
+     *
+     * @param step
+     *            crash or recover
+     * @return the number the instance reported
+     * @throws Exception
+     *             if the instance fails or does not report
+     */
+    private int runNode ( final String step ) throws Exception {
+        final String java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+        final List<String> command = new ArrayList<String>();
+        command.add( java );
+        command.add( "-cp" );
+        command.add( System.getProperty( "java.class.path" ) );
+        command.add( "-Dcoffeemaker.inventory.journal=" + journal.getAbsolutePath() );
+        command.add( "-Dcoffeemaker.inventory.journalCapacity=1024" );
+        if ( "crash".equals( step ) ) {
+            // Hold the updates back until the instance is gone
+            command.add( "-Dcoffeemaker.inventory.flushInterval=" + DEADLINE );
+        }
+        command.add( "-Dhibernate.connection.url=" + url );
+        command.add( "-Dhibernate.connection.driver_class=org.h2.Driver" );
+        command.add( "-Dhibernate.connection.username=sa" );
+        command.add( "-Dhibernate.connection.password=" );
+        command.add( "-Dhibernate.dialect=org.hibernate.dialect.H2Dialect" );
+        command.add( "-Dhibernate.hbm2ddl.auto=none" );
+        command.add( "-Dhibernate.show_sql=false" );
+        command.add( Node.class.getName() );
+        command.add( step );
+
+        final File log = File.createTempFile( "coffeemaker-node", ".log" );
+        try {
+            final Process node = new ProcessBuilder( command ).redirectErrorStream( true ).redirectOutput( log )
+                    .start();
+            node.waitFor();
+            final StringBuilder output = new StringBuilder();
+            Integer result = null;
+            for ( final String line : Files.readAllLines( log.toPath(), StandardCharsets.UTF_8 ) ) {
+                output.append( line ).append( '\n' );
+                if ( line.startsWith( RESULT ) ) {
+                    result = Integer.valueOf( line.substring( RESULT.length() ).trim() );
+                }
+            }
+            if ( result == null ) {
+                throw new AssertionError( "Instance failed:\n" + output );
+            }
+            return result;
+        }
+        finally {
+            log.delete();
+        }
+    }
+
+    /**
+     * One instance. In the crash step it makes the orders and halts before
+     * the database sees them; in the recover step it replays the journal and
+     * shuts down cleanly.
+     *
+     * @author sbutler2901
+     */
+    public static final class Node {
+
+        /**
+         * Runs the instance.
+         *
+         * @param args
+         *            the step: crash or recover
+         */
+        public static void main ( final String[] args ) {
+            final InventoryPersistence persistence = InventoryStore.choosePersistence();
+            final Inventory inventory = new Inventory();
+            persistence.load( inventory );
+            final int replayed = persistence.replayJournal( inventory );
+
+            if ( "crash".equals( args[0] ) ) {
+                final Recipe espresso = new Recipe();
+                espresso.setName( "Espresso" );
+                espresso.setCoffee( 1 );
+                espresso.setMilk( 0 );
+                espresso.setSugar( 0 );
+                espresso.setChocolate( 0 );
+
+                int made = 0;
+                for ( int i = 0; i < ORDERS; i++ ) {
+                    if ( persistence.useIngredients( inventory, espresso ) ) {
+                        made++;
+                    }
+                }
+                System.out.println( RESULT + made );
+                System.out.flush();
+                Runtime.getRuntime().halt( 0 );
+            }
+
+            HibernateUtil.shutdown();
+            System.out.println( RESULT + replayed );
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package edu.ncsu.csc.coffee_maker.models.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.tools.Server;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.coffee_maker.models.InventoryStore;
+import edu.ncsu.csc.coffee_maker.util.HibernateUtil;
+
+/**
+ * Runs several CoffeeMaker instances, each in its own JVM, against one
+ * embedded H2 database, and checks that together they never sell more than is
+ * in stock, and that instances starting against an empty table agree on one
+ * inventory row. Covers both version-checked updates (shared inventory) and
+ * single-statement conditional decrements.
+ *
+ * @author sbutler2901
+ */
+public class SharedInventoryTest {
+
+    /** Number of instances */
+    private static final int    NODES    = 4;
+    /** Orders each instance attempts */
+    private static final int    ORDERS   = 150;
+    /** Coffee in stock; less than the instances try to sell together */
+    private static final int    STOCK    = 400;
+    /** Coffee each instance adds to an empty table */
+    private static final int    RESTOCK  = 25;
+    /** Prefix of the line on which an instance reports its sales */
+    private static final String SOLD     = "SOLD ";
+    /** Longest the test may run, in milliseconds */
+    private static final long   DEADLINE = 300000;
+
+    /** Database server the instances connect to */
+    private Server              server;
+
+    /** Running instances */
+    private final List<Process> nodes    = new ArrayList<Process>();
+
+    /** Output of each instance, in the same order */
+    private final List<File>    logs     = new ArrayList<File>();
+
+    /** JDBC URL of the shared database */
+    private String              url;
+
+    /**
+     * Starts the database server and creates an empty inventory table.
+     *
+     * @throws Exception
+     *             if the database cannot be set up
+     */
+    @Before
+    public void setUp () throws Exception {
+        final int port;
+        try ( ServerSocket socket = new ServerSocket( 0 ) ) {
+            port = socket.getLocalPort();
+        }
+        server = Server.createTcpServer( "-tcpPort", Integer.toString( port ) ).start();
+        url = "jdbc:h2:tcp://localhost:" + port + "/mem:inventory" + port + ";DB_CLOSE_DELAY=-1";
+
+        try ( Connection c = DriverManager.getConnection( url, "sa", "" );
+                Statement s = c.createStatement() ) {
+            s.execute( "CREATE TABLE inventory (id BIGINT AUTO_INCREMENT PRIMARY KEY, chocolate INT NOT NULL, "
+                    + "coffee INT NOT NULL, milk INT NOT NULL, sugar INT NOT NULL, version BIGINT NOT NULL, "
+                    + "journal_seq BIGINT NOT NULL DEFAULT 0)" );
+        }
+    }
+
+    /**
+     * Stops any instances still running and the database server.
+     */
+    @After
+    public void tearDown () {
+        for ( final Process node : nodes ) {
+            node.destroyForcibly();
+        }
+        for ( final File log : logs ) {
+            log.delete();
+        }
+        if ( server != null ) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Tests instances that use version-checked updates.
+     *
+     * @throws Exception
+     *             if an instance fails
+     */
+    @Test ( timeout = DEADLINE )
+    public void testNoOversellAcrossInstances () throws Exception {
+        runNodes( "-Dcoffeemaker.inventory.shared=true" );
+    }
+
+    /**
+     * Tests instances that use single-statement conditional decrements.
+     *
+     * @throws Exception
+     *             if an instance fails
+     */
+    @Test ( timeout = DEADLINE )
+    public void testNoOversellWithSqlDecrement () throws Exception {
+        runNodes( "-Dcoffeemaker.inventory.sqlDecrement=true" );
+    }
+
+    /**
+     * Tests that an instance using single-statement updates finds the
+     * inventory row again after it has moved to another ID, rather than
+     * reporting the inventory as empty.
+     *
+     * @throws Exception
+     *             if the instance fails
+     */
+    @Test ( timeout = DEADLINE )
+    public void testMovedRowWithSqlDecrement () throws Exception {
+        stock();
+        nodes.add( startNode( "-Dcoffeemaker.inventory.sqlDecrement=true", Mover.class ) );
+        assertEquals( "The order was refused after the row moved", 1, awaitSales( nodes.get( 0 ), logs.get( 0 ) ) );
+
+        try ( Connection c = DriverManager.getConnection( url, "sa", "" );
+                Statement s = c.createStatement();
+                ResultSet rs = s.executeQuery( "SELECT coffee FROM inventory" ) ) {
+            assertTrue( rs.next() );
+            assertEquals( STOCK - 1 + RESTOCK, rs.getInt( 1 ) );
+            assertFalse( rs.next() );
+        }
+    }
+
+    /**
+     * Tests instances that use version-checked updates and all start against
+     * an empty table.
+     *
+     * @throws Exception
+     *             if an instance fails
+     */
+    @Test ( timeout = DEADLINE )
+    public void testEmptyTableAcrossInstances () throws Exception {
+        restockNodes( "-Dcoffeemaker.inventory.shared=true" );
+    }
+
+    /**
+     * Tests instances that use single-statement updates and all start against
+     * an empty table.
+     *
+     * @throws Exception
+     *             if an instance fails
+     */
+    @Test ( timeout = DEADLINE )
+    public void testEmptyTableWithSqlDecrement () throws Exception {
+        restockNodes( "-Dcoffeemaker.inventory.sqlDecrement=true" );
+    }
+
+    /**
+     * Starts the instances together against the empty table, each adding
+     * coffee, and checks that they all added to the same single row.
+     *
+     * @param mode
+     *            system property that selects how the inventory is updated
+     * @throws Exception
+     *             if an instance fails
+     */
+    private void restockNodes ( final String mode ) throws Exception {
+        for ( int i = 0; i < NODES; i++ ) {
+            nodes.add( startNode( mode, Restocker.class ) );
+        }
+        for ( int i = 0; i < NODES; i++ ) {
+            awaitSales( nodes.get( i ), logs.get( i ) );
+        }
+
+        try ( Connection c = DriverManager.getConnection( url, "sa", "" );
+                Statement s = c.createStatement();
+                ResultSet rs = s.executeQuery( "SELECT coffee FROM inventory" ) ) {
+            assertTrue( rs.next() );
+            assertEquals( "Instances added to different rows", NODES * RESTOCK, rs.getInt( 1 ) );
+            assertFalse( "Instances left more than one row", rs.next() );
+        }
+    }
+
+    /**
+     * Runs the instances concurrently and checks that the coffee sold adds up
+     * to the stock exactly.
+     *
+     * @param mode
+     *            system property that selects how the inventory is updated
+     * @throws Exception
+     *             if an instance fails
+     */
+    private void runNodes ( final String mode ) throws Exception {
+        stock();
+        for ( int i = 0; i < NODES; i++ ) {
+            nodes.add( startNode( mode, Node.class ) );
+        }
+
+        int sold = 0;
+        for ( int i = 0; i < NODES; i++ ) {
+            sold += awaitSales( nodes.get( i ), logs.get( i ) );
+        }
+
+        assertEquals( "Instances sold a different amount than was in stock", STOCK, sold );
+        try ( Connection c = DriverManager.getConnection( url, "sa", "" );
+                Statement s = c.createStatement();
+                ResultSet rs = s.executeQuery( "SELECT coffee, version FROM inventory" ) ) {
+            assertTrue( rs.next() );
+            assertEquals( 0, rs.getInt( 1 ) );
+            assertEquals( "Every sale should bump the row version once", STOCK, rs.getLong( 2 ) );
+        }
+    }
+
+    /**
+     * Creates the inventory row with the stock.
+     *
+     * @throws Exception
+     *             if the row cannot be inserted
+     */
+    private void stock () throws Exception {
+        try ( Connection c = DriverManager.getConnection( url, "sa", "" );
+                Statement s = c.createStatement() ) {
+            s.execute( "INSERT INTO inventory (chocolate, coffee, milk, sugar, version) VALUES (0, " + STOCK
+                    + ", 0, 0, 0)" );
+        }
+    }
+
+    /**
+     * Starts one instance in a new JVM.
+     *
+     * @param mode
+     *            system property that selects how the inventory is updated
+     * @param main
+     *            class the instance runs
+     * @return the instance's process
+     * @throws IOException
+     *             if the JVM cannot be started
+     */
+    private Process startNode ( final String mode, final Class<?> main ) throws IOException {
+        final String java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+        final List<String> command = new ArrayList<String>();
+        command.add( java );
+        command.add( "-cp" );
+        command.add( System.getProperty( "java.class.path" ) );
+        command.add( mode );
+        command.add( "-Dcoffeemaker.inventory.maxAttempts=" + Integer.MAX_VALUE );
+        command.add( "-Dhibernate.connection.url=" + url );
+        command.add( "-Dhibernate.connection.driver_class=org.h2.Driver" );
+        command.add( "-Dhibernate.connection.username=sa" );
+        command.add( "-Dhibernate.connection.password=" );
+        command.add( "-Dhibernate.dialect=org.hibernate.dialect.H2Dialect" );
+        command.add( "-Dhibernate.hbm2ddl.auto=none" );
+        command.add( "-Dhibernate.show_sql=false" );
+        command.add( main.getName() );
+
+        // Output goes to a file so that a chatty instance never blocks on a
+        // full pipe, possibly in the middle of a transaction
+        final File log = File.createTempFile( "coffeemaker-node", ".log" );
+        logs.add( log );
+        return new ProcessBuilder( command ).redirectErrorStream( true ).redirectOutput( log ).start();
+    }
+
+    /**
+     * Waits for an instance to finish and returns how much coffee it sold.
+     *
+     * @param node
+     *            the instance's process
+     * @param log
+     *            file the instance writes its output to
+     * @return coffee sold
+     * @throws Exception
+     *             if the instance fails or does not report its sales
+     */
+    private static int awaitSales ( final Process node, final File log ) throws Exception {
+        final int status = node.waitFor();
+        final StringBuilder output = new StringBuilder();
+        Integer sold = null;
+        for ( final String line : Files.readAllLines( log.toPath(), StandardCharsets.UTF_8 ) ) {
+            output.append( line ).append( '\n' );
+            if ( line.startsWith( SOLD ) ) {
+                sold = Integer.valueOf( line.substring( SOLD.length() ).trim() );
+            }
+        }
+        if ( status != 0 || sold == null ) {
+            throw new AssertionError( "Instance failed:\n" + output );
+        }
+        return sold;
+    }
+
+    /**
+     * One instance: loads the shared inventory and orders one coffee at a
+     * time until it has made every attempt, then reports how many it sold.
+     *
+     * @author sbutler2901
+     */
+    public static final class Node {
+
+        /**
+         * Runs the instance.
+         *
+         * @param args
+         *            unused
+         */
+        public static void main ( final String[] args ) {
+            final Recipe espresso = new Recipe();
+            espresso.setName( "Espresso" );
+            espresso.setCoffee( 1 );
+            espresso.setMilk( 0 );
+            espresso.setSugar( 0 );
+            espresso.setChocolate( 0 );
+
+            final InventoryPersistence persistence = InventoryStore.choosePersistence();
+            final Inventory inventory = new Inventory();
+            persistence.load( inventory );
+            int sold = 0;
+            for ( int i = 0; i < ORDERS; i++ ) {
+                if ( persistence.useIngredients( inventory, espresso ) ) {
+                    sold++;
+                }
+            }
+            HibernateUtil.shutdown();
+            System.out.println( SOLD + sold );
+        }
+    }
+
+    /**
+     * One instance started against an empty table: loads the shared
+     * inventory, which creates its row, and adds some coffee to it.
+     *
+     * @author sbutler2901
+     */
+    public static final class Restocker {
+
+        /**
+         * Runs the instance.
+         *
+         * @param args
+         *            unused
+         */
+        public static void main ( final String[] args ) {
+            final InventoryPersistence persistence = InventoryStore.choosePersistence();
+            final Inventory inventory = new Inventory();
+            persistence.load( inventory );
+            persistence.addIngredients( inventory, new int[] { RESTOCK, 0, 0, 0 } );
+            HibernateUtil.shutdown();
+            System.out.println( SOLD + 0 );
+        }
+    }
+
+    /**
+     * One instance whose inventory row moves to another ID after it has been
+     * loaded, as if it had been removed and created again: orders one coffee,
+     * adds some, and reports the sale.
+     *
+     * @author sbutler2901
+     */
+    public static final class Mover {
+
+        /**
+         * Runs the instance.
+         *
+         * @param args
+         *            unused
+         */
+        public static void main ( final String[] args ) {
+            final Recipe espresso = new Recipe();
+            espresso.setName( "Espresso" );
+            espresso.setCoffee( 1 );
+            espresso.setMilk( 0 );
+            espresso.setSugar( 0 );
+            espresso.setChocolate( 0 );
+
+            final InventoryPersistence persistence = InventoryStore.choosePersistence();
+            final Inventory inventory = new Inventory();
+            persistence.load( inventory );
+            final Session session = HibernateUtil.getSessionFactory().openSession();
+            session.beginTransaction();
+            session.createSQLQuery( "UPDATE inventory SET id = id + 100" ).executeUpdate();
+            session.getTransaction().commit();
+            session.close();
+
+            final int sold = persistence.useIngredients( inventory, espresso ) ? 1 : 0;
+            persistence.addIngredients( inventory, new int[] { RESTOCK, 0, 0, 0 } );
+            HibernateUtil.shutdown();
+            System.out.println( SOLD + sold );
+        }
+    }
+}
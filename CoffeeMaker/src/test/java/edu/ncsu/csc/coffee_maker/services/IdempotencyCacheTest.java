@@ -0,0 +1,361 @@
+package edu.ncsu.csc.coffee_maker.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import edu.ncsu.csc.coffee_maker.models.persistent.IdempotencyRecord;
+
+/**
+ * Tests the IdempotencyCache in memory and, with persistence on, against the
+ * database (the embedded H2 profile in the test build): claiming keys,
+ * saving and releasing outcomes, and taking over claims left without one.
+ *
+ * @author sbutler2901
+ */
+public class IdempotencyCacheTest {
+
+    /** Seconds a key without an outcome blocks retries, in the tests */
+    private static final long            CLAIM_TIMEOUT = 60;
+
+    /** The cache under test */
+    private IdempotencyCache             cache;
+
+    /** Every cache started by the test */
+    private final List<IdempotencyCache> caches        = new ArrayList<IdempotencyCache>();
+
+    /** Number of times the action was carried out */
+    private AtomicInteger                calls;
+
+    /**
+     * Creates a small cache.
+     */
+    @Before
+    public void setUp () {
+        cache = cache( 8, 4, false );
+        calls = new AtomicInteger();
+    }
+
+    /**
+     * Stops the caches started by the test.
+     */
+    @After
+    public void tearDown () {
+        for ( final IdempotencyCache c : caches ) {
+            c.stop();
+        }
+    }
+
+    /**
+     * Creates and starts a cache. Persistent caches stand for separate
+     * instances sharing the database.
+     *
+     * @param maxEntries
+     *            outcomes kept in memory
+     * @param stripes
+     *            number of stripes
+     * @param persistent
+     *            whether outcomes are also kept in the database
+     * @return the cache
+     */
+    private IdempotencyCache cache ( final int maxEntries, final int stripes, final boolean persistent ) {
+        final IdempotencyCache c = new IdempotencyCache();
+        ReflectionTestUtils.setField( c, "ttl", 3600L );
+        ReflectionTestUtils.setField( c, "maxEntries", maxEntries );
+        ReflectionTestUtils.setField( c, "stripeCount", stripes );
+        ReflectionTestUtils.setField( c, "persistent", persistent );
+        ReflectionTestUtils.setField( c, "claimTimeout", CLAIM_TIMEOUT );
+        c.start();
+        caches.add( c );
+        return c;
+    }
+
+    /**
+     * Returns a key no other test uses, so that keys left in the database by
+     * one test do not affect another.
+     *
+     * @return the key
+     */
+    private static String newKey () {
+        return "test-" + UUID.randomUUID();
+    }
+
+    /**
+     * Returns an action that counts its calls and answers with a status.
+     *
+     * @param status
+     *            status to answer with
+     * @return the action
+     */
+    private Supplier<CompletableFuture<ResponseEntity< ? >>> action ( final HttpStatus status ) {
+        return new Supplier<CompletableFuture<ResponseEntity< ? >>>() {
+            @Override
+            public CompletableFuture<ResponseEntity< ? >> get () {
+                calls.incrementAndGet();
+                return CompletableFuture.<ResponseEntity< ? >> completedFuture(
+                        new ResponseEntity<String>( "change " + calls.get(), status ) );
+            }
+        };
+    }
+
+    /**
+     * Returns an action that counts its calls and answers once a future
+     * completes.
+     *
+     * @param pending
+     *            future the action answers with
+     * @return the action
+     */
+    private Supplier<CompletableFuture<ResponseEntity< ? >>> pendingAction (
+            final CompletableFuture<ResponseEntity< ? >> pending ) {
+        return new Supplier<CompletableFuture<ResponseEntity< ? >>>() {
+            @Override
+            public CompletableFuture<ResponseEntity< ? >> get () {
+                calls.incrementAndGet();
+                return pending;
+            }
+        };
+    }
+
+    /**
+     * Tests that a retry gets the first response without the action being
+     * carried out again.
+     *
+     * @throws Exception
+     *             if the response cannot be read
+     */
+    @Test
+    public void testRetryReplays () throws Exception {
+        final ResponseEntity< ? > first = cache.execute( "k1", "Coffee:60", action( HttpStatus.OK ) ).get();
+        final ResponseEntity< ? > retry = cache.execute( "k1", "Coffee:60", action( HttpStatus.OK ) ).get();
+
+        assertEquals( 1, calls.get() );
+        assertEquals( first.getBody(), retry.getBody() );
+        assertEquals( HttpStatus.OK, retry.getStatusCode() );
+        assertNull( first.getHeaders().getFirst( IdempotencyCache.REPLAYED ) );
+        assertEquals( "true", retry.getHeaders().getFirst( IdempotencyCache.REPLAYED ) );
+    }
+
+    /**
+     * Tests that a retry arriving while the first request is running waits
+     * for its outcome.
+     *
+     * @throws Exception
+     *             if the response cannot be read
+     */
+    @Test
+    public void testRetryWaitsForFirst () throws Exception {
+        final CompletableFuture<ResponseEntity< ? >> pending = new CompletableFuture<ResponseEntity< ? >>();
+        final CompletableFuture<ResponseEntity< ? >> first = cache.execute( "k2", "Coffee:60",
+                new Supplier<CompletableFuture<ResponseEntity< ? >>>() {
+                    @Override
+                    public CompletableFuture<ResponseEntity< ? >> get () {
+                        calls.incrementAndGet();
+                        return pending;
+                    }
+                } );
+        final CompletableFuture<ResponseEntity< ? >> retry = cache.execute( "k2", "Coffee:60",
+                action( HttpStatus.OK ) );
+        assertFalse( retry.isDone() );
+
+        pending.complete( new ResponseEntity<String>( "change 10", HttpStatus.OK ) );
+        assertEquals( "change 10", first.get().getBody() );
+        assertEquals( "change 10", retry.get().getBody() );
+        assertEquals( 1, calls.get() );
+    }
+
+    /**
+     * Tests that a key reused for a different request is refused.
+     *
+     * @throws Exception
+     *             if the response cannot be read
+     */
+    @Test
+    public void testKeyReusedForOtherRequest () throws Exception {
+        cache.execute( "k3", "Coffee:60", action( HttpStatus.OK ) ).get();
+        final ResponseEntity< ? > other = cache.execute( "k3", "Latte:60", action( HttpStatus.OK ) ).get();
+
+        assertEquals( HttpStatus.UNPROCESSABLE_ENTITY, other.getStatusCode() );
+        assertEquals( 1, calls.get() );
+    }
+
+    /**
+     * Tests that a refused request is not remembered, so that it can be
+     * retried.
+     *
+     * @throws Exception
+     *             if the response cannot be read
+     */
+    @Test
+    public void testRefusedIsRetried () throws Exception {
+        assertEquals( HttpStatus.TOO_MANY_REQUESTS,
+                cache.execute( "k4", "Coffee:60", action( HttpStatus.TOO_MANY_REQUESTS ) ).get().getStatusCode() );
+        assertEquals( HttpStatus.OK,
+                cache.execute( "k4", "Coffee:60", action( HttpStatus.OK ) ).get().getStatusCode() );
+        assertEquals( 2, calls.get() );
+    }
+
+    /**
+     * Tests that the cache holds no more than its capacity.
+     *
+     * @throws Exception
+     *             if the response cannot be read
+     */
+    @Test
+    public void testBounded () throws Exception {
+        for ( int i = 0; i < 100; i++ ) {
+            cache.execute( "key" + i, "Coffee:60", action( HttpStatus.OK ) ).get();
+        }
+        assertTrue( "Holds " + cache.size(), cache.size() <= 8 );
+    }
+
+    /**
+     * Tests that a full stripe drops completed entries rather than one for a
+     * request still running, so that a retry of that request still waits for
+     * it instead of carrying it out again.
+     *
+     * @throws Exception
+     *             if the response cannot be read
+     */
+    @Test
+    public void testInFlightNotEvicted () throws Exception {
+        final IdempotencyCache small = cache( 2, 1, false );
+        final CompletableFuture<ResponseEntity< ? >> pending = new CompletableFuture<ResponseEntity< ? >>();
+        small.execute( "slow", "Coffee:60", pendingAction( pending ) );
+        for ( int i = 0; i < 5; i++ ) {
+            small.execute( "fast" + i, "Coffee:60", action( HttpStatus.OK ) ).get();
+        }
+        assertEquals( 2, small.size() );
+
+        final CompletableFuture<ResponseEntity< ? >> retry = small.execute( "slow", "Coffee:60",
+                action( HttpStatus.OK ) );
+        assertFalse( retry.isDone() );
+        assertEquals( 6, calls.get() );
+
+        pending.complete( new ResponseEntity<String>( "change slow", HttpStatus.OK ) );
+        assertEquals( "change slow", retry.get().getBody() );
+    }
+
+    /**
+     * Tests that an outcome saved by one instance answers a retry made to
+     * another.
+     *
+     * @throws Exception
+     *             if the response cannot be read
+     */
+    @Test
+    public void testSavedOutcomeReplayed () throws Exception {
+        final String key = newKey();
+        final IdempotencyCache first = cache( 8, 4, true );
+        final IdempotencyCache second = cache( 8, 4, true );
+
+        assertEquals( HttpStatus.OK,
+                first.execute( key, "Coffee:60", action( HttpStatus.OK ) ).get().getStatusCode() );
+        final IdempotencyRecord saved = IdempotencyRecord.find( key );
+        assertEquals( 200, saved.getStatus() );
+        assertEquals( "change 1", saved.getBody() );
+
+        final ResponseEntity< ? > retry = second.execute( key, "Coffee:60", action( HttpStatus.OK ) ).get();
+        assertEquals( "change 1", retry.getBody() );
+        assertEquals( "true", retry.getHeaders().getFirst( IdempotencyCache.REPLAYED ) );
+        assertEquals( 1, calls.get() );
+
+        assertEquals( HttpStatus.UNPROCESSABLE_ENTITY,
+                second.execute( key, "Latte:60", action( HttpStatus.OK ) ).get().getStatusCode() );
+    }
+
+    /**
+     * Tests that a retry made to another instance while the request is still
+     * running is refused, and replayed once the outcome is saved.
+     *
+     * @throws Exception
+     *             if the response cannot be read
+     */
+    @Test
+    public void testClaimInProgress () throws Exception {
+        final String key = newKey();
+        final IdempotencyCache first = cache( 8, 4, true );
+        final IdempotencyCache second = cache( 8, 4, true );
+
+        final CompletableFuture<ResponseEntity< ? >> pending = new CompletableFuture<ResponseEntity< ? >>();
+        first.execute( key, "Coffee:60", pendingAction( pending ) );
+        assertEquals( 0, IdempotencyRecord.find( key ).getStatus() );
+        assertEquals( HttpStatus.CONFLICT,
+                second.execute( key, "Coffee:60", action( HttpStatus.OK ) ).get().getStatusCode() );
+
+        pending.complete( new ResponseEntity<String>( "change 10", HttpStatus.OK ) );
+        assertEquals( "change 10", second.execute( key, "Coffee:60", action( HttpStatus.OK ) ).get().getBody() );
+        assertEquals( 1, calls.get() );
+    }
+
+    /**
+     * Tests that a refused request releases its key, so that a retry to any
+     * instance carries it out.
+     *
+     * @throws Exception
+     *             if the response cannot be read
+     */
+    @Test
+    public void testRefusedReleased () throws Exception {
+        final String key = newKey();
+        final IdempotencyCache first = cache( 8, 4, true );
+        final IdempotencyCache second = cache( 8, 4, true );
+
+        assertEquals( HttpStatus.TOO_MANY_REQUESTS, first
+                .execute( key, "Coffee:60", action( HttpStatus.TOO_MANY_REQUESTS ) ).get().getStatusCode() );
+        assertNull( IdempotencyRecord.find( key ) );
+
+        assertEquals( HttpStatus.OK,
+                second.execute( key, "Coffee:60", action( HttpStatus.OK ) ).get().getStatusCode() );
+        assertEquals( 2, calls.get() );
+    }
+
+    /**
+     * Tests that a key claimed long ago without an outcome, as left by an
+     * instance that died, is taken over, and that the instance it was taken
+     * from can then neither save an outcome under it nor release it.
+     *
+     * @throws Exception
+     *             if the response cannot be read
+     */
+    @Test
+    public void testStaleClaimTakenOver () throws Exception {
+        final String key = newKey();
+        final long now = System.currentTimeMillis();
+        final IdempotencyRecord dead = new IdempotencyRecord( key, "Coffee:60", now + 3600000 );
+        dead.setClaimedAt( now - 2 * CLAIM_TIMEOUT * 1000 );
+        assertTrue( IdempotencyRecord.claim( dead ) );
+
+        final ResponseEntity< ? > response = cache( 8, 4, true ).execute( key, "Coffee:60", action( HttpStatus.OK ) )
+                .get();
+        assertEquals( HttpStatus.OK, response.getStatusCode() );
+        assertNull( response.getHeaders().getFirst( IdempotencyCache.REPLAYED ) );
+        assertEquals( 1, calls.get() );
+
+        final IdempotencyRecord saved = IdempotencyRecord.find( key );
+        assertEquals( 200, saved.getStatus() );
+        assertFalse( dead.getOwner().equals( saved.getOwner() ) );
+
+        dead.setStatus( 500 );
+        assertFalse( IdempotencyRecord.complete( dead ) );
+        IdempotencyRecord.release( key, dead.getOwner() );
+        assertNotNull( IdempotencyRecord.find( key ) );
+        assertEquals( 200, IdempotencyRecord.find( key ).getStatus() );
+    }
+}
@@ -0,0 +1,173 @@
+package edu.ncsu.csc.coffee_maker.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the WriteBehindQueue with a writer that fails on purpose, without the
+ * database.
+ *
+ * @author sbutler2901
+ */
+public class WriteBehindQueueTest {
+
+    /** Longest a test waits for a future, in seconds */
+    private static final long TIMEOUT = 10;
+
+    /** The queue under test */
+    private FailingQueue      queue;
+
+    /**
+     * Stops the queue's writer.
+     */
+    @After
+    public void tearDown () {
+        if ( queue != null ) {
+            queue.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a batch that keeps failing is given up on after the maximum
+     * number of attempts, and that its submitter is told.
+     *
+     * @throws Exception
+     *             if waiting is interrupted
+     */
+    @Test
+    public void testFailingWrite () throws Exception {
+        queue = new FailingQueue( 3, Integer.MAX_VALUE, false );
+        final CompletableFuture<Void> committed = queue.submit( "a" );
+        try {
+            committed.get( TIMEOUT, TimeUnit.SECONDS );
+            fail( "A batch that cannot be written must fail" );
+        }
+        catch ( final ExecutionException e ) {
+            assertTrue( e.getCause() instanceof IllegalArgumentException );
+        }
+        assertEquals( 3, queue.attempts.get() );
+
+        // Nothing is left waiting, and the writer carries on
+        queue.flush();
+        assertEquals( 0, queue.size() );
+    }
+
+    /**
+     * Tests that a batch that fails a few times is written once the database
+     * recovers.
+     *
+     * @throws Exception
+     *             if the write fails or waiting is interrupted
+     */
+    @Test
+    public void testWriteRetried () throws Exception {
+        queue = new FailingQueue( 5, 2, false );
+        queue.submit( "a" ).get( TIMEOUT, TimeUnit.SECONDS );
+
+        assertEquals( 3, queue.attempts.get() );
+        assertEquals( Collections.<Object> singletonList( "a" ), queue.written );
+    }
+
+    /**
+     * Tests that entities queued when the writer dies fail, and that the
+     * queue then refuses new ones.
+     *
+     * @throws Exception
+     *             if waiting is interrupted
+     */
+    @Test
+    public void testDeadWriter () throws Exception {
+        queue = new FailingQueue( 5, 0, true );
+        final CompletableFuture<Void> committed = queue.submit( "a" );
+        try {
+            committed.get( TIMEOUT, TimeUnit.SECONDS );
+            fail( "An entity held by a dead writer must fail" );
+        }
+        catch ( final ExecutionException e ) {
+            assertTrue( e.getCause() instanceof IllegalStateException );
+        }
+
+        try {
+            queue.enqueue( "b" );
+            fail( "A queue without a writer must refuse entities" );
+        }
+        catch ( final IllegalStateException e ) {
+            // expected
+        }
+        try {
+            queue.submit( "c" );
+            fail( "A queue without a writer must refuse entities" );
+        }
+        catch ( final IllegalStateException e ) {
+            // expected
+        }
+        // flush() does not wait for a writer that is gone
+        queue.flush();
+    }
+
+    /**
+     * A write-behind queue whose writes fail a number of times before they
+     * succeed, or kill the writer thread.
+     *
+     * @author sbutler2901
+     */
+    private static final class FailingQueue extends WriteBehindQueue {
+
+        /** Number of attempts at writing */
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        /** Entities written */
+        private final List<Object>  written  = Collections.synchronizedList( new ArrayList<Object>() );
+
+        /** Number of attempts that fail */
+        private final int           failures;
+
+        /** True to kill the writer thread instead of failing */
+        private final boolean       die;
+
+        /**
+         * Creates the queue.
+         *
+         * @param maxAttempts
+         *            attempts at a batch before it is dropped
+         * @param failures
+         *            number of attempts that fail
+         * @param die
+         *            true to kill the writer thread on the first attempt
+         */
+        FailingQueue ( final int maxAttempts, final int failures, final boolean die ) {
+            super( "test-write-behind", 4, 4, 1, maxAttempts );
+            this.failures = failures;
+            this.die = die;
+        }
+
+        /**
+         * Fails, kills the writer or records the entities.
+         *
+         * @param entities
+         *            entities to write
+         */
+        @Override
+        protected void write ( final List<Object> entities ) {
+            if ( die ) {
+                throw new Error( "Writer killed by the test" );
+            }
+            if ( attempts.incrementAndGet() <= failures ) {
+                throw new IllegalArgumentException( "Database refused the write" );
+            }
+            written.addAll( entities );
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package edu.ncsu.csc.cucumber;
 
+import java.util.List;
 import java.util.Vector;
 
 import org.junit.Assert;
@@ -132,7 +133,7 @@ public class RecipeStepDefs {
      */
     @When ( "^I attempt to delete a nonexistent recipe called (.+)$" )
     public void invalidDeleteByName ( final String name ) {
-        recipeData.currentRecipeList = (Vector<Recipe>) coffeeMaker.getRecipes();
+        recipeData.currentRecipeList = new Vector<Recipe>( coffeeMaker.getRecipes() );
 
         final Recipe toDelete = new Recipe();
         toDelete.setName( name );
@@ -348,8 +349,8 @@ public class RecipeStepDefs {
     @When ( "^I attempt to delete the recipe at index (-?\\d+)$" )
     public void validDeleteByIndex ( final int index ) {
         recipeData.index = index;
-        recipeData.currentRecipeList = (Vector<Recipe>) coffeeMaker.getRecipes();
-        final Vector<Recipe> recipes = (Vector<Recipe>) coffeeMaker.getRecipes();
+        recipeData.currentRecipeList = new Vector<Recipe>( coffeeMaker.getRecipes() );
+        final List<Recipe> recipes = coffeeMaker.getRecipes();
         try {
             recipeData.currentRecipe = recipes.get( index );
         }
@@ -399,7 +400,7 @@ public class RecipeStepDefs {
      */
     @Then ( "^the recipe is successfully deleted by index$" )
     public void recipeDeletedByIndex () {
-        final Vector<Recipe> recipes = (Vector<Recipe>) coffeeMaker.getRecipes();
+        final List<Recipe> recipes = coffeeMaker.getRecipes();
         if ( recipes.size() > 0 ) { // If size is zero, successfully deleted it.
             if ( recipeData.index < recipes.size() ) {
                 Assert.assertNotEquals( "Recipe was not successfully deleted by index", recipeData.currentRecipe,